@@ -0,0 +1,73 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.riotfamily.cachius.invalidation.ItemIndex;
+
+/**
+ * Measures the insertion of new entries into a full {@link Cache}, where 
+ * each insertion makes the {@link EvictionPolicy} pick a victim. The cost 
+ * should not depend on the number of entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheEvictionBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	private int capacity;
+	
+	private Cache cache;
+	
+	private String[] keys;
+	
+	private int i;
+	
+	@Setup
+	public void setUp() {
+		Region region = new Region("benchmark");
+		region.setCapacity(capacity);
+		cache = new Cache(region, new ItemIndex());
+		keys = new String[capacity * 2];
+		for (int n = 0; n < keys.length; n++) {
+			keys[n] = "key" + n;
+		}
+		for (int n = 0; n < capacity; n++) {
+			cache.getEntry(keys[n]);
+		}
+		i = capacity;
+	}
+	
+	@Benchmark
+	public CacheEntry insert() {
+		i = (i + 1) % keys.length;
+		return cache.getEntry(keys[i]);
+	}
+
+}
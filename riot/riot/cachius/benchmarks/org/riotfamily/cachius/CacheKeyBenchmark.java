@@ -0,0 +1,115 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares building and looking up a concatenated String key with a 
+ * segmented {@link CacheKey}. The keys have the shape produced by the
+ * CacheAnnotationHandlerAdapter: absolute URL, handler method and mapping,
+ * method arguments and the output of a CacheKeyAugmentor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheKeyBenchmark {
+
+	private static final String URL_PREFIX = "http://www.example.com";
+	
+	private static final String MAPPING = "RequestMapping(" 
+			+ "value=[/{lang}/products/{category}/*.html], method=[GET], " 
+			+ "headers=[], params=[], consumes=[], produces=[])";
+	
+	/** Interned segment, as created once per handler method */
+	private static final String METHOD = CacheKey.intern(
+			"#productList@" + MAPPING);
+	
+	private static final String AUGMENTATION = ";editMode=false;preview=false";
+	
+	@Param({"10000"})
+	private int keys;
+	
+	private String[] uris;
+	
+	private ConcurrentHashMap<String, Object> stringMap = 
+			new ConcurrentHashMap<String, Object>();
+	
+	private ConcurrentHashMap<CacheKey, Object> keyMap = 
+			new ConcurrentHashMap<CacheKey, Object>();
+	
+	private int i;
+	
+	@Setup
+	public void setUp() {
+		uris = new String[keys];
+		for (int n = 0; n < keys; n++) {
+			uris[n] = "/en/products/category-" + (n % 100) + "/item-" + n + ".html";
+			stringMap.put(buildString(n), Boolean.TRUE);
+			keyMap.put(buildKey(n), Boolean.TRUE);
+		}
+	}
+	
+	private String buildString(int n) {
+		StringBuffer url = new StringBuffer(URL_PREFIX).append(uris[n]);
+		String prefix = url.append('#').append("productList")
+				.append('@').append(MAPPING).toString();
+		
+		StringBuilder args = new StringBuilder(" {").append("en").append(';')
+				.append(n).append(';').append('}');
+		
+		StringBuilder key = new StringBuilder(prefix).append(args);
+		key.append(AUGMENTATION);
+		return key.toString();
+	}
+	
+	private CacheKey buildKey(int n) {
+		return new CacheKey.Builder()
+				.append(URL_PREFIX).append(uris[n]).append(METHOD)
+				.append(" {").append("en").append(";")
+				.append(String.valueOf(n)).append(";").append("}")
+				.append(AUGMENTATION).build();
+	}
+	
+	private int next() {
+		i = (i + 1) % keys;
+		return i;
+	}
+	
+	@Benchmark
+	public Object stringKey() {
+		return stringMap.get(buildString(next()));
+	}
+	
+	@Benchmark
+	public Object compactKey() {
+		return keyMap.get(buildKey(next()));
+	}
+	
+}
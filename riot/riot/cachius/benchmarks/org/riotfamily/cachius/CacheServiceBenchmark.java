@@ -0,0 +1,155 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+/**
+ * Measures {@link CacheService#handle(CacheHandler)}. Hits are served from 
+ * a small set of hot keys, by one and by several threads. Misses cycle 
+ * through twice as many keys as the region can hold, so that every request
+ * captures a new item and evicts another one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheServiceBenchmark {
+
+	private static final int HOT_KEYS = 100;
+	
+	@Param({"10000"})
+	private int capacity;
+	
+	private CacheService service;
+	
+	private TestHandler[] hot;
+	
+	private TestHandler[] cold;
+	
+	@Setup
+	public void setUp() throws Exception {
+		Region region = new Region("benchmark");
+		region.setCapacity(capacity);
+		service = new CacheService(new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "cachius-benchmark")), 
+				Collections.singletonList(region));
+		
+		hot = new TestHandler[HOT_KEYS];
+		for (int i = 0; i < hot.length; i++) {
+			hot[i] = new TestHandler("hot" + i);
+			service.handle(hot[i]);
+		}
+		cold = new TestHandler[capacity * 2];
+		for (int i = 0; i < cold.length; i++) {
+			cold[i] = new TestHandler("cold" + i);
+		}
+	}
+	
+	@TearDown
+	public void tearDown() throws Exception {
+		service.destroy();
+	}
+	
+	@State(Scope.Thread)
+	public static class Cursor {
+		
+		private int i;
+		
+		TestHandler next(TestHandler[] handlers) {
+			i = (i + 1) % handlers.length;
+			return handlers[i];
+		}
+	}
+	
+	@Benchmark
+	public Object hit(Cursor cursor) throws Exception {
+		TestHandler handler = cursor.next(hot);
+		service.handle(handler);
+		return handler.served;
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public Object contendedHit(Cursor cursor) throws Exception {
+		TestHandler handler = cursor.next(hot);
+		service.handle(handler);
+		return handler.served;
+	}
+	
+	@Benchmark
+	public Object miss(Cursor cursor) throws Exception {
+		TestHandler handler = cursor.next(cold);
+		service.handle(handler);
+		return handler.served;
+	}
+	
+	private static class TestHandler implements CacheHandler {
+		
+		private String key;
+		
+		private String data;
+		
+		private Serializable served;
+		
+		public TestHandler(String key) {
+			this.key = key;
+			this.data = "<html><body>" + key + "</body></html>";
+		}
+		
+		public String getCacheKey() {
+			return key;
+		}
+		
+		public String getCacheRegion() {
+			return "benchmark";
+		}
+		
+		public long getLastModified() {
+			return 0;
+		}
+		
+		public Serializable capture(DiskStore diskStore) {
+			return data;
+		}
+		
+		public void serve(Serializable data) {
+			served = data;
+		}
+		
+		public void handleUncached() {
+		}
+	}
+
+}
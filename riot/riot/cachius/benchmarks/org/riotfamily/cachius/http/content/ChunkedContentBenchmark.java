@@ -0,0 +1,138 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.riotfamily.cachius.http.support.DelegatingServletOutputStream;
+import org.riotfamily.cachius.http.support.ScanWriter;
+import org.riotfamily.cachius.http.support.ScanWriter.Block;
+import org.riotfamily.cachius.persistence.BlobOutputStream;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Measures {@link ChunkedContent#serve} for a 64 KB page with session-id 
+ * fragments. With UTF-8 the static parts are copied as raw bytes, with 
+ * ISO-8859-1 they are decoded and sent to the response's Writer.
+ * <p>
+ * The content is written into a buffer. The MockHttpServletResponse's own
+ * OutputStream is not used, as it copies arrays byte by byte.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkedContentBenchmark {
+
+	private static final int PAGE_SIZE = 64 * 1024;
+	
+	@Param({"1", "100"})
+	private int fragments;
+	
+	@Param({"UTF-8", "ISO-8859-1"})
+	private String encoding;
+	
+	private ChunkedContent content;
+	
+	private MockHttpServletRequest request = new MockHttpServletRequest();
+	
+	@Setup
+	public void setUp() throws IOException {
+		SimpleDiskStore diskStore = new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "cachius-benchmark"));
+		
+		BlobOutputStream blobOut = new BlobOutputStream(diskStore);
+		ScanWriter writer = Directives.DEFAULTS.createWriter(
+				new OutputStreamWriter(blobOut, "UTF-8"));
+		
+		String line = "<a href=\"/products/item.html\">Bl\u00e4tter & \u00dcbersicht</a>\n";
+		int lines = PAGE_SIZE / line.length();
+		int step = Math.max(1, lines / fragments);
+		for (int i = 0; i < lines; i++) {
+			if (i % step == 0) {
+				writer.write("<a href=\"/products/item.html(@riot.sessionid)\">");
+			}
+			writer.write(line);
+		}
+		writer.close();
+		
+		content = new ChunkedContent(blobOut.toBlob());
+		for (Block block : writer.getBlocks()) {
+			content.addFragment(block.getStart(), block.getEnd(), 
+					Directives.DEFAULTS.parse(block.getValue()));
+		}
+		content.addTail();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		content.delete();
+	}
+	
+	@Benchmark
+	public ByteArrayOutputStream serve() throws ServletException, IOException {
+		BufferResponse response = new BufferResponse();
+		response.setCharacterEncoding(encoding);
+		content.serve(request, response);
+		response.getWriter().flush();
+		return response.buffer;
+	}
+	
+	private static class BufferResponse extends MockHttpServletResponse {
+		
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+				PAGE_SIZE + 1024);
+		
+		private PrintWriter writer;
+		
+		@Override
+		public ServletOutputStream getOutputStream() {
+			return new DelegatingServletOutputStream(buffer);
+		}
+		
+		@Override
+		public PrintWriter getWriter() throws UnsupportedEncodingException {
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(
+						buffer, getCharacterEncoding()));
+			}
+			return writer;
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.riotfamily.cachius.persistence.Blob;
+import org.riotfamily.cachius.persistence.BlobOutputStream;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.MemoryStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+import org.riotfamily.cachius.persistence.TieredStore;
+
+/**
+ * Measures the creation of the gzip variant of captured markup, as done 
+ * by {@link ContentEncodings} for compressible content, at different 
+ * compression levels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentEncodingsBenchmark {
+
+	@Param({"4096", "65536"})
+	private int size;
+	
+	@Param({"1", "6", "9"})
+	private int level;
+	
+	private DiskStore diskStore;
+	
+	private ContentEncoder encoder = new GzipEncoder();
+	
+	private Blob blob;
+	
+	@Setup
+	public void setUp() throws IOException {
+		diskStore = new TieredStore(new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "cachius-benchmark")),
+				new MemoryStore(16 * 1024 * 1024, 128 * 1024));
+		
+		BlobOutputStream out = BlobOutputStream.create(diskStore);
+		String line = "<li><a href=\"/products/item.html\">Bl\u00e4tter & \u00dcbersicht</a></li>\n";
+		for (int n = 0; n < size; n += line.length()) {
+			out.write(line.getBytes("UTF-8"));
+		}
+		blob = out.toBlob();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		blob.delete();
+	}
+	
+	@Benchmark
+	public Blob gzip() throws IOException {
+		Blob encoded = ContentEncodings.encode(blob, encoder, 
+				BlobOutputStream.create(diskStore), level);
+		
+		encoded.delete();
+		return encoded;
+	}
+
+}
@@ -0,0 +1,96 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the {@link ScanWriter} for a 64 KB page 
+ * containing roughly the given number of expressions, compared to writing the same 
+ * characters without scanning.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanWriterBenchmark {
+
+	private static final int PAGE_SIZE = 64 * 1024;
+	
+	@Param({"0", "100"})
+	private int expressions;
+	
+	private char[] page;
+	
+	private Writer out = new NullWriter();
+	
+	@Setup
+	public void setUp() {
+		String line = "<a href=\"/products/item.html\">Bl\u00e4tter & \u00dcbersicht</a>\n";
+		int lines = PAGE_SIZE / line.length();
+		int step = expressions > 0 ? Math.max(1, lines / expressions) : 0;
+		StringBuilder sb = new StringBuilder(PAGE_SIZE + 1024);
+		for (int i = 0; i < lines; i++) {
+			if (step > 0 && i % step == 0) {
+				sb.append("<a href=\"/products/item.html(@riot.sessionid)\">");
+			}
+			sb.append(line);
+		}
+		page = sb.toString().toCharArray();
+	}
+	
+	@Benchmark
+	public Writer plain() throws IOException {
+		out.write(page, 0, page.length);
+		return out;
+	}
+	
+	@Benchmark
+	public ScanWriter scan() throws IOException {
+		ScanWriter writer = new ScanWriter(out, "(@riot.", ')');
+		writer.write(page, 0, page.length);
+		return writer;
+	}
+	
+	private static class NullWriter extends Writer {
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+		
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
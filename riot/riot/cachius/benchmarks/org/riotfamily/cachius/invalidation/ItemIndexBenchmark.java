@@ -0,0 +1,113 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.riotfamily.cachius.CacheItem;
+
+/**
+ * Measures the {@link ItemIndex} when items carrying a hot tag are 
+ * re-captured (removed and added) by several threads while another thread 
+ * keeps invalidating that tag.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemIndexBenchmark {
+
+	private static final String HOT_TAG = "org.riotfamily.components.model.Content";
+	
+	@Param({"1000", "100000"})
+	private int items;
+	
+	private ItemIndex index;
+	
+	@Setup
+	public void setUp() {
+		index = new ItemIndex();
+		for (int i = 0; i < items; i++) {
+			index.add(createItem("item" + i));
+		}
+	}
+	
+	private static CacheItem createItem(String key) {
+		CacheItem item = new CacheItem(key);
+		item.addTag(HOT_TAG);
+		item.addTag(key);
+		return item;
+	}
+	
+	@State(Scope.Thread)
+	public static class Recapture {
+		
+		private CacheItem[] items = new CacheItem[1000];
+		
+		private int i;
+		
+		@Setup
+		public void setUp(ItemIndexBenchmark benchmark) {
+			String prefix = Thread.currentThread().getName();
+			for (int n = 0; n < items.length; n++) {
+				items[n] = createItem(prefix + n);
+				benchmark.index.add(items[n]);
+			}
+		}
+		
+		void recapture(ItemIndex index) {
+			CacheItem oldItem = items[i];
+			CacheItem newItem = createItem(oldItem.getKey());
+			index.remove(oldItem);
+			index.add(newItem);
+			items[i] = newItem;
+			i = (i + 1) % items.length;
+		}
+	}
+	
+	@Benchmark
+	@Group("uncontended")
+	public void recapture(Recapture state) {
+		state.recapture(index);
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public void recaptureWhileInvalidating(Recapture state) {
+		state.recapture(index);
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void invalidate() {
+		index.invalidate(HOT_TAG);
+	}
+
+}
@@ -0,0 +1,98 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the strategies used by {@link FileBlob} to serve a file: a
+ * regular stream copy, FileChannel.transferTo() and a shared 
+ * MappedByteBuffer. The bytes are written to the null device, so that
+ * all strategies have to cross the kernel boundary like they would when
+ * writing to a socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileBlobBenchmark {
+
+	@Param({"1024", "65536", "1048576"})
+	private int size;
+	
+	private FileBlob blob;
+	
+	private FileOutputStream out;
+	
+	private FileChannel channel;
+	
+	@Setup
+	public void setUp() throws IOException {
+		File file = File.createTempFile("blob", ".bin");
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(data);
+		}
+		finally {
+			fos.close();
+		}
+		blob = new FileBlob(file);
+		boolean windows = System.getProperty("os.name").startsWith("Windows");
+		out = new FileOutputStream(windows ? "NUL" : "/dev/null");
+		channel = out.getChannel();
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		out.close();
+		blob.delete();
+	}
+	
+	@Benchmark
+	public void stream() throws IOException {
+		blob.copyTo(out);
+	}
+	
+	@Benchmark
+	public void transferTo() throws IOException {
+		blob.transferTo(channel);
+	}
+	
+	@Benchmark
+	public void mapped() throws IOException {
+		blob.writeMappedTo(out);
+	}
+	
+}
@@ -1,29 +1,60 @@
 package org.riotfamily.cachius;
 
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.riotfamily.cachius.invalidation.ItemIndex;
 
 public class Cache {
 	
+	/** 
+	 * Maximum number of victims examined per insert. Any remaining overflow 
+	 * is dealt with upon the next insert.
+	 */
+	private static final int MAX_EVICTION_ATTEMPTS = 16;
+	
 	private Region region;
 	
 	private ItemIndex index;
 	
-	private ConcurrentHashMap<String, CacheEntry> map =
-			new ConcurrentHashMap<String, CacheEntry>();
+	private EvictionPolicy evictionPolicy;
+	
+	private CacheJournal journal;
+	
+	private ConcurrentHashMap<CacheKey, CacheEntry> map =
+			new ConcurrentHashMap<CacheKey, CacheEntry>();
 	
 	private AtomicInteger size = new AtomicInteger();
 	
-	private CleanUpThread cleanUpThread = new CleanUpThread();
+	/** Number of bytes occupied by the entries */
+	private AtomicLong usedBytes = new AtomicLong();
+	
+	private AtomicLong hits = new AtomicLong();
+	
+	private AtomicLong misses = new AtomicLong();
+	
+	private AtomicLong notModified = new AtomicLong();
+	
+	private AtomicLong evictions = new AtomicLong();
+	
+	private AtomicLong queuedCaptures = new AtomicLong();
+	
+	private AtomicLong rejectedCaptures = new AtomicLong();
+	
+	/** Permits for the region's captures, or null if not limited */
+	private Semaphore capturePermits;
 
 	public Cache(Region region, ItemIndex index) {
 		this.region = region;
 		this.index = index;
-		cleanUpThread.start();
+		this.evictionPolicy = region.getEvictionPolicy();
+		if (region.getMaxConcurrentCaptures() > 0) {
+			capturePermits = new Semaphore(region.getMaxConcurrentCaptures(), true);
+		}
 	}
 
 	public Region getRegion() {
@@ -33,6 +64,89 @@ public class Cache {
 	public int getSize() {
 		return size.get();
 	}
+	
+	/**
+	 * Returns the approximate number of bytes occupied by the cached items.
+	 */
+	public long getUsedBytes() {
+		return usedBytes.get();
+	}
+	
+	public String getEvictionPolicyName() {
+		return evictionPolicy.getName();
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the number of requests that have been answered with a 
+	 * not-modified response.
+	 */
+	public long getNotModified() {
+		return notModified.get();
+	}
+	
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Returns how many captures had to wait for a permit.
+	 */
+	public long getQueuedCaptures() {
+		return queuedCaptures.get();
+	}
+	
+	/**
+	 * Returns how many captures were skipped because no permit was 
+	 * available. The stale data was kept instead.
+	 */
+	public long getRejectedCaptures() {
+		return rejectedCaptures.get();
+	}
+	
+	Semaphore getCapturePermits() {
+		return capturePermits;
+	}
+	
+	void setJournal(CacheJournal journal) {
+		this.journal = journal;
+	}
+	
+	void recordHit() {
+		hits.incrementAndGet();
+	}
+	
+	void recordMiss() {
+		misses.incrementAndGet();
+	}
+	
+	void recordNotModified() {
+		notModified.incrementAndGet();
+	}
+	
+	void recordQueuedCapture() {
+		queuedCaptures.incrementAndGet();
+	}
+	
+	void recordRejectedCapture() {
+		rejectedCaptures.incrementAndGet();
+	}
+	
+	void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		notModified.set(0);
+		evictions.set(0);
+		queuedCaptures.set(0);
+		rejectedCaptures.set(0);
+	}
 
 	/**
 	 * Returns the CacheItem with the given key or creates a new one, if no
@@ -42,6 +156,14 @@ public class Cache {
 	 * @return The CacheItem for the given key
 	 */
 	public CacheEntry getEntry(String key) {
+		return getEntry(CacheKey.valueOf(key));
+	}
+	
+	/**
+	 * Returns the CacheItem with the given key or creates a new one, if no
+	 * entry with that key exists.
+	 */
+	public CacheEntry getEntry(CacheKey key) {
 		CacheEntry entry = map.get(key);
 		if (entry == null) {
 			try {
@@ -49,11 +171,13 @@ public class Cache {
 				CacheEntry oldEntry = map.putIfAbsent(key, newEntry);
 				if (oldEntry == null) {
 					size.incrementAndGet();
-					checkCapacity();
+					usedBytes.addAndGet(newEntry.updateSize());
+					evictionPolicy.entryAdded(newEntry);
+					evict();
 					return newEntry;
 				}
 				else {
-					return oldEntry;
+					entry = oldEntry;
 				}
 			}
 			catch (Exception e) {
@@ -61,87 +185,115 @@ public class Cache {
 				return null;
 			}
 		}
-		else {
-			return entry;
-		}
+		evictionPolicy.entryAccessed(entry);
+		return entry;
 	}
 	
 	/**
-	 * Removes the given item from the cache.
+	 * Returns the entry with the given key, or <code>null</code> if no such
+	 * entry exists. Unlike {@link #getEntry(CacheKey)} this method neither
+	 * creates an entry nor counts as an access.
 	 */
-	private void removeEntry(CacheEntry entry) {
-		map.remove(entry.getKey());
-		size.decrementAndGet();
-		index.remove(entry.getItem());
-		entry.delete();
+	CacheEntry getExistingEntry(String key) {
+		return map.get(CacheKey.valueOf(key));
 	}
 	
-	/**
-	 * Notifies the clean-up thread when the capacity is exceeded.
-	 */
-	private void checkCapacity() {
-		if (size.get() >= region.getCapacity()) {
-			synchronized (cleanUpThread) {
-				cleanUpThread.notify();
-			}
-		}
+	Collection<CacheEntry> getEntries() {
+		return map.values();
 	}
 	
 	/**
-	 * Invalidates all cache entries
+	 * Adds an entry for an item that has been restored by the 
+	 * {@link CacheJournal}.
 	 */
-	protected void invalidateAll() {
-		for (CacheEntry entry : map.values()) {
-			entry.getItem().invalidate();
+	void restore(String key, CacheItem item) {
+		CacheEntry entry = getEntry(key);
+		if (entry != null) {
+			entry.getItem().retire();
+			entry.setItem(item);
+			index.add(item);
+			itemReplaced(entry);
 		}
-	}	
+	}
 	
 	/**
-	 * Removes items from the cache that haven't been used for a long time. The
-	 * number of items removed is <code>capacity * evictionFactor</code>.
+	 * Must be invoked after the item of an entry has been replaced. Updates 
+	 * the number of used bytes and evicts entries if the region's budget 
+	 * has been exceeded.
 	 */
-	private void cleanup() {
-		TreeSet<CacheEntry> entries = new TreeSet<CacheEntry>(map.values());
-		int i = region.getItemsToEvict();
-		Iterator<CacheEntry> it = entries.iterator();
-		while (it.hasNext() && i > 0) {
-			removeEntry(it.next());
-			i--;
+	void itemReplaced(CacheEntry entry) {
+		long delta = entry.updateSize();
+		if (delta != 0) {
+			usedBytes.addAndGet(delta);
+			if (delta > 0) {
+				evict();
+			}
 		}
 	}
 	
-	public void destroy() {
-		cleanUpThread.shutdown();
+	private boolean isOverBudget() {
+		return size.get() > region.getCapacity() || (region.getMaxSize() > 0 
+				&& usedBytes.get() > region.getMaxSize());
 	}
 	
 	/**
-	 * Thread that performs a clean-up upon notification.
+	 * Returns whether the given entry is (still) part of the cache.
 	 */
-	private class CleanUpThread extends Thread {
-
-		private boolean running = true;
-
-		@Override
-		public void run() {
-			while (running) {
-				synchronized (this) {
-					try {
-						wait();
-					}
-					catch (InterruptedException e) {
-						break;
+	boolean contains(CacheEntry entry) {
+		return map.get(entry.getCacheKey()) == entry;
+	}
+	
+	/**
+	 * Evicts entries chosen by the {@link EvictionPolicy} until the region's
+	 * capacity and byte budget are no longer exceeded. Victims are removed 
+	 * while holding their update lock. Entries that are currently being
+	 * updated (including those updated further up the current thread's 
+	 * stack) are handed back to the policy. 
+	 */
+	private void evict() {
+		int attempts = 0;
+		while (isOverBudget() && attempts++ < MAX_EVICTION_ATTEMPTS) {
+			CacheEntry victim = evictionPolicy.nextVictim();
+			if (victim == null) {
+				break;
+			}
+			ReentrantLock lock = victim.getUpdateLock();
+			if (lock.isHeldByCurrentThread() || !lock.tryLock()) {
+				evictionPolicy.entryAdded(victim);
+				continue;
+			}
+			try {
+				if (map.remove(victim.getCacheKey(), victim)) {
+					size.decrementAndGet();
+					usedBytes.addAndGet(-victim.retire());
+					evictions.incrementAndGet();
+					if (journal != null) {
+						journal.itemRemoved(this, victim.getKey());
 					}
+					index.remove(victim.getItem());
+					victim.delete();
 				}
-				if (running) {
-					cleanup();
-				}
+			}
+			finally {
+				lock.unlock();
 			}
 		}
-
-		public synchronized void shutdown() {
-			running = false;
-			notify();
+	}
+	
+	/**
+	 * Invalidates all cache entries
+	 */
+	protected void invalidateAll() {
+		for (CacheEntry entry : map.values()) {
+			CacheItem item = entry.getItem();
+			item.invalidate();
+			if (journal != null) {
+				journal.itemInvalidated(this, item);
+			}
 		}
+	}	
+	
+	public void destroy() {
 	}
 
 }
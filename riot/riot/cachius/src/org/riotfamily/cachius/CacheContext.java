@@ -21,7 +21,13 @@ public class CacheContext {
 	
 	private static ThreadLocal<CacheItem> currentItem = new ThreadLocal<CacheItem>();
 	
-	static CacheItem getItem() {
+	private static ThreadLocal<Region> currentRegion = new ThreadLocal<Region>();
+	
+	/**
+	 * Returns the item that is currently being captured, or 
+	 * <code>null</code> if no capture is in progress.
+	 */
+	public static CacheItem getItem() {
 		return currentItem.get();
 	}
 
@@ -29,6 +35,18 @@ public class CacheContext {
 		currentItem.set(item);
 	}
 	
+	/**
+	 * Returns the region of the item that is currently being captured, or 
+	 * <code>null</code> if no capture is in progress.
+	 */
+	public static Region getRegion() {
+		return currentRegion.get();
+	}
+	
+	static void setRegion(Region region) {
+		currentRegion.set(region);
+	}
+	
 	public static void tag(String tag) {
 		CacheItem item = currentItem.get();
 		if (item != null) {
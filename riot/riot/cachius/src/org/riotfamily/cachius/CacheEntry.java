@@ -3,85 +3,165 @@ package org.riotfamily.cachius;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
  * Class that is used as value object in the ConcurrentHashMap of a Cache.
- * Provides a ReadWriteLock to synchronize the access to the underlying 
- * CacheItem. Additionally it records when the item was accessed for the 
- * last time.
+ * Readers access the underlying CacheItem without locking: the reference is 
+ * volatile and replaced with a compare-and-set, while items that have been 
+ * replaced are deleted once the last reader has released them (see 
+ * {@link CacheItem#retain()}). Threads that update the item are serialized 
+ * by a separate lock. Additionally the entry carries a reference bit that is 
+ * used by the region's {@link EvictionPolicy}.
  */
-public class CacheEntry implements Serializable, Comparable<CacheEntry> {
+public class CacheEntry implements Serializable {
+	
+	private static final AtomicReferenceFieldUpdater<CacheEntry, CacheItem> 
+			itemUpdater = AtomicReferenceFieldUpdater.newUpdater(
+			CacheEntry.class, CacheItem.class, "item");
 	
 	/** The key used for lookups */
-    private String key;
+    private CacheKey key;
     
 	/** The actual item */
-    private CacheItem item;
+    private volatile CacheItem item;
+    
+    /** Whether the entry has been accessed since the last eviction sweep */
+    private transient volatile boolean referenced;
+    
+    /** Size of the item that has been accounted for by the Cache */
+    private transient long size;
     
-    /** Time of the last access */
-    private long lastAccess;
+    /** Set once the entry has been removed from the Cache */
+    private transient boolean retired;
+    
+    /** Handler used to refresh the item in the background */
+    private transient volatile CacheHandler refreshHandler;
     
     /** 
-     * ReadWriteLock to prevent concurrent threads from updating
-     * the cached content while others are reading.
+     * Lock to prevent concurrent threads from updating the cached content 
+     * at the same time. Readers never acquire it.
      */
-    private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private transient ReentrantLock updateLock = new ReentrantLock();
     
-    CacheEntry(String key) {
+    CacheEntry(CacheKey key) {
     	this.key = key;
-    	this.item = new CacheItem(key);
+    	this.item = new CacheItem(key.toString());
     }
     
     /**
      * Returns the key.
      */
     public String getKey() {
-        return key;
+        return key.toString();
+    }
+    
+    CacheKey getCacheKey() {
+    	return key;
     }
 	
     public CacheItem getItem() {
-    	touch();
 		return item;
 	}
     
     public void setItem(CacheItem item) {
-    	touch();
 		this.item = item;
 	}
     
+    /**
+     * Atomically replaces the item, if the current one is the expected item.
+     */
+    boolean compareAndSetItem(CacheItem expected, CacheItem item) {
+    	return itemUpdater.compareAndSet(this, expected, item);
+    }
+    
+    /**
+     * Returns the current item after {@link CacheItem#retain() retaining} 
+     * it, or <code>null</code> if the entry has been deleted. The caller 
+     * must {@link CacheItem#release() release} the item when done.
+     */
+    CacheItem retainItem() {
+    	while (true) {
+    		CacheItem current = item;
+    		if (current.retain()) {
+    			return current;
+    		}
+    		if (item == current) {
+    			return null;
+    		}
+    	}
+    }
+    
+	CacheHandler getRefreshHandler() {
+		return refreshHandler;
+	}
+
+	void setRefreshHandler(CacheHandler refreshHandler) {
+		this.refreshHandler = refreshHandler;
+	}
+    
 	/**
-	 * Returns the lock. 
+	 * Records the size of the current item and returns the difference to
+	 * the previously recorded size. Returns <code>0</code> if the entry has 
+	 * been retired.
 	 */
-	protected ReentrantReadWriteLock getLock() {
-		return this.lock;
+	synchronized long updateSize() {
+		if (retired) {
+			return 0;
+		}
+		long newSize = item.getSize();
+		long delta = newSize - size;
+		size = newSize;
+		return delta;
 	}
 	
 	/**
-     * Sets the lastAccess timestamp to the current time.
+	 * Marks the entry as removed and returns the recorded size.
+	 */
+	synchronized long retire() {
+		retired = true;
+		long oldSize = size;
+		size = 0;
+		return oldSize;
+	}
+	
+	/**
+	 * Returns the lock that must be held while the item is updated. 
+	 */
+	protected ReentrantLock getUpdateLock() {
+		return this.updateLock;
+	}
+	
+	/**
+     * Sets the reference bit. The volatile field is only written if the bit
+     * is not already set, so that hot entries don't cause a write on every
+     * access.
      */
-    private void touch() {
-    	this.lastAccess = System.currentTimeMillis();
+    void markReferenced() {
+    	if (!referenced) {
+    		referenced = true;
+    	}
     }
     
     /**
-	 * Returns the last access time.
-	 */
-	public long getLastAccess() {
-		return this.lastAccess;
-	}
+     * Clears the reference bit and returns its previous value.
+     */
+    boolean clearReferenced() {
+    	if (referenced) {
+    		referenced = false;
+    		return true;
+    	}
+    	return false;
+    }
 		
+	/**
+	 * Retires the current item. Its data is deleted as soon as no other 
+	 * thread is serving it anymore.
+	 */
 	protected void delete() {
-    	WriteLock writeLock = lock.writeLock();
-    	writeLock.lock();
-    	try {
-    		item.delete();
-        }
-        finally {
-            writeLock.unlock();
-        }
+		item.retire();
     }
 	
 	 /**
@@ -91,7 +171,7 @@ public class CacheEntry implements Serializable, Comparable<CacheEntry> {
             ClassNotFoundException {
          
          in.defaultReadObject();
-         lock = new ReentrantReadWriteLock(true);
+         updateLock = new ReentrantLock();
     }
     
     @Override
@@ -113,12 +193,7 @@ public class CacheEntry implements Serializable, Comparable<CacheEntry> {
     
     @Override
 	public String toString() {
-    	return key;
+    	return key.toString();
     }
 
-	public int compareTo(CacheEntry that) {
-		long l1 = this.lastAccess;
-		long l2 = that.lastAccess;
-		return (l1 < l2 ? -1 : (l1 == l2 ? 0 : 1));
-	}
 }
@@ -5,8 +5,10 @@ import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.riotfamily.cachius.persistence.Deleteable;
+import org.riotfamily.cachius.persistence.Measurable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,7 +17,16 @@ import org.slf4j.LoggerFactory;
  */
 public class CacheItem implements Serializable {
 
-	private Logger log = LoggerFactory.getLogger(CacheItem.class);
+	private static Logger log = LoggerFactory.getLogger(CacheItem.class);
+	
+	/** Approximate heap size of an item, its entry and the entry's lock */
+	private static final int ITEM_OVERHEAD = 256;
+	
+	/** Approximate heap size of a set element, not counting its characters */
+	private static final int ELEMENT_OVERHEAD = 64;
+	
+	private static final AtomicIntegerFieldUpdater<CacheItem> readersUpdater =
+			AtomicIntegerFieldUpdater.newUpdater(CacheItem.class, "readers");
 	
 	private String key;
 	
@@ -27,8 +38,14 @@ public class CacheItem implements Serializable {
     /** Time when the item will expire */
     private long expires = -1;
     
+    /** 
+     * Generation of the ItemIndex when the capture began. Not serialized, 
+     * as generations start at zero after a restart.
+     */
+    private transient long generation;
+    
     /** Whether the item has been invalidated */
-    private boolean invalidated;
+    private volatile boolean invalidated;
     
     /** Whether the content contains an error */
     private boolean error;
@@ -48,14 +65,43 @@ public class CacheItem implements Serializable {
     /** Set of files involved in the creation of the cached data */
     private Set<File> involvedFiles;
     
+    /** Whether the involved files are watched by a FileChangeRegistry */
+    private transient volatile boolean filesWatched;
+    
+    /** Set by the FileChangeRegistry when an involved file is modified */
+    private transient volatile boolean filesModified;
+    
+    /** 
+     * Number of threads currently serving the item, or <code>-1</code> if 
+     * the data has been deleted
+     */
+    private transient volatile int readers;
+    
+    /** Whether the item has been replaced or removed from the cache */
+    private transient volatile boolean retired;
+    
+    /** 
+     * Item whose data is shared by this one. The data belongs to the 
+     * original item and is only deleted when both have been retired. 
+     */
+    private transient CacheItem original;
+    
+    /** Notified when the data is modified after the item has been stored */
+    private transient volatile DataListener dataListener;
+    
     public CacheItem(String key) {
     	this.key = key;
     	this.lastModified = System.currentTimeMillis();
     }
     
+    /**
+     * Creates an item that serves the data of the given one. Retiring the
+     * copy retires the original item.
+     */
     public CacheItem(CacheItem old) {
     	this(old.key);
     	this.data = old.data;
+    	this.original = old;
     }
     
     /**
@@ -80,6 +126,18 @@ public class CacheItem implements Serializable {
 		this.data = data;
 	}
     
+    public long getGeneration() {
+		return generation;
+	}
+
+	public void setGeneration(long generation) {
+		this.generation = generation;
+	}
+    
+    public long getExpires() {
+		return expires;
+	}
+    
     public void setExpires(long expires) {
 		this.expires = expires;
 	}
@@ -109,6 +167,18 @@ public class CacheItem implements Serializable {
     	return expires > 0 && now >= expires;
     }
 	
+	/**
+	 * Returns whether the item has not yet expired, but will do so within 
+	 * the given number of milliseconds.
+	 */
+	public boolean isExpiringWithin(long millis) {
+		if (expires <= 0) {
+			return false;
+		}
+		long remaining = expires - System.currentTimeMillis();
+		return remaining > 0 && remaining <= millis;
+	}
+	
 	public boolean isUpToDate(CacheHandler handler) {
 		if (data == null) {
 			log.trace("Item is new and must be updated");
@@ -145,8 +215,40 @@ public class CacheItem implements Serializable {
 		}
 	}
 		
+	/**
+	 * Returns the involved files, or <code>null</code> if there are none.
+	 */
+	public Set<File> getInvolvedFiles() {
+		return involvedFiles;
+	}
+	
+	public void setFilesWatched(boolean filesWatched) {
+		this.filesWatched = filesWatched;
+	}
+	
+	public boolean isFilesModified() {
+		return filesModified;
+	}
+
+	/**
+	 * Marks the item as outdated because one of the involved files has 
+	 * been modified.
+	 */
+	public void markFilesModified() {
+		this.filesModified = true;
+	}
+	
+	/**
+	 * Returns whether any of the involved files has been modified since the 
+	 * item was created. If the files are watched by a 
+	 * {@link org.riotfamily.cachius.invalidation.FileChangeRegistry}, 
+	 * only the flag set by the registry is checked.
+	 */
     public boolean anyFileModified() {
-    	if (involvedFiles != null) {
+    	if (filesModified) {
+    		return true;
+    	}
+    	if (involvedFiles != null && !filesWatched) {
     		for (File file : involvedFiles) {
     			if (file.lastModified() > lastModified) {
     				log.trace("Involved file was modified: {}", file.getName());
@@ -197,8 +299,81 @@ public class CacheItem implements Serializable {
 		}
 	}
 	
+	/**
+	 * Returns the approximate number of bytes occupied by the item. This 
+	 * includes the in-memory metadata (key, tags and involved files) as well
+	 * as the size of the data, if it is {@link Measurable}.
+	 */
+	public long getSize() {
+		long size = ITEM_OVERHEAD + 2 * key.length();
+		if (tags != null) {
+			for (String tag : tags) {
+				size += ELEMENT_OVERHEAD + 2 * tag.length();
+			}
+		}
+		if (involvedFiles != null) {
+			for (File file : involvedFiles) {
+				size += ELEMENT_OVERHEAD + 2 * file.getPath().length();
+			}
+		}
+		if (data instanceof Measurable) {
+			size += ((Measurable) data).getSize();
+		}
+		return size;
+	}
+	
+	/**
+	 * Registers a thread that is about to serve the item. Returns 
+	 * <code>false</code> if the data has already been deleted.
+	 */
+	public boolean retain() {
+		while (true) {
+			int count = readers;
+			if (count < 0) {
+				return false;
+			}
+			if (readersUpdater.compareAndSet(this, count, count + 1)) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Must be invoked when a thread that has {@link #retain() retained} the
+	 * item is done. Deletes the data if the item has been retired and this
+	 * was the last reader.
+	 */
+	public void release() {
+		if (readersUpdater.decrementAndGet(this) == 0 && retired) {
+			deleteUnused();
+		}
+	}
+	
+	/**
+	 * Marks the item as no longer being part of the cache. The data is 
+	 * deleted immediately if no thread is serving it, otherwise the last
+	 * reader deletes it upon {@link #release()}.
+	 */
+	public void retire() {
+		retired = true;
+		deleteUnused();
+	}
+	
+	private void deleteUnused() {
+		if (readersUpdater.compareAndSet(this, 0, -1)) {
+			delete();
+		}
+	}
+	
+	/**
+	 * Deletes the data immediately. Use {@link #retire()} if other threads
+	 * might still be serving the item.
+	 */
 	public void delete() {
-		if (data instanceof Deleteable) {
+		if (original != null) {
+			original.retire();
+		}
+		else if (data instanceof Deleteable) {
 			((Deleteable) data).delete();
 		}
 	}
@@ -206,6 +381,10 @@ public class CacheItem implements Serializable {
 	public void serveStaleUntilExpired() {
 		serveStaleUntilExpired = true;
 	}
+	
+	public boolean isServeStaleUntilExpired() {
+		return serveStaleUntilExpired;
+	}
 
 	public void serveStaleOnError() {
 		serveStaleOnError = true;
@@ -223,9 +402,35 @@ public class CacheItem implements Serializable {
 		return serveStaleWhileRevalidate;
 	}
 	
+	void setDataListener(DataListener dataListener) {
+		this.dataListener = dataListener;
+	}
+	
+	/**
+	 * Must be invoked when the data has been modified after the capture, 
+	 * like when an encoded variant has been added in the background, so 
+	 * that the cache can update its size accounting and its journal.
+	 */
+	public void dataModified() {
+		DataListener listener = dataListener;
+		if (listener != null) {
+			listener.dataModified(this);
+		}
+	}
+	
     @Override
     public String toString() {
     	return key;
     }	
 	
+    /**
+     * Callback registered by the {@link CacheService} when the item is 
+     * stored.
+     */
+    interface DataListener {
+    	
+    	public void dataModified(CacheItem item);
+    	
+    }
+    
 }
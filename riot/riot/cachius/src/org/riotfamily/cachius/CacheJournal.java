@@ -0,0 +1,645 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import org.riotfamily.cachius.persistence.DirectoryDiskStore;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.FileBlob;
+import org.riotfamily.cachius.persistence.MemoryBlob;
+import org.riotfamily.cachius.persistence.TieredStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal that records the cached items of a {@link CacheService},
+ * so that a restarted node can come back with a warm cache.
+ * <p>
+ * Each stored, invalidated or removed item is appended as a checksummed 
+ * record by a background thread. Upon startup the journal is replayed, 
+ * items whose files are missing or have been modified are dropped, and a 
+ * compacted snapshot is written. Files in the DiskStore's directory that
+ * are not referenced by any restored item are deleted in the background.
+ * A torn record at the end of the file (e.g. after a crash) is ignored.
+ * <p>
+ * Items stored in the off-heap memory tier are not persisted. Note that the
+ * DiskStore must be configured to preserve its files, otherwise all 
+ * restored items will be dropped.
+ */
+public class CacheJournal {
+
+	private static final int COMPACT = 0;
+	
+	private static final int PUT = 1;
+	
+	private static final int INVALIDATE = 2;
+	
+	private static final int REMOVE = 3;
+	
+	private static final int TAG = 4;
+	
+	private static final Record CLOSE = new Record(-1, null, null, null);
+	
+	private Logger log = LoggerFactory.getLogger(CacheJournal.class);
+	
+	private File file;
+	
+	private boolean enabled = true;
+	
+	private int compactionThreshold = 100000;
+	
+	private CacheService service;
+	
+	private BlockingQueue<Record> queue = new LinkedBlockingQueue<Record>();
+	
+	private Thread writerThread;
+	
+	private volatile boolean active;
+	
+	public CacheJournal() {
+		this(new File(System.getProperty("java.io.tmpdir"), "cachius.journal"));
+	}
+	
+	public CacheJournal(File file) {
+		this.file = file;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets whether the journal should be used. If disabled, an existing 
+	 * journal file is ignored and no records are written.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * Sets the number of records after which the journal is compacted.
+	 * Default is <code>100000</code>.
+	 */
+	public void setCompactionThreshold(int compactionThreshold) {
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	// -----------------------------------------------------------------------
+	// Callbacks invoked by the CacheService
+	// -----------------------------------------------------------------------
+	
+	/**
+	 * Replays the journal, adds the restored items to the service's caches 
+	 * and starts the writer thread.
+	 */
+	synchronized void restore(CacheService service) {
+		if (!enabled || writerThread != null) {
+			return;
+		}
+		this.service = service;
+		long startTime = System.currentTimeMillis();
+		Set<File> referencedFiles = new HashSet<File>();
+		try {
+			int count = replay(referencedFiles);
+			log.info("Restored {} items in {} ms", count, 
+					System.currentTimeMillis() - startTime);
+		}
+		catch (IOException e) {
+			log.error("Failed to read cache journal " + file, e);
+		}
+		queue.add(new Record(COMPACT, null, null, null));
+		active = true;
+		writerThread = new Thread(new Writer(), "cachius-journal");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		collectOrphans(referencedFiles, startTime);
+	}
+	
+	void itemStored(Cache cache, CacheItem item) {
+		append(PUT, cache, item.getKey(), item);
+	}
+	
+	void itemInvalidated(Cache cache, CacheItem item) {
+		append(INVALIDATE, cache, item.getKey(), null);
+	}
+	
+	void itemRemoved(Cache cache, String key) {
+		append(REMOVE, cache, key, null);
+	}
+	
+	/**
+	 * Records a lazily invalidated tag. Upon replay, all items carrying the
+	 * tag that have been stored before are marked as invalidated.
+	 */
+	void tagInvalidated(String tag) {
+		if (active) {
+			queue.add(new Record(TAG, "", tag, null));
+		}
+	}
+	
+	private void append(int type, Cache cache, String key, CacheItem item) {
+		if (active) {
+			queue.add(new Record(type, cache.getRegion().getName(), key, item));
+		}
+	}
+	
+	/**
+	 * Writes all pending records and stops the writer thread.
+	 */
+	public synchronized void close() {
+		if (writerThread != null) {
+			active = false;
+			queue.add(CLOSE);
+			try {
+				writerThread.join(10000);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			writerThread = null;
+		}
+	}
+	
+	// -----------------------------------------------------------------------
+	// Replay
+	// -----------------------------------------------------------------------
+	
+	private int replay(Set<File> referencedFiles) throws IOException {
+		File source = file;
+		if (!source.exists()) {
+			// A crash might have occurred during a compaction
+			source = getCompactionFile();
+			if (!source.exists()) {
+				return 0;
+			}
+		}
+		Map<String, Map<String, byte[]>> regions = 
+				new HashMap<String, Map<String, byte[]>>();
+		
+		Set<String> invalidated = new HashSet<String>();
+		
+		// Sequence numbers of the last PUT per item and the last 
+		// invalidation per tag
+		Map<String, Integer> stored = new HashMap<String, Integer>();
+		Map<String, Integer> tags = new HashMap<String, Integer>();
+		int seq = 0;
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(source)));
+		try {
+			byte[] payload;
+			while ((payload = readRecord(in)) != null) {
+				DataInputStream record = new DataInputStream(
+						new ByteArrayInputStream(payload));
+				
+				int type = record.readByte();
+				String region = record.readUTF();
+				String key = record.readUTF();
+				seq++;
+				if (type == TAG) {
+					tags.put(key, seq);
+					continue;
+				}
+				Map<String, byte[]> items = regions.get(region);
+				if (items == null) {
+					items = new LinkedHashMap<String, byte[]>();
+					regions.put(region, items);
+				}
+				String id = region + '\0' + key;
+				if (type == PUT) {
+					byte[] data = new byte[record.readInt()];
+					record.readFully(data);
+					// Remove first to preserve the insertion order
+					items.remove(key);
+					items.put(key, data);
+					invalidated.remove(id);
+					stored.put(id, seq);
+				}
+				else if (type == INVALIDATE) {
+					invalidated.add(id);
+				}
+				else if (type == REMOVE) {
+					items.remove(key);
+					invalidated.remove(id);
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		
+		int count = 0;
+		for (Map.Entry<String, Map<String, byte[]>> region : regions.entrySet()) {
+			Cache cache = service.getCaches().get(region.getKey());
+			if (cache == null) {
+				continue;
+			}
+			for (Map.Entry<String, byte[]> entry : region.getValue().entrySet()) {
+				List<FileBlob> blobs = new ArrayList<FileBlob>();
+				CacheItem item = deserialize(entry.getValue(), blobs);
+				if (item != null && item.getData() != null && allIntact(blobs)) {
+					String id = region.getKey() + '\0' + entry.getKey();
+					if (invalidated.contains(id) 
+							|| isTagInvalidated(item, stored.get(id), tags)) {
+						
+						item.invalidate();
+					}
+					cache.restore(entry.getKey(), item);
+					for (FileBlob blob : blobs) {
+						referencedFiles.add(blob.getFile());
+					}
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+	
+	private boolean isTagInvalidated(CacheItem item, Integer seq, 
+			Map<String, Integer> tags) {
+		
+		if (seq != null && item.getTags() != null) {
+			for (String tag : item.getTags()) {
+				Integer invalidated = tags.get(tag);
+				if (invalidated != null && invalidated > seq) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Reads a record. Returns <code>null</code> when the end of the file or
+	 * a damaged record is reached.
+	 */
+	private byte[] readRecord(DataInputStream in) throws IOException {
+		try {
+			int length = in.readInt();
+			if (length <= 0) {
+				return null;
+			}
+			// Check the length before allocating the buffer, as the 
+			// field itself might be damaged
+			if (length > in.available()) {
+				log.warn("Damaged record in cache journal, ignoring the rest");
+				return null;
+			}
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			long checksum = in.readLong();
+			if (checksum != checksum(payload)) {
+				log.warn("Damaged record in cache journal, ignoring the rest");
+				return null;
+			}
+			return payload;
+		}
+		catch (EOFException e) {
+			return null;
+		}
+	}
+	
+	private CacheItem deserialize(byte[] data, final List<FileBlob> blobs) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(
+					new ByteArrayInputStream(data)) {
+				{
+					enableResolveObject(true);
+				}
+				
+				@Override
+				protected Object resolveObject(Object obj) {
+					if (obj instanceof FileBlob) {
+						blobs.add((FileBlob) obj);
+					}
+					return obj;
+				}
+			};
+			return (CacheItem) in.readObject();
+		}
+		catch (Exception e) {
+			log.debug("Failed to restore item", e);
+			return null;
+		}
+	}
+	
+	private boolean allIntact(List<FileBlob> blobs) {
+		for (FileBlob blob : blobs) {
+			if (!blob.isIntact()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Deletes all files in the DiskStore's directory that are older than the
+	 * given time and not referenced by any restored item.
+	 */
+	private void collectOrphans(final Set<File> referencedFiles, 
+			final long startTime) {
+		
+		DiskStore diskStore = service.getDiskStore();
+		if (diskStore instanceof TieredStore) {
+			diskStore = ((TieredStore) diskStore).getDiskStore();
+		}
+		if (!(diskStore instanceof DirectoryDiskStore)) {
+			return;
+		}
+		final File dir = ((DirectoryDiskStore) diskStore).getBaseDir();
+		Thread thread = new Thread("cachius-journal-gc") {
+			@Override
+			public void run() {
+				int count = deleteOrphans(dir, referencedFiles, startTime);
+				log.info("Deleted {} orphaned files", count);
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+	
+	private static int deleteOrphans(File dir, Set<File> referencedFiles, 
+			long startTime) {
+		
+		int count = 0;
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				if (f.isDirectory()) {
+					count += deleteOrphans(f, referencedFiles, startTime);
+				}
+				else if (f.lastModified() < startTime 
+						&& !referencedFiles.contains(f) && f.delete()) {
+					
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	// -----------------------------------------------------------------------
+	// Writing
+	// -----------------------------------------------------------------------
+	
+	private File getCompactionFile() {
+		return new File(file.getPath() + ".tmp");
+	}
+	
+	private static long checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return crc.getValue();
+	}
+	
+	/**
+	 * Serializes the given record. Returns <code>null</code> if the record
+	 * can't be persisted.
+	 */
+	private byte[] serialize(Record record) {
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(buffer);
+			out.writeByte(record.type);
+			out.writeUTF(record.region);
+			out.writeUTF(record.key);
+			if (record.type == PUT) {
+				byte[] data = serialize(record.item);
+				out.writeInt(data.length);
+				out.write(data);
+			}
+			out.flush();
+			return buffer.toByteArray();
+		}
+		catch (NotSerializableException e) {
+			log.debug("Not persisting {}: {}", record.key, e.getMessage());
+			return null;
+		}
+		catch (IOException e) {
+			log.warn("Failed to persist " + record.key, e);
+			return null;
+		}
+		catch (RuntimeException e) {
+			log.error("Failed to persist " + record.key, e);
+			return null;
+		}
+	}
+	
+	private byte[] serialize(CacheItem item) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(buffer) {
+			{
+				enableReplaceObject(true);
+			}
+			
+			@Override
+			protected Object replaceObject(Object obj) throws IOException {
+				if (obj instanceof MemoryBlob) {
+					// Memory blobs don't survive a restart
+					throw new NotSerializableException("Item is in memory tier");
+				}
+				return obj;
+			}
+		};
+		out.writeObject(item);
+		out.close();
+		return buffer.toByteArray();
+	}
+	
+	private static void write(DataOutputStream out, byte[] payload) 
+			throws IOException {
+		
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.writeLong(checksum(payload));
+	}
+	
+	/**
+	 * Writes a PUT record, followed by an INVALIDATE record if the item has 
+	 * been invalidated. Lazy invalidations are resolved first, as they are 
+	 * decided by the generation in which the capture started, whereas the
+	 * replay only compares the position of the PUT and TAG records. An item
+	 * whose capture started before a tag was invalidated might otherwise be
+	 * restored as valid. Returns whether the item has been written.
+	 */
+	private boolean writeItem(DataOutputStream out, Record record) 
+			throws IOException {
+		
+		byte[] payload = serialize(record);
+		if (payload == null) {
+			return false;
+		}
+		write(out, payload);
+		service.getIndex().checkInvalidation(record.item);
+		if (record.item.isInvalidated()) {
+			write(out, serialize(new Record(INVALIDATE, record.region, 
+					record.key, null)));
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes a snapshot of all cached items into a new file, which then
+	 * replaces the journal.
+	 */
+	private DataOutputStream compact(DataOutputStream out) throws IOException {
+		if (out != null) {
+			out.close();
+		}
+		File tmp = getCompactionFile();
+		FileOutputStream fos = new FileOutputStream(tmp);
+		out = new DataOutputStream(new BufferedOutputStream(fos));
+		int count = 0;
+		for (Cache cache : service.getCaches().values()) {
+			for (CacheEntry entry : cache.getEntries()) {
+				CacheItem item = entry.getItem();
+				if (item.getData() != null) {
+					// Pending tag invalidations are resolved, as the TAG 
+					// records are not carried over
+					if (writeItem(out, new Record(PUT, 
+							cache.getRegion().getName(), item.getKey(), item))) {
+						
+						count++;
+					}
+				}
+			}
+		}
+		out.flush();
+		fos.getFD().sync();
+		out.close();
+		file.delete();
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Failed to rename " + tmp + " to " + file);
+		}
+		log.debug("Compacted cache journal, {} items", count);
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file, true)));
+	}
+	
+	private static class Record {
+		
+		private int type;
+		
+		private String region;
+		
+		private String key;
+		
+		private CacheItem item;
+
+		public Record(int type, String region, String key, CacheItem item) {
+			this.type = type;
+			this.region = region;
+			this.key = key;
+			this.item = item;
+		}
+	}
+	
+	/**
+	 * Drains the queue and appends the records to the journal.
+	 */
+	private class Writer implements Runnable {
+		
+		public void run() {
+			DataOutputStream out = null;
+			int records = 0;
+			try {
+				while (true) {
+					Record record = queue.take();
+					do {
+						if (record == CLOSE) {
+							return;
+						}
+						if (record.type == COMPACT || records >= compactionThreshold) {
+							out = compact(out);
+							records = 0;
+						}
+						if (record.type != COMPACT) {
+							try {
+								if (append(out, record)) {
+									records++;
+								}
+							}
+							catch (RuntimeException e) {
+								log.error("Failed to persist " + record.key, e);
+							}
+						}
+						record = queue.poll();
+					}
+					while (record != null);
+					out.flush();
+				}
+			}
+			catch (InterruptedException e) {
+			}
+			catch (IOException e) {
+				log.error("Failed to write cache journal, journaling stopped", e);
+			}
+			finally {
+				active = false;
+				queue.clear();
+				closeQuietly(out);
+			}
+		}
+	}
+	
+	private boolean append(DataOutputStream out, Record record) 
+			throws IOException {
+		
+		if (record.type == PUT) {
+			return writeItem(out, record);
+		}
+		byte[] payload = serialize(record);
+		if (payload == null) {
+			return false;
+		}
+		write(out, payload);
+		return true;
+	}
+	
+	private static void closeQuietly(OutputStream out) {
+		if (out != null) {
+			try {
+				out.close();
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+
+}
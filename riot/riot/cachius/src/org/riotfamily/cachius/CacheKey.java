@@ -0,0 +1,250 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache key that consists of several segments. The segments are never 
+ * concatenated for lookups: the hash code is computed once, incrementally 
+ * over all segments, and equality is verified segment by segment, so that
+ * no intermediate String has to be built on each request.
+ * <p>
+ * Two keys are equal if the concatenations of their segments are equal, 
+ * regardless of how the characters are distributed among the segments. 
+ * The hash code is the same as the one of the concatenated String, which
+ * allows keys restored from their String representation to match keys 
+ * built from segments.
+ * <p>
+ * Segments that are the same for many requests (like a handler's name or
+ * mapping) should be passed through {@link #intern(String)}. Comparing 
+ * interned segments only requires an identity check. As CacheKey is a 
+ * CharSequence, it can be returned wherever a key part is expected, and 
+ * its segments are adopted when it is appended to a {@link Builder}.
+ */
+public final class CacheKey implements CharSequence, Serializable {
+
+	private static final int MAX_INTERNED_SEGMENTS = 10000;
+	
+	private static ConcurrentMap<String, String> segments = 
+			new ConcurrentHashMap<String, String>();
+	
+	private final String[] parts;
+	
+	private final int length;
+	
+	private final int hash;
+	
+	private transient String string;
+	
+	private CacheKey(String[] parts) {
+		this.parts = parts;
+		int len = 0;
+		int h = 0;
+		for (String part : parts) {
+			len += part.length();
+			for (int i = 0; i < part.length(); i++) {
+				h = 31 * h + part.charAt(i);
+			}
+		}
+		this.length = len;
+		this.hash = h;
+	}
+	
+	/**
+	 * Returns a key that consists of a single segment.
+	 */
+	public static CacheKey valueOf(String key) {
+		CacheKey cacheKey = new CacheKey(new String[] { key });
+		cacheKey.string = key;
+		return cacheKey;
+	}
+	
+	/**
+	 * Returns a key that consists of the given segments. 
+	 * <code>null</code> values are skipped.
+	 */
+	public static CacheKey of(CharSequence... segments) {
+		return new Builder(segments.length).append(segments).build();
+	}
+	
+	/**
+	 * Returns a canonical instance of the given segment. Once the pool is
+	 * full, the segment itself is returned. Only segments from a bounded 
+	 * set, like constants or handler names, should be interned, as values 
+	 * derived from a request would fill the pool.
+	 */
+	public static String intern(String segment) {
+		String existing = segments.get(segment);
+		if (existing != null) {
+			return existing;
+		}
+		if (segments.size() >= MAX_INTERNED_SEGMENTS) {
+			return segment;
+		}
+		existing = segments.putIfAbsent(segment, segment);
+		return existing != null ? existing : segment;
+	}
+	
+	public int length() {
+		return length;
+	}
+	
+	public char charAt(int index) {
+		for (String part : parts) {
+			if (index < part.length()) {
+				return part.charAt(index);
+			}
+			index -= part.length();
+		}
+		throw new IndexOutOfBoundsException();
+	}
+	
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+	
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof CacheKey)) {
+			return false;
+		}
+		CacheKey other = (CacheKey) obj;
+		if (other.hash != hash || other.length != length) {
+			return false;
+		}
+		if (parts.length == other.parts.length && samePartLengths(other)) {
+			for (int i = 0; i < parts.length; i++) {
+				if (parts[i] != other.parts[i] && !parts[i].equals(other.parts[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return contentEquals(other);
+	}
+	
+	private boolean samePartLengths(CacheKey other) {
+		for (int i = 0; i < parts.length; i++) {
+			if (parts[i].length() != other.parts[i].length()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Compares the characters of two keys whose segments have different
+	 * boundaries.
+	 */
+	private boolean contentEquals(CacheKey other) {
+		int i = 0, j = 0, pi = 0, pj = 0;
+		for (int n = 0; n < length; n++) {
+			while (pi == parts[i].length()) {
+				i++;
+				pi = 0;
+			}
+			while (pj == other.parts[j].length()) {
+				j++;
+				pj = 0;
+			}
+			if (parts[i].charAt(pi++) != other.parts[j].charAt(pj++)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the concatenated segments. The String is only built once.
+	 */
+	@Override
+	public String toString() {
+		String s = string;
+		if (s == null) {
+			StringBuilder sb = new StringBuilder(length);
+			for (String part : parts) {
+				sb.append(part);
+			}
+			s = sb.toString();
+			string = s;
+		}
+		return s;
+	}
+	
+	/**
+	 * Builder that collects the segments of a key.
+	 */
+	public static final class Builder {
+		
+		private String[] parts;
+		
+		private int count;
+		
+		public Builder() {
+			this(8);
+		}
+		
+		public Builder(int capacity) {
+			parts = new String[Math.max(capacity, 1)];
+		}
+		
+		/**
+		 * Appends a segment. <code>null</code> values and empty segments 
+		 * are ignored. If the segment is a CacheKey, its segments are 
+		 * appended.
+		 */
+		public Builder append(CharSequence segment) {
+			if (segment instanceof CacheKey) {
+				for (String part : ((CacheKey) segment).parts) {
+					add(part);
+				}
+			}
+			else if (segment != null && segment.length() > 0) {
+				add(segment.toString());
+			}
+			return this;
+		}
+		
+		private void add(String part) {
+			if (count == parts.length) {
+				parts = Arrays.copyOf(parts, count << 1);
+			}
+			parts[count++] = part;
+		}
+		
+		public Builder append(CharSequence... segments) {
+			for (CharSequence segment : segments) {
+				append(segment);
+			}
+			return this;
+		}
+		
+		public CacheKey build() {
+			return new CacheKey(count == parts.length 
+					? parts : Arrays.copyOf(parts, count));
+		}
+	}
+	
+}
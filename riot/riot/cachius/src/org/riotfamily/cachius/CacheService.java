@@ -4,10 +4,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.riotfamily.cachius.invalidation.ClusterItemInvalidator;
 import org.riotfamily.cachius.invalidation.DefaultItemInvalidator;
+import org.riotfamily.cachius.invalidation.FileChangeRegistry;
+import org.riotfamily.cachius.invalidation.InvalidationListener;
 import org.riotfamily.cachius.invalidation.ItemIndex;
 import org.riotfamily.cachius.invalidation.ItemInvalidator;
 import org.riotfamily.cachius.persistence.DiskStore;
@@ -29,6 +31,14 @@ public class CacheService {
 	private ItemInvalidator invalidator = new DefaultItemInvalidator();
 	
 	private CachiusStatistics stats;
+	
+	private RefreshScheduler refreshScheduler = new RefreshScheduler();
+	
+	private CaptureLimiter captureLimiter = new CaptureLimiter();
+	
+	private CacheJournal journal;
+	
+	private FileChangeRegistry fileRegistry;
 
 	public CacheService() {
 		this(new SimpleDiskStore());
@@ -43,12 +53,104 @@ public class CacheService {
 		for (Region region : regions) {
 			caches.put(region.getName(), new Cache(region, index));
 		}
+		index.setListener(new ItemInvalidationListener());
 		this.stats = new CachiusStatistics(this, caches.keySet());
 	}
 	
 	public CachiusStatistics getStatistics() {
 		return stats;
 	}	
+	
+	public DiskStore getDiskStore() {
+		return diskStore;
+	}
+	
+	/**
+	 * Sets a journal that records the cached items, so that they can be 
+	 * restored after a restart. The journal is replayed immediately, unless
+	 * it is disabled.
+	 */
+	public void setJournal(CacheJournal journal) {
+		if (!journal.isEnabled()) {
+			return;
+		}
+		this.journal = journal;
+		for (Cache cache : caches.values()) {
+			cache.setJournal(journal);
+		}
+		journal.restore(this);
+	}
+	
+	public ItemInvalidator getInvalidator() {
+		return invalidator;
+	}
+
+	/**
+	 * Sets the ItemInvalidator that is used by 
+	 * {@link #invalidateTaggedItems(String)}. Default is a 
+	 * {@link DefaultItemInvalidator}. A {@link ClusterItemInvalidator} is
+	 * registered with the service's index, so that it can apply invalidations
+	 * received from other nodes.
+	 */
+	public void setInvalidator(ItemInvalidator invalidator) {
+		this.invalidator = invalidator;
+		if (invalidator instanceof ClusterItemInvalidator) {
+			((ClusterItemInvalidator) invalidator).register(index);
+		}
+	}
+	
+	/**
+	 * Sets whether tags should be invalidated lazily. If enabled, 
+	 * invalidating a tag takes constant time regardless of the number of 
+	 * items carrying it, and the items are checked when they are requested.
+	 * Default is <code>false</code>.
+	 * 
+	 * @see ItemIndex#setLazyInvalidation(boolean)
+	 */
+	public void setLazyInvalidation(boolean lazyInvalidation) {
+		index.setLazyInvalidation(lazyInvalidation);
+	}
+	
+	ItemIndex getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Sets a registry that watches the files involved in the creation of 
+	 * cached items, so that they don't have to be checked upon each hit.
+	 */
+	public void setFileRegistry(FileChangeRegistry fileRegistry) {
+		this.fileRegistry = fileRegistry;
+		index.setFileRegistry(fileRegistry);
+	}
+	
+	Map<String, Cache> getCaches() {
+		return caches;
+	}
+	
+	public CaptureLimiter getCaptureLimiter() {
+		return captureLimiter;
+	}
+
+	/**
+	 * Sets the limiter that controls how many captures may run concurrently.
+	 * By default the number is not limited.
+	 */
+	public void setCaptureLimiter(CaptureLimiter captureLimiter) {
+		this.captureLimiter = captureLimiter;
+	}
+	
+	public RefreshScheduler getRefreshScheduler() {
+		return refreshScheduler;
+	}
+	
+	/**
+	 * Sets the scheduler that refreshes items of regions with 
+	 * {@link Region#setRefreshAhead(boolean) refresh-ahead} enabled.
+	 */
+	public void setRefreshScheduler(RefreshScheduler refreshScheduler) {
+		this.refreshScheduler = refreshScheduler;
+	}
 
 	public Cache getCache(String region) {
 		if (region == null) {
@@ -63,7 +165,7 @@ public class CacheService {
 
 	private CacheEntry getCacheEntry(CacheHandler handler) {
 		CacheEntry entry = null;
-		String cacheKey = handler.getCacheKey();
+		CacheKey cacheKey = getKey(handler);
 		if (cacheKey != null) {
 			Cache cache = getCache(handler.getCacheRegion());
 			entry = cache.getEntry(cacheKey);
@@ -71,10 +173,19 @@ public class CacheService {
 		return entry;
 	}
 	
+	private static CacheKey getKey(CacheHandler handler) {
+		if (handler instanceof KeyedCacheHandler) {
+			return ((KeyedCacheHandler) handler).getKey();
+		}
+		String key = handler.getCacheKey();
+		return key != null ? CacheKey.valueOf(key) : null;
+	}
+	
 	public long getLastModified(CacheHandler handler) {
 		CacheEntry entry = getCacheEntry(handler);
         if (entry != null) {
         	CacheItem item = entry.getItem();
+        	index.checkInvalidation(item);
         	if (item.isUpToDate(handler)) {
         		return item.getLastModified();
         	}
@@ -83,171 +194,387 @@ public class CacheService {
 	}
 	
 	public void handle(CacheHandler handler) throws Exception {
-		CacheEntry entry = getCacheEntry(handler);
+		CacheEntry entry = null;
+		Cache cache = null;
+		CacheKey cacheKey = getKey(handler);
+		if (cacheKey != null) {
+			cache = getCache(handler.getCacheRegion());
+			entry = cache.getEntry(cacheKey);
+		}
         if (entry == null) {
             handler.handleUncached();
         }
         else {
         	CacheItem item = entry.getItem();
+        	index.checkInvalidation(item);
         	if (item.isUpToDate(handler)) {
         		stats.addHit();
+        		cache.recordHit();
+        		if (cache.getRegion().isRefreshAhead() && item.isExpiringWithin(
+        				cache.getRegion().getRefreshAheadTime())) {
+        			
+        			scheduleRefresh(cache, entry);
+        		}
         		log.debug("Serving cached content: {}", entry.getKey());
-        		serveData(handler, entry);
+        		serveEntry(cache, handler, entry);
         	}
         	else {
         		stats.addMiss();
-        		capture(entry, handler);        		        			
+        		cache.recordMiss();
+        		if (item.isServeStaleWhileRevalidate() 
+        				&& scheduleRefresh(cache, entry)) {
+        			
+        			log.debug("Serving stale content while refreshing {}", entry.getKey());
+        			serveEntry(cache, handler, entry);
+        		}
+        		else {
+        			capture(cache, entry, handler);
+        		}
         	}
         }
 	}
 	
-	private void capture(CacheEntry entry, CacheHandler handler) throws Exception {
+	private void capture(Cache cache, CacheEntry entry, CacheHandler handler) 
+			throws Exception {
+		
+		if (cache.getRegion().isRefreshAhead() && entry.getRefreshHandler() == null
+				&& handler instanceof ReplayableCacheHandler) {
+			
+			entry.setRefreshHandler(((ReplayableCacheHandler) handler).replay());
+		}
     	CacheItem item = entry.getItem();
 		long t1 = System.currentTimeMillis();
     	if (item != null && item.isServeStaleWhileRevalidate()) {
-    		nonBlockingCapture(entry, handler);
+    		nonBlockingCapture(cache, entry, handler);
     	}
     	else {
-    		blockingCapture(entry, handler);
+    		blockingCapture(cache, entry, handler);
     	}
     	long t2 = System.currentTimeMillis();
     	stats.itemUpdated(item, t2 - t1);
     }
 	
-	 private void nonBlockingCapture(CacheEntry entry, CacheHandler handler)
-	 		throws Exception {
+	/**
+	 * Obtains a capture permit for the given item. Must only be called by 
+	 * the thread that holds the entry's update lock, after the item has been 
+	 * found to be stale, so that threads waiting for the same entry don't 
+	 * occupy any permits. If the item has data that could be served instead, 
+	 * the method returns <code>false</code> when no permit is available, 
+	 * otherwise it blocks until one is released.
+	 */
+	private boolean acquirePermit(Cache cache, CacheItem item) 
+			throws InterruptedException {
+		
+		if (item.getData() != null) {
+			if (!captureLimiter.tryAcquire(cache)) {
+				log.debug("Too many captures, serving stale content: {}", 
+						item.getKey());
+				
+				return false;
+			}
+		}
+		else {
+			captureLimiter.acquire(cache);
+		}
+		return true;
+	}
+	
+	 private void nonBlockingCapture(Cache cache, CacheEntry entry, 
+	 		CacheHandler handler) throws Exception {
 	    	
     	CacheItem oldItem;
-    	// Acquire a write-lock to replace the item by a temporary one
-    	// that serves the old data.
-    	WriteLock writeLock = entry.getLock().writeLock();
-		writeLock.lock();
+    	CacheItem tempItem = null;
+    	// Replace the item by a temporary one that serves the old data
+    	// while the new content is captured.
+    	ReentrantLock lock = entry.getUpdateLock();
+		lock.lock();
 		try {
 			oldItem = entry.getItem();
 			if (oldItem.isUpToDate(handler)) {
 				log.debug("Item has already been updated by another thread");
-				serveData(handler, entry);
-				return;
 			}
-			else {
-				entry.setItem(new CacheItem(oldItem));					
+			else if (acquirePermit(cache, oldItem)) {
+				tempItem = new CacheItem(oldItem);
+				entry.setItem(tempItem);
 			}
 		}
 		finally {
-			// Release the write-lock unless it was already released by serveCacheEntry()
-			if (entry.getLock().isWriteLockedByCurrentThread()) {
-				writeLock.unlock();
-			}
+			lock.unlock();
+		}
+		if (tempItem == null) {
+			serveEntry(cache, handler, entry);
+			return;
 		}
 		
 		log.debug("Updating {} (non-blocking)", entry.getKey());
 		
 		// Create a new CacheItem and capture the content ...
 		CacheItem newItem = new CacheItem(entry.getKey());
-
-		updateInContext(handler, newItem);
-		
-		// Acquire a write-lock again to swap the CacheItems
-		writeLock = entry.getLock().writeLock();
-		writeLock.lock();
+		newItem.setGeneration(index.beginCapture());
+		CacheItem detachedItem;
 		try {
-			replaceItemAndServeData(entry, handler, oldItem, newItem);
+			try {
+				updateInContext(cache, handler, newItem);
+			}
+			finally {
+				captureLimiter.release(cache);
+			}
+			
+			// Acquire the lock again to swap the CacheItems
+			lock.lock();
+			try {
+				detachedItem = replaceItem(cache, entry, oldItem, tempItem, newItem);
+			}
+			finally {
+				lock.unlock();
+			}
 		}
 		finally {
-			// The lock should have already been released by serveCacheEntry(),
-			// but in case an exception was thrown before, make sure the entry is unlocked.
-			if (entry.getLock().isWriteLockedByCurrentThread()) {
-				writeLock.unlock();
-			}
-		}	
+			index.endCapture(newItem);
+		}
+		serve(cache, handler, entry, detachedItem);
 	}
 	 
-    private void blockingCapture(CacheEntry entry, CacheHandler handler)
-    		throws Exception {
+    private void blockingCapture(Cache cache, CacheEntry entry, 
+    		CacheHandler handler) throws Exception {
     	
-    	WriteLock writeLock = entry.getLock().writeLock();
-		writeLock.lock();
+    	CacheItem detachedItem = null;
+    	ReentrantLock lock = entry.getUpdateLock();
+		lock.lock();
 		try {
 			CacheItem oldItem = entry.getItem();
 			if (oldItem.isUpToDate(handler)) {
 				log.debug("Item has already been updated by another thread");
-				serveData(handler, entry);
 			}
-			else {
+			else if (acquirePermit(cache, oldItem)) {
 				// Item is stale and must be revalidated
 				log.debug("Updating {} (blocking)", entry.getKey());
 				CacheItem newItem = new CacheItem(entry.getKey());
-				updateInContext(handler, newItem);
-				replaceItemAndServeData(entry, handler, oldItem, newItem);
+				newItem.setGeneration(index.beginCapture());
+				try {
+					try {
+						updateInContext(cache, handler, newItem);
+					}
+					finally {
+						captureLimiter.release(cache);
+					}
+					detachedItem = replaceItem(cache, entry, oldItem, oldItem, newItem);
+				}
+				finally {
+					index.endCapture(newItem);
+				}
 			}
 		}
 		finally {
-			// The lock should have already been released by serveData(),
-			// but in case an exception was thrown before, make sure the entry is unlocked.
-			if (entry.getLock().isWriteLockedByCurrentThread()) {
-				writeLock.unlock();
-			}
+			lock.unlock();
 		}
+		serve(cache, handler, entry, detachedItem);
     }
     
-    private void updateInContext(CacheHandler handler, CacheItem newItem)
-    		throws Exception {
+    private void updateInContext(Cache cache, CacheHandler handler, 
+    		CacheItem newItem) throws Exception {
     	
     	CacheItem parent = CacheContext.getItem();
+    	Region parentRegion = CacheContext.getRegion();
     	try { 
 	    	CacheContext.setItem(newItem);
+	    	CacheContext.setRegion(cache.getRegion());
 			newItem.setData(handler.capture(diskStore));
     	}
     	finally {
     		CacheContext.setItem(parent);
+    		CacheContext.setRegion(parentRegion);
     	}
     }
     
-    private void replaceItemAndServeData(CacheEntry entry, CacheHandler handler,
-			CacheItem oldItem, CacheItem newItem) throws Exception {
-		
-		if (!newItem.isError() || !oldItem.isServeStaleOnError()) {
-			entry.setItem(newItem);
-		}
-		serveData(handler, entry);
+    /**
+     * Swaps the current item of the entry with the newly captured one. 
+     * Must be invoked while holding the entry's update lock. The current 
+     * item is either the old item itself or a temporary copy that has been
+     * served during a non-blocking capture. 
+     * <p>
+     * If the capture failed, the old item is put back. Unless it should be 
+     * served on errors, the new item is returned so that the caller can 
+     * serve (and delete) the error content without exposing it to other 
+     * threads. The same happens if the entry has been evicted while the 
+     * lock was released during a non-blocking capture. Otherwise 
+     * <code>null</code> is returned. 
+     */
+    private CacheItem replaceItem(Cache cache, CacheEntry entry, 
+    		CacheItem oldItem, CacheItem currentItem, CacheItem newItem) {
 		
 		if (newItem.isError()) {
-			entry.setItem(oldItem);
-			newItem.delete();
+			entry.compareAndSetItem(currentItem, oldItem);
+			if (oldItem.isServeStaleOnError()) {
+				newItem.delete();
+				return null;
+			}
+			return newItem;
 		}
-		else {
+		if (!cache.contains(entry)) {
+			log.debug("Entry has been evicted during the capture: {}", entry.getKey());
+			// The eviction only saw the temporary copy
 			index.remove(oldItem);
-			index.add(newItem);
-			oldItem.delete();
+			return newItem;
 		}
+		newItem.setDataListener(new ItemDataListener(cache));
+		if (!entry.compareAndSetItem(currentItem, newItem)) {
+			newItem.delete();
+			return null;
+		}
+		index.add(newItem);
+		index.remove(oldItem);
+		currentItem.retire();
+		if (journal != null) {
+			journal.itemStored(cache, newItem);
+		}
+		cache.itemReplaced(entry);
+		return null;
 	}
     
     /**
-     * Serves the cached content. Acquires a read-lock for the given entry.
-     * if the current thread already has a write-lock, the lock is down-graded.
-     * When the method returns, all locks will be released.
+     * Serves the given item, which is not part of the cache (error content or
+     * content of an evicted entry) and deletes it afterwards, or serves the 
+     * entry's current item if <code>detachedItem</code> is <code>null</code>. 
      */
-    private void serveData(CacheHandler handler, CacheEntry entry) 
-    		throws Exception {
+    private void serve(Cache cache, CacheHandler handler, CacheEntry entry,
+    		CacheItem detachedItem) throws Exception {
     	
-		ReadLock readLock = entry.getLock().readLock();
-        readLock.lock();
-        try {
-        	if (entry.getLock().isWriteLockedByCurrentThread()) {
-        		entry.getLock().writeLock().unlock();
-        	}
-        	CacheItem item = entry.getItem();
-        	handler.serve(item.getData());
-        	CacheItem parentItem = CacheContext.getItem();
-        	if (parentItem != null) {
-        		parentItem.addAll(item);
-        	}
-        }
-        finally {
-        	readLock.unlock();	
-        }
+    	if (detachedItem == null) {
+    		serveEntry(cache, handler, entry);
+    	}
+    	else {
+    		try {
+    			serveItem(cache, handler, detachedItem);
+    		}
+    		finally {
+    			detachedItem.delete();
+    		}
+    	}
+    }
+    
+    /**
+     * Serves the entry's current item. No lock is acquired, instead the item 
+     * is {@link CacheItem#retain() retained} so that its data is not deleted 
+     * while it is being served, even if another thread replaces it in the 
+     * meantime. If the entry has been evicted and its data is already gone, 
+     * the request is handled uncached.
+     */
+    private void serveEntry(Cache cache, CacheHandler handler, 
+    		CacheEntry entry) throws Exception {
+    	
+    	CacheItem item = entry.retainItem();
+    	if (item == null) {
+    		log.debug("Entry has been evicted: {}", entry.getKey());
+    		handler.handleUncached();
+    		return;
+    	}
+    	try {
+    		serveItem(cache, handler, item);
+    	}
+    	finally {
+    		item.release();
+    	}
+    }
+    
+    private void serveItem(Cache cache, CacheHandler handler, 
+    		CacheItem item) throws Exception {
+    	
+    	CacheItem parentItem = CacheContext.getItem();
+    	// Content that becomes part of another item must always be served
+    	if (parentItem == null && handler instanceof ConditionalCacheHandler 
+    			&& ((ConditionalCacheHandler) handler).serveNotModified(
+    			item.getData())) {
+    		
+    		cache.recordNotModified();
+    	}
+    	else {
+    		handler.serve(item.getData());
+    	}
+    	if (parentItem != null) {
+    		parentItem.addAll(item);
+    	}
     }
 
+    /**
+     * Schedules a background refresh of the given entry. Returns 
+     * <code>false</code> if the entry can't be refreshed in the background.
+     */
+    private boolean scheduleRefresh(Cache cache, CacheEntry entry) {
+    	CacheHandler handler = entry.getRefreshHandler();
+    	if (handler == null || !cache.getRegion().isRefreshAhead()) {
+    		return false;
+    	}
+    	return refreshScheduler.schedule(this, cache, entry, handler);
+    }
+    
+    /**
+     * Re-captures the given entry. Invoked by the {@link RefreshScheduler}.
+     * The new item is only captured if the handler reports a modification.
+     * Requests are served with the old item until the new one is complete. 
+     * If the capture fails, or the entry has been updated or evicted in the 
+     * meantime, the new item is discarded. 
+     */
+    void refresh(Cache cache, CacheEntry entry, CacheHandler handler) 
+    		throws Exception {
+    	
+    	CacheItem oldItem = entry.getItem();
+    	if (!cache.contains(entry) || !isModified(oldItem, handler)) {
+    		return;
+    	}
+    	if (!captureLimiter.tryAcquire(cache)) {
+    		log.debug("Too many captures, skipping refresh of {}", entry.getKey());
+    		return;
+    	}
+    	log.debug("Refreshing {} (background)", entry.getKey());
+    	CacheItem newItem = new CacheItem(entry.getKey());
+    	newItem.setGeneration(index.beginCapture());
+    	try {
+	    	try {
+		    	long t1 = System.currentTimeMillis();
+		    	updateInContext(cache, handler, newItem);
+		    	stats.itemUpdated(newItem, System.currentTimeMillis() - t1);
+	    	}
+	    	finally {
+	    		captureLimiter.release(cache);
+	    	}
+	    	
+	    	// Hold the update lock so that the entry isn't evicted concurrently
+	    	ReentrantLock lock = entry.getUpdateLock();
+	    	lock.lock();
+			try {
+				newItem.setDataListener(new ItemDataListener(cache));
+				if (newItem.isError() || !cache.contains(entry) 
+						|| !entry.compareAndSetItem(oldItem, newItem)) {
+					
+					newItem.delete();
+				}
+				else {
+					index.add(newItem);
+					index.remove(oldItem);
+					oldItem.retire();
+					if (journal != null) {
+						journal.itemStored(cache, newItem);
+					}
+				}
+			}
+			finally {
+				lock.unlock();
+			}
+    	}
+    	finally {
+    		index.endCapture(newItem);
+    	}
+		cache.itemReplaced(entry);
+    }
+    
+    private boolean isModified(CacheItem item, CacheHandler handler) {
+    	if (item.getData() == null || item.anyFileModified()) {
+    		return true;
+    	}
+    	return handler.getLastModified() > item.getLastModified();
+    }
+    
 	public void invalidateTaggedItems(String tag) {
 		invalidator.invalidate(index, tag);
 	}
@@ -256,6 +583,69 @@ public class CacheService {
 		for (Cache cache : caches.values()) {
 			cache.destroy();
 		}
+		refreshScheduler.destroy();
+		if (fileRegistry != null) {
+			fileRegistry.destroy();
+		}
+		if (journal != null) {
+			journal.close();
+		}
+	}
+	
+	/**
+	 * Updates the size accounting and the journal when the data of a stored 
+	 * item has been modified, unless the item has been replaced or evicted 
+	 * in the meantime.
+	 */
+	private class ItemDataListener implements CacheItem.DataListener {
+		
+		private Cache cache;
+		
+		public ItemDataListener(Cache cache) {
+			this.cache = cache;
+		}
+		
+		public void dataModified(CacheItem item) {
+			CacheEntry entry = cache.getExistingEntry(item.getKey());
+			if (entry != null && entry.getItem() == item) {
+				cache.itemReplaced(entry);
+				if (journal != null) {
+					journal.itemStored(cache, item);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Records invalidations in the journal and schedules a refresh for
+	 * items in regions with refresh-ahead enabled.
+	 */
+	private class ItemInvalidationListener implements InvalidationListener {
+		
+		public void itemInvalidated(CacheItem item) {
+			for (Cache cache : caches.values()) {
+				boolean refresh = cache.getRegion().isRefreshAhead() 
+						&& !item.isServeStaleUntilExpired();
+				
+				if (journal != null || refresh) {
+					CacheEntry entry = cache.getExistingEntry(item.getKey());
+					if (entry != null && entry.getItem() == item) {
+						if (journal != null) {
+							journal.itemInvalidated(cache, item);
+						}
+						if (refresh) {
+							scheduleRefresh(cache, entry);
+						}
+					}
+				}
+			}
+		}
+		
+		public void tagInvalidated(String tag) {
+			if (journal != null) {
+				journal.tagInvalidated(tag);
+			}
+		}
 	}
     
 }
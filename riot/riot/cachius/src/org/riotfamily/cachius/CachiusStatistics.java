@@ -26,6 +26,10 @@ package org.riotfamily.cachius;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.MemoryStore;
+import org.riotfamily.cachius.persistence.TieredStore;
+
 public class CachiusStatistics {
 
 	private CacheService service;
@@ -67,7 +71,11 @@ public class CachiusStatistics {
 		slowestUpdate = null;
 		hits.set(0);
 		misses.set(0);
-		//service.getCache(null).resetOverflowStats();
+		for (String region : cacheRegionNames) {
+			service.getCache(region).resetStatistics();
+		}
+		service.getRefreshScheduler().resetStatistics();
+		service.getCaptureLimiter().resetStatistics();
 	}
 	
 	public long getMaxUpdateTime() {
@@ -94,9 +102,190 @@ public class CachiusStatistics {
     	return service.getCache(region).getSize(); 
     }
     
-    public long getAverageOverflowInterval(String region) {
-		return service.getCache(region).getRegion().getAverageOverflowInterval();
-	}
+    /**
+     * Returns the byte budget of the region, or <code>0</code> if the region
+     * is only limited by its capacity.
+     */
+    public long getMaxSize(String region) {
+    	return service.getCache(region).getRegion().getMaxSize();
+    }
+    
+    /**
+     * Returns the approximate number of bytes occupied by the region's items.
+     */
+    public long getUsedBytes(String region) {
+    	return service.getCache(region).getUsedBytes();
+    }
+    
+    public String getEvictionPolicy(String region) {
+    	return service.getCache(region).getEvictionPolicyName();
+    }
+    
+    public long getHits(String region) {
+    	return service.getCache(region).getHits();
+    }
+    
+    public long getMisses(String region) {
+    	return service.getCache(region).getMisses();
+    }
+    
+    /**
+     * Returns the percentage of requests that could be served from the cache.
+     */
+    public double getHitRatio(String region) {
+    	Cache cache = service.getCache(region);
+    	long hits = cache.getHits();
+    	long total = hits + cache.getMisses();
+    	return total > 0 ? hits * 100.0 / total : 0;
+    }
+    
+    public long getNotModified(String region) {
+    	return service.getCache(region).getNotModified();
+    }
+    
+    /**
+     * Returns the percentage of requests that were answered with a 
+     * not-modified response.
+     */
+    public double getNotModifiedRatio(String region) {
+    	Cache cache = service.getCache(region);
+    	long total = cache.getHits() + cache.getMisses();
+    	return total > 0 ? cache.getNotModified() * 100.0 / total : 0;
+    }
+    
+    public long getEvictions(String region) {
+    	return service.getCache(region).getEvictions();
+    }
+    
+    /**
+     * Returns how many captures of the region's items had to wait because 
+     * the concurrency limit had been reached.
+     */
+    public long getQueuedCaptures(String region) {
+    	return service.getCache(region).getQueuedCaptures();
+    }
+    
+    /**
+     * Returns how many requests for the region's items were served with 
+     * stale content because the concurrency limit had been reached.
+     */
+    public long getRejectedCaptures(String region) {
+    	return service.getCache(region).getRejectedCaptures();
+    }
+    
+    public int getMaxConcurrentCaptures() {
+    	return service.getCaptureLimiter().getMaxConcurrentCaptures();
+    }
+    
+    public int getActiveCaptures() {
+    	return service.getCaptureLimiter().getActiveCaptures();
+    }
+    
+    /**
+     * Returns the number of captures that are currently waiting for a permit.
+     */
+    public int getWaitingCaptures() {
+    	return service.getCaptureLimiter().getWaitingCaptures();
+    }
+    
+    public long getQueuedCaptures() {
+    	return service.getCaptureLimiter().getQueuedCaptures();
+    }
+    
+    public long getRejectedCaptures() {
+    	return service.getCaptureLimiter().getRejectedCaptures();
+    }
+    
+    private MemoryStore getMemoryStore() {
+    	DiskStore diskStore = service.getDiskStore();
+    	if (diskStore instanceof TieredStore) {
+    		return ((TieredStore) diskStore).getMemoryStore();
+    	}
+    	return null;
+    }
+    
+    /**
+     * Returns whether small items are kept in an off-heap memory tier.
+     */
+    public boolean isMemoryTierEnabled() {
+    	return getMemoryStore() != null;
+    }
+    
+    public long getMemoryTierCapacity() {
+    	MemoryStore store = getMemoryStore();
+    	return store != null ? store.getCapacity() : 0;
+    }
+    
+    /**
+     * Returns the number of bytes allocated for the memory tier so far. 
+     */
+    public long getMemoryTierReservedBytes() {
+    	MemoryStore store = getMemoryStore();
+    	return store != null ? store.getReservedBytes() : 0;
+    }
+    
+    /**
+     * Returns the number of bytes occupied by items in the memory tier.
+     */
+    public long getMemoryTierUsedBytes() {
+    	MemoryStore store = getMemoryStore();
+    	return store != null ? store.getUsedBytes() : 0;
+    }
+    
+    public int getMemoryTierItems() {
+    	MemoryStore store = getMemoryStore();
+    	return store != null ? store.getBlobCount() : 0;
+    }
+    
+    /**
+     * Returns how often a small item had to be written to disk because the
+     * memory tier was full.
+     */
+    public long getMemoryTierRejections() {
+    	MemoryStore store = getMemoryStore();
+    	return store != null ? store.getRejectedCount() : 0;
+    }
+    
+    /**
+     * Returns the number of background refreshes waiting for a thread.
+     */
+    public int getRefreshQueueDepth() {
+    	return service.getRefreshScheduler().getQueueDepth();
+    }
+    
+    /**
+     * Returns the number of background refreshes that are either queued or
+     * in progress.
+     */
+    public int getPendingRefreshes() {
+    	return service.getRefreshScheduler().getPendingCount();
+    }
+    
+    public long getRefreshes() {
+    	return service.getRefreshScheduler().getRefreshCount();
+    }
+    
+    /**
+     * Returns how many refreshes were merged into an already pending one.
+     */
+    public long getCoalescedRefreshes() {
+    	return service.getRefreshScheduler().getCoalescedCount();
+    }
+    
+    /**
+     * Returns how many refreshes were dropped because the queue was full.
+     */
+    public long getRejectedRefreshes() {
+    	return service.getRefreshScheduler().getRejectedCount();
+    }
+    
+    public long getAverageRefreshTime() {
+    	return service.getRefreshScheduler().getAverageRefreshTime();
+    }
+    
+    public long getMaxRefreshTime() {
+    	return service.getRefreshScheduler().getMaxRefreshTime();
+    }
     
     public void invalidateAllItems() {
     	for (String region : cacheRegionNames) {
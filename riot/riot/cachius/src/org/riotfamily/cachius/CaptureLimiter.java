@@ -0,0 +1,179 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of captures that may run concurrently, both across the
+ * whole {@link CacheService} and per {@link Region}. Requests for an item 
+ * that has (stale) data are served with that data if no permit is 
+ * available, all other requests wait for a permit. 
+ * <p>
+ * Nested captures (like includes rendered while the including page is 
+ * captured) are not limited, as the outer capture already holds a permit.
+ * Limiting them could lead to a deadlock. 
+ */
+public class CaptureLimiter {
+
+	private int maxConcurrentCaptures;
+	
+	private Semaphore permits;
+	
+	private AtomicInteger activeCaptures = new AtomicInteger();
+	
+	private AtomicInteger waitingCaptures = new AtomicInteger();
+	
+	private AtomicLong queuedCaptures = new AtomicLong();
+	
+	private AtomicLong rejectedCaptures = new AtomicLong();
+	
+	public int getMaxConcurrentCaptures() {
+		return maxConcurrentCaptures;
+	}
+
+	/**
+	 * Sets the maximum number of captures that may run concurrently. 
+	 * Default is <code>0</code>, which means that the number is unlimited.
+	 * 
+	 * @see Region#setMaxConcurrentCaptures(int)
+	 */
+	public void setMaxConcurrentCaptures(int maxConcurrentCaptures) {
+		this.maxConcurrentCaptures = maxConcurrentCaptures;
+		this.permits = maxConcurrentCaptures > 0 
+				? new Semaphore(maxConcurrentCaptures, true) : null;
+	}
+	
+	/**
+	 * Tries to obtain a permit without waiting. Returns <code>false</code>
+	 * if either the global or the region's limit has been reached.
+	 */
+	boolean tryAcquire(Cache cache) {
+		if (CacheContext.exists()) {
+			return true;
+		}
+		Semaphore regionPermits = cache.getCapturePermits();
+		if (regionPermits != null && !regionPermits.tryAcquire()) {
+			reject(cache);
+			return false;
+		}
+		if (permits != null && !permits.tryAcquire()) {
+			if (regionPermits != null) {
+				regionPermits.release();
+			}
+			reject(cache);
+			return false;
+		}
+		activeCaptures.incrementAndGet();
+		return true;
+	}
+	
+	private void reject(Cache cache) {
+		rejectedCaptures.incrementAndGet();
+		cache.recordRejectedCapture();
+	}
+	
+	/**
+	 * Obtains a permit, waiting if necessary.
+	 */
+	void acquire(Cache cache) throws InterruptedException {
+		if (CacheContext.exists()) {
+			return;
+		}
+		Semaphore regionPermits = cache.getCapturePermits();
+		if (regionPermits != null && !regionPermits.tryAcquire()) {
+			await(cache, regionPermits);
+		}
+		if (permits != null && !permits.tryAcquire()) {
+			try {
+				await(cache, permits);
+			}
+			catch (InterruptedException e) {
+				if (regionPermits != null) {
+					regionPermits.release();
+				}
+				throw e;
+			}
+		}
+		activeCaptures.incrementAndGet();
+	}
+	
+	private void await(Cache cache, Semaphore semaphore) 
+			throws InterruptedException {
+		
+		queuedCaptures.incrementAndGet();
+		cache.recordQueuedCapture();
+		waitingCaptures.incrementAndGet();
+		try {
+			semaphore.acquire();
+		}
+		finally {
+			waitingCaptures.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Releases a permit obtained by {@link #tryAcquire(Cache)} or 
+	 * {@link #acquire(Cache)}.
+	 */
+	void release(Cache cache) {
+		if (CacheContext.exists()) {
+			return;
+		}
+		activeCaptures.decrementAndGet();
+		if (permits != null) {
+			permits.release();
+		}
+		Semaphore regionPermits = cache.getCapturePermits();
+		if (regionPermits != null) {
+			regionPermits.release();
+		}
+	}
+	
+	/**
+	 * Returns the number of top-level captures that are currently running.
+	 */
+	public int getActiveCaptures() {
+		return activeCaptures.get();
+	}
+	
+	/**
+	 * Returns the number of captures that are currently waiting for a permit.
+	 */
+	public int getWaitingCaptures() {
+		return waitingCaptures.get();
+	}
+	
+	/**
+	 * Returns how many captures had to wait for a permit.
+	 */
+	public long getQueuedCaptures() {
+		return queuedCaptures.get();
+	}
+	
+	/**
+	 * Returns how many captures were not performed because no permit was
+	 * available. 
+	 */
+	public long getRejectedCaptures() {
+		return rejectedCaptures.get();
+	}
+	
+	void resetStatistics() {
+		queuedCaptures.set(0);
+		rejectedCaptures.set(0);
+	}
+	
+}
@@ -0,0 +1,71 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free approximation of LRU based on the CLOCK (second chance)
+ * algorithm. All entries are kept in a FIFO queue. An access merely sets
+ * a reference bit on the entry. When a victim is needed, the head of the
+ * queue is inspected: entries that have been referenced since they were
+ * last inspected get their bit cleared and are moved to the tail, the first
+ * unreferenced entry is evicted.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+	private ConcurrentLinkedQueue<CacheEntry> queue =
+			new ConcurrentLinkedQueue<CacheEntry>();
+
+	/** Number of queued entries (ConcurrentLinkedQueue.size() is O(n)) */
+	private AtomicInteger size = new AtomicInteger();
+
+	public String getName() {
+		return "clock";
+	}
+
+	public void entryAdded(CacheEntry entry) {
+		size.incrementAndGet();
+		queue.offer(entry);
+	}
+
+	public void entryAccessed(CacheEntry entry) {
+		entry.markReferenced();
+	}
+
+	public CacheEntry nextVictim() {
+		// Each entry gets at most one second chance, so after two sweeps
+		// we must have found a victim (unless the queue is empty).
+		int maxSteps = 2 * size.get() + 1;
+		for (int i = 0; i < maxSteps; i++) {
+			CacheEntry entry = queue.poll();
+			if (entry == null) {
+				return null;
+			}
+			if (entry.clearReferenced()) {
+				queue.offer(entry);
+			}
+			else {
+				size.decrementAndGet();
+				return entry;
+			}
+		}
+		CacheEntry entry = queue.poll();
+		if (entry != null) {
+			size.decrementAndGet();
+		}
+		return entry;
+	}
+
+}
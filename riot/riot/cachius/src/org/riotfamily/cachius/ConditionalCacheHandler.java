@@ -0,0 +1,31 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.Serializable;
+
+/**
+ * CacheHandler that is able to tell whether the client already holds the 
+ * cached data, for example by evaluating HTTP validators like ETags. 
+ */
+public interface ConditionalCacheHandler extends CacheHandler {
+
+	/**
+	 * Checks whether the client already holds the given data and if so, 
+	 * sends a response that indicates that the content has not been 
+	 * modified. Returns <code>false</code> if the data must be served 
+	 * regularly. 
+	 */
+	public boolean serveNotModified(Serializable data) throws Exception;
+	
+}
@@ -0,0 +1,50 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+/**
+ * Strategy that decides which entries are removed when a {@link Cache}
+ * exceeds the capacity of its {@link Region}. The cache consults the policy
+ * on every insert, so implementations must be thread-safe and should run in
+ * (amortized) constant time.
+ * <p>
+ * Each region needs its own policy instance, as implementations usually keep
+ * track of the entries they have seen.
+ */
+public interface EvictionPolicy {
+
+	/**
+	 * Returns a short name that identifies the policy in the statistics.
+	 */
+	public String getName();
+
+	/**
+	 * Invoked when a new entry has been added to the cache.
+	 */
+	public void entryAdded(CacheEntry entry);
+
+	/**
+	 * Invoked each time an existing entry is looked up.
+	 */
+	public void entryAccessed(CacheEntry entry);
+
+	/**
+	 * Returns the entry that should be evicted next, or <code>null</code> if
+	 * the policy has no candidate. Entries returned by this method are
+	 * forgotten by the policy. They might already have been removed from
+	 * the cache by the time the method returns, callers must be prepared to
+	 * deal with that.
+	 */
+	public CacheEntry nextVictim();
+
+}
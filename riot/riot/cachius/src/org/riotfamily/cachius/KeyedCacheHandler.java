@@ -0,0 +1,28 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+/**
+ * CacheHandler that provides a {@link CacheKey} made of segments. The 
+ * CacheService uses {@link #getKey()} instead of {@link #getCacheKey()}, 
+ * so that no String has to be built for lookups.
+ */
+public interface KeyedCacheHandler extends CacheHandler {
+
+	/**
+	 * Returns the key that is used to look up a previously cached version,
+	 * or <code>null</code> if the content should not be cached. 
+	 */
+	public CacheKey getKey();
+	
+}
@@ -0,0 +1,199 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Re-captures cache entries on a bounded pool of background threads. 
+ * Refreshes for an entry that is already queued or in progress are 
+ * coalesced. If the queue is full, the refresh is dropped and the entry
+ * will be updated by the next request that sees it as stale.
+ */
+public class RefreshScheduler {
+
+	private Logger log = LoggerFactory.getLogger(RefreshScheduler.class);
+	
+	private int poolSize = 2;
+	
+	private int queueSize = 1000;
+	
+	private ThreadPoolExecutor executor;
+	
+	private ConcurrentHashMap<CacheEntry, Boolean> pending = 
+			new ConcurrentHashMap<CacheEntry, Boolean>();
+	
+	private AtomicLong refreshes = new AtomicLong();
+	
+	private AtomicLong coalesced = new AtomicLong();
+	
+	private AtomicLong rejected = new AtomicLong();
+	
+	private AtomicLong totalRefreshTime = new AtomicLong();
+	
+	private volatile long maxRefreshTime;
+	
+	/**
+	 * Sets the number of threads used to refresh items. Default is 
+	 * <code>2</code>.
+	 */
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+	
+	/**
+	 * Sets the maximum number of queued refreshes. Default is 
+	 * <code>1000</code>.
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+	
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(poolSize, poolSize, 
+					60, TimeUnit.SECONDS, 
+					new ArrayBlockingQueue<Runnable>(queueSize),
+					new RefreshThreadFactory());
+			
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+	
+	/**
+	 * Schedules a refresh of the given entry. Returns <code>true</code> if 
+	 * the entry has been queued or a refresh is already pending, or 
+	 * <code>false</code> if the queue is full.
+	 */
+	boolean schedule(final CacheService service, final Cache cache, 
+			final CacheEntry entry, final CacheHandler handler) {
+		
+		if (pending.putIfAbsent(entry, Boolean.TRUE) != null) {
+			coalesced.incrementAndGet();
+			return true;
+		}
+		try {
+			getExecutor().execute(new Runnable() {
+				public void run() {
+					long t1 = System.currentTimeMillis();
+					try {
+						service.refresh(cache, entry, handler);
+					}
+					catch (Exception e) {
+						log.error("Failed to refresh " + entry.getKey(), e);
+					}
+					finally {
+						pending.remove(entry);
+						refreshed(System.currentTimeMillis() - t1);
+					}
+				}
+			});
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			pending.remove(entry);
+			rejected.incrementAndGet();
+			return false;
+		}
+	}
+	
+	private void refreshed(long time) {
+		refreshes.incrementAndGet();
+		totalRefreshTime.addAndGet(time);
+		if (time > maxRefreshTime) {
+			maxRefreshTime = time;
+		}
+	}
+	
+	public synchronized void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	// Statistics ------------------------------------------------------------
+	
+	/**
+	 * Returns the number of refreshes waiting for a thread.
+	 */
+	public synchronized int getQueueDepth() {
+		return executor != null ? executor.getQueue().size() : 0;
+	}
+	
+	/**
+	 * Returns the number of refreshes that are either queued or in progress.
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+	
+	public long getRefreshCount() {
+		return refreshes.get();
+	}
+	
+	/**
+	 * Returns how many refresh requests were merged into an already
+	 * pending one.
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+	
+	/**
+	 * Returns how many refreshes were dropped because the queue was full.
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+	
+	public long getAverageRefreshTime() {
+		long count = refreshes.get();
+		return count > 0 ? totalRefreshTime.get() / count : 0;
+	}
+	
+	public long getMaxRefreshTime() {
+		return maxRefreshTime;
+	}
+	
+	void resetStatistics() {
+		refreshes.set(0);
+		coalesced.set(0);
+		rejected.set(0);
+		totalRefreshTime.set(0);
+		maxRefreshTime = 0;
+	}
+	
+	private static class RefreshThreadFactory implements ThreadFactory {
+		
+		private AtomicInteger count = new AtomicInteger();
+		
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "cachius-refresh-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
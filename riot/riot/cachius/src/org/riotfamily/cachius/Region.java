@@ -12,22 +12,23 @@
  */
 package org.riotfamily.cachius;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 public class Region {
 
-	Logger log = LoggerFactory.getLogger(Region.class);
-	
 	private String name;
 	
 	private int capacity = 10000;
 	
-	private double evictionFactor = 0.2;
+	private long maxSize;
+	
+	private int maxConcurrentCaptures;
+	
+	private EvictionPolicy evictionPolicy = new ClockEvictionPolicy();
 	
-	private volatile long lastOverflow = System.currentTimeMillis();
+	private boolean refreshAhead;
 	
-	private volatile long averageOverflowInterval;
+	private long refreshAheadTime = 10000;
+	
+	private int compressionLevel = -1;
 
 	public Region(String name) {
 		this.name = name;
@@ -45,27 +46,102 @@ public class Region {
 		this.capacity = capacity;
 	}
 	
-	public void setEvictionFactor(double evictionFactor) {
-		this.evictionFactor = evictionFactor;
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Sets the number of bytes the region may occupy. The size of an item 
+	 * is the size of its content (on disk or in the memory tier) plus an 
+	 * estimate for its in-memory metadata. Entries are evicted whenever the
+	 * budget or the {@link #setCapacity(int) capacity} is exceeded. 
+	 * Default is <code>0</code>, which means that only the capacity applies.
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+	
+	public int getMaxConcurrentCaptures() {
+		return maxConcurrentCaptures;
+	}
+
+	/**
+	 * Sets the maximum number of items of this region that may be captured
+	 * concurrently. Default is <code>0</code>, which means that only the 
+	 * service-wide limit applies.
+	 * 
+	 * @see CaptureLimiter
+	 */
+	public void setMaxConcurrentCaptures(int maxConcurrentCaptures) {
+		this.maxConcurrentCaptures = maxConcurrentCaptures;
+	}
+	
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	/**
+	 * Sets the {@link EvictionPolicy} that decides which items are removed
+	 * when the capacity is exceeded. Defaults to a 
+	 * {@link ClockEvictionPolicy}. 
+	 */
+	public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+		this.evictionPolicy = evictionPolicy;
 	}
 	
-	public long getAverageOverflowInterval() {
-		return averageOverflowInterval;
+	public boolean isRefreshAhead() {
+		return refreshAhead;
+	}
+
+	/**
+	 * Sets whether items should be updated by a background thread. Applies 
+	 * to items captured by a {@link ReplayableCacheHandler} only. If enabled, 
+	 * such items are refreshed when they are about to expire, when they are 
+	 * invalidated, and when a request finds a stale item that is marked as
+	 * {@link CacheContext#serveStaleWhileRevalidate() serveStaleWhileRevalidate}.
+	 * In the latter case the request is served with the stale content 
+	 * instead of waiting for the update. Default is <code>false</code>.
+	 * <p>
+	 * HTTP handlers replay the capture with a 
+	 * {@link org.riotfamily.cachius.http.support.DetachedRequest 
+	 * DetachedRequest}, which has no session. Handlers that don't support 
+	 * replays are still updated by the next request.
+	 */
+	public void setRefreshAhead(boolean refreshAhead) {
+		this.refreshAhead = refreshAhead;
+	}
+
+	public long getRefreshAheadTime() {
+		return refreshAheadTime;
 	}
 
-	public int getItemsToEvict() {
-		logOverflow();
-		return (int) Math.ceil(capacity * evictionFactor);
+	/**
+	 * Sets how many milliseconds before their expiration items should be 
+	 * refreshed. Default is <code>10000</code>.
+	 */
+	public void setRefreshAheadTime(long refreshAheadTime) {
+		this.refreshAheadTime = refreshAheadTime;
 	}
 	
-	public void logOverflow() {
-		log.info("Cache capacity exceeded for region {}. Performing cleanup ...", name);
-		long timeSinceLastOverflow = System.currentTimeMillis() - lastOverflow;
-		if (averageOverflowInterval == 0) {
-			averageOverflowInterval = timeSinceLastOverflow;
-		}
-		else {
-			averageOverflowInterval = (averageOverflowInterval + timeSinceLastOverflow) / 2;
-		}
+	public int getCompressionLevel() {
+		return compressionLevel;
 	}
+
+	/**
+	 * Sets the compression level (0-9) used to encode content stored in 
+	 * this region. Default is <code>-1</code>, which means that the level 
+	 * configured for each encoder is used.
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+	
+	/**
+	 * Items are now evicted one by one as soon as the capacity is exceeded,
+	 * so the factor is no longer used.
+	 */
+	@Deprecated
+	public void setEvictionFactor(double evictionFactor) {
+	}
+	
 }
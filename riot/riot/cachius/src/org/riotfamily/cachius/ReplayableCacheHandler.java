@@ -0,0 +1,37 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+/**
+ * CacheHandler that is able to capture its content again at a later time,
+ * independent of the request (or whatever else) that triggered the original
+ * capture. Regions with {@link Region#setRefreshAhead(boolean) refresh-ahead}
+ * enabled use the replay to update items in the background.
+ * <p>
+ * Handlers that capture HTTP responses can't hold on to the request, as it
+ * is recycled by the container once it has completed. They replay the 
+ * capture with a {@link org.riotfamily.cachius.http.support.DetachedRequest 
+ * DetachedRequest} instead.
+ */
+public interface ReplayableCacheHandler extends CacheHandler {
+
+	/**
+	 * Returns a handler that re-creates the content when its 
+	 * {@link CacheHandler#capture capture()} method is invoked by a background
+	 * thread. The handler's <code>serve()</code> method is never called. 
+	 * Implementors may return <code>null</code> if the content can't be 
+	 * replayed.
+	 */
+	public CacheHandler replay();
+	
+}
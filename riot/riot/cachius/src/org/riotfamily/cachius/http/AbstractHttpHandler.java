@@ -5,12 +5,17 @@ import java.io.Serializable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.riotfamily.cachius.CacheHandler;
+import org.riotfamily.cachius.CacheKey;
+import org.riotfamily.cachius.ConditionalCacheHandler;
+import org.riotfamily.cachius.KeyedCacheHandler;
+import org.riotfamily.cachius.http.content.ContentEncodings;
 import org.riotfamily.cachius.http.content.Directives;
+import org.riotfamily.cachius.http.content.ParallelFragmentRenderer;
 import org.riotfamily.cachius.http.support.SessionIdEncoder;
 import org.riotfamily.cachius.persistence.DiskStore;
 
-public abstract class AbstractHttpHandler implements CacheHandler {
+public abstract class AbstractHttpHandler implements ConditionalCacheHandler,
+		KeyedCacheHandler {
 
 	private HttpServletRequest request;
 	
@@ -20,6 +25,18 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 
 	private int gzipThreshold = 200;
 	
+	private ParallelFragmentRenderer fragmentRenderer;
+	
+	private boolean teeEnabled;
+	
+	private ContentEncodings contentEncodings;
+	
+	/** Whether the response has been sent to the client during the capture */
+	private boolean streamed;
+	
+	/** Encoding of the original response, used by replays */
+	private String characterEncoding;
+	
 	public AbstractHttpHandler(HttpServletRequest request,
 			HttpServletResponse response) {
 	
@@ -38,6 +55,49 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 		this.gzipThreshold = gzipThreshold;
 	}
 	
+	/**
+	 * Sets a renderer that is used to evaluate independent fragments 
+	 * (like includes) of cached content in parallel. 
+	 */
+	public void setFragmentRenderer(ParallelFragmentRenderer fragmentRenderer) {
+		this.fragmentRenderer = fragmentRenderer;
+	}
+	
+	/**
+	 * Sets whether binary output should be sent to the client while it is
+	 * captured. Default is <code>false</code>.
+	 * 
+	 * @see CachiusResponse#enableTee(HttpServletRequest, HttpServletResponse)
+	 */
+	public void setTeeEnabled(boolean teeEnabled) {
+		this.teeEnabled = teeEnabled;
+	}
+	
+	/**
+	 * Sets the ContentEncodings used to compress the captured output.
+	 */
+	public void setContentEncodings(ContentEncodings contentEncodings) {
+		this.contentEncodings = contentEncodings;
+	}
+	
+	/**
+	 * Copies the settings of this handler to the given one, which replays 
+	 * the capture in a background thread. The replay must have been created 
+	 * with a {@link org.riotfamily.cachius.http.support.DetachedRequest 
+	 * DetachedRequest} and without a response. Neither tee capturing nor 
+	 * parallel fragment rendering is used by replays.
+	 * 
+	 * @see org.riotfamily.cachius.ReplayableCacheHandler
+	 */
+	protected <T extends AbstractHttpHandler> T prepareReplay(T replay) {
+		AbstractHttpHandler handler = replay;
+		handler.directives = directives;
+		handler.gzipThreshold = gzipThreshold;
+		handler.contentEncodings = contentEncodings;
+		handler.characterEncoding = response.getCharacterEncoding();
+		return replay;
+	}
+	
 	protected HttpServletRequest getRequest() {
 		return request;
 	}
@@ -49,6 +109,15 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 	public String getCacheKey() {
 		return request.getRequestURL().toString();
 	}
+	
+	/**
+	 * Returns a CacheKey for the String returned by {@link #getCacheKey()}.
+	 * Subclasses may override this method to build a key from segments.
+	 */
+	public CacheKey getKey() {
+		String key = getCacheKey();
+		return key != null ? CacheKey.valueOf(key) : null;
+	}
 
 	public String getCacheRegion() {
 		return null;
@@ -62,20 +131,65 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 		handleRequest(request, response);
 	}
 
+	/**
+	 * Sends a 304 response if the request contains a validator that matches
+	 * the cached data.
+	 * 
+	 * @see ResponseData#isNotModified(HttpServletRequest)
+	 */
+	public boolean serveNotModified(Serializable obj) {
+		if (streamed) {
+			return false;
+		}
+		ResponseData data = (ResponseData) obj;
+		if (data.isNotModified(request)) {
+			data.serveNotModified(request, response);
+			return true;
+		}
+		return false;
+	}
+	
 	public void serve(Serializable obj) throws Exception {
 		assert obj instanceof ResponseData;
+		if (streamed) {
+			// The client already received the response during the capture
+			return;
+		}
 		ResponseData data = (ResponseData) obj;
-		data.serve(request, response);
+		if (fragmentRenderer != null) {
+			ParallelFragmentRenderer previous = fragmentRenderer.expose(request);
+			try {
+				data.serve(request, response);
+			}
+			finally {
+				ParallelFragmentRenderer.restore(request, previous);
+			}
+		}
+		else {
+			data.serve(request, response);
+		}
 	}
 
 	public Serializable capture(DiskStore diskStore) throws Exception {
-		ResponseData data = new ResponseData(response.getCharacterEncoding());
+		ResponseData data = new ResponseData(response != null 
+				? response.getCharacterEncoding() : characterEncoding);
+		
 		SessionIdEncoder sessionIdEncoder = new SessionIdEncoder(request);
 		CachiusResponse cachiusResponse = new CachiusResponse(data, diskStore, 
 				sessionIdEncoder, isCompressible(), gzipThreshold , directives);
 		
+		if (contentEncodings != null) {
+			cachiusResponse.setContentEncodings(contentEncodings);
+		}
+		if (teeEnabled && response != null 
+				&& !(response instanceof CachiusResponse) 
+				&& request.getAttribute("javax.servlet.include.request_uri") == null) {
+			
+			cachiusResponse.enableTee(request, response);
+		}
 		handleRequest(request, cachiusResponse);
 		cachiusResponse.stopCapturing();
+		streamed = cachiusResponse.isStreamed();
 		return data;
 	}
 	
@@ -12,38 +12,54 @@
  */
 package org.riotfamily.cachius.http;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.riotfamily.cachius.http.content.BinaryContent;
 import org.riotfamily.cachius.http.content.CharacterContent;
 import org.riotfamily.cachius.http.content.ChunkedContent;
+import org.riotfamily.cachius.http.content.ContentEncoder;
+import org.riotfamily.cachius.http.content.ContentEncodings;
 import org.riotfamily.cachius.http.content.ContentFragment;
 import org.riotfamily.cachius.http.content.Directives;
-import org.riotfamily.cachius.http.content.GzipContent;
+import org.riotfamily.cachius.http.content.EncodedContent;
 import org.riotfamily.cachius.http.header.SessionIdCookie;
 import org.riotfamily.cachius.http.header.StaticCookie;
+import org.riotfamily.cachius.http.support.AcceptEncoding;
 import org.riotfamily.cachius.http.support.DelegatingServletOutputStream;
 import org.riotfamily.cachius.http.support.ScanWriter;
 import org.riotfamily.cachius.http.support.SessionIdEncoder;
+import org.riotfamily.cachius.http.support.TeeOutputStream;
 import org.riotfamily.cachius.http.support.ScanWriter.Block;
+import org.riotfamily.cachius.persistence.Blob;
+import org.riotfamily.cachius.persistence.BlobOutputStream;
 import org.riotfamily.cachius.persistence.DiskStore;
 
 
 /**
  * Implementation of the HttpServletResponse interface that captures the 
- * response in the given {@link ResponseData} object.
+ * response in the given {@link ResponseData} object. Unless the content 
+ * contains dynamic fragments, an ETag is computed from the written bytes.
+ * <p>
+ * If {@link #enableTee(HttpServletRequest, HttpServletResponse) tee mode} 
+ * is enabled, output written to the OutputStream is sent to the client 
+ * while it is captured. Compressible content is encoded in the same pass.
+ * Output written to the Writer is always captured first, as it may contain
+ * directives that must be evaluated upon each request.
  *
  * @author Felix Gnass
  */
@@ -67,7 +83,20 @@ public class CachiusResponse implements HttpServletResponse {
     
     private ScanWriter scanWriter;
     
-    private File file;
+    private BlobOutputStream blobStream;
+    
+    /** Digest of all bytes written to the blobStream, used for the ETag */
+    private MessageDigest digest;
+    
+    private OutputStream digestStream;
+    
+    private HttpServletRequest teeRequest;
+    
+    private HttpServletResponse teeResponse;
+    
+    private TeeStream teeStream;
+    
+    private ContentEncodings encodings = new ContentEncodings();
 
     public CachiusResponse(ResponseData data, DiskStore diskStore, 
     		SessionIdEncoder sessionIdEncoder, boolean compressible,
@@ -79,9 +108,47 @@ public class CachiusResponse implements HttpServletResponse {
     	this.compressible = compressible;
     	this.gzipThreshold = gzipThreshold;
         this.directives = directives;
-        this.file = diskStore.getFile();
+        this.blobStream = BlobOutputStream.create(diskStore);
+        this.digest = createDigest();
+        this.digestStream = digest != null 
+        		? new DigestOutputStream(blobStream, digest) : blobStream;
+    }
+    
+    private static MessageDigest createDigest() {
+    	try {
+			return MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e) {
+			return null;
+		}
     }
 	
+    /**
+     * Sets the ContentEncodings used to create the encoded variants of 
+     * compressible content.
+     */
+    public void setContentEncodings(ContentEncodings encodings) {
+    	this.encodings = encodings;
+    }
+    
+    /**
+     * Enables tee mode, causing output written to the OutputStream to be 
+     * sent to the given response, too. 
+     */
+    public void enableTee(HttpServletRequest request, 
+    		HttpServletResponse response) {
+    	
+    	this.teeRequest = request;
+    	this.teeResponse = response;
+    }
+    
+    /**
+     * Returns whether the response has already been sent to the client.
+     */
+    public boolean isStreamed() {
+    	return teeStream != null && teeStream.isOpen();
+    }
+    
     public int getStatus() {
 		return data.getStatus();
 	}
@@ -126,10 +193,18 @@ public class CachiusResponse implements HttpServletResponse {
 
     public void addDateHeader(String name, long date) {
     	data.getHeaders().addDate(name, date);
+    	checkLastModified(name, date);
     }
     
     public void setDateHeader(String name, long date) {
     	data.getHeaders().setDate(name, date);
+    	checkLastModified(name, date);
+    }
+    
+    private void checkLastModified(String name, long date) {
+    	if ("Last-Modified".equalsIgnoreCase(name)) {
+    		data.setLastModified(date);
+    	}
     }
     
     public void addIntHeader(String name, int value) {
@@ -170,8 +245,8 @@ public class CachiusResponse implements HttpServletResponse {
     }    
     
     /**
-     * Returns an ServletOutputStream that writes into the OutputStream
-     * provided by the CacheItem. All output is redirected so nothing will be 
+     * Returns an ServletOutputStream that writes into a 
+     * {@link BlobOutputStream}. All output is redirected so nothing will be 
      * sent to the client.
      *
      * @throws IllegalStateException If getWriter() has been called before
@@ -182,15 +257,20 @@ public class CachiusResponse implements HttpServletResponse {
             throw new IllegalStateException();
         }
         if (outputStream == null) {
-        		outputStream = new DelegatingServletOutputStream(
-        				new BufferedOutputStream(new FileOutputStream(file)));
+        	if (teeResponse != null) {
+        		teeStream = new TeeStream();
+        		outputStream = new DelegatingServletOutputStream(teeStream);
+        	}
+        	else {
+        		outputStream = new DelegatingServletOutputStream(digestStream);
+        	}
         }
         return outputStream;
     }
 
     /**
-     * Returns a PrintWriter that writes into the Writer provided by the 
-     * {@link ResponseData}. All output is redirected so nothing will be 
+     * Returns a PrintWriter that writes UTF-8 encoded characters into a  
+     * {@link BlobOutputStream}. All output is redirected so nothing will be 
      * sent to the client.
      *
      * @throws IllegalStateExcepion If getOutputStream() has been called before
@@ -201,8 +281,7 @@ public class CachiusResponse implements HttpServletResponse {
             if (outputStream != null) {
                 throw new IllegalStateException();
             }
-            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
-            scanWriter = directives.createWriter(new OutputStreamWriter(out, "UTF-8"));
+            scanWriter = directives.createWriter(new OutputStreamWriter(digestStream, "UTF-8"));
 	        writer = new PrintWriter(scanWriter);
 	    }
         return writer;
@@ -219,9 +298,13 @@ public class CachiusResponse implements HttpServletResponse {
     
     public void stopCapturing() throws IOException {
     	flushBuffer();
-    	resetBuffer();
+    	if (teeStream != null && !data.isError()) {
+    		// Make sure the head is sent, even if no bytes were written
+    		teeStream.finish();
+    	}
+    	Blob blob = blobStream.toBlob();
     	if (isChunked()) {
-    		ChunkedContent content = new ChunkedContent(file);
+    		ChunkedContent content = new ChunkedContent(blob);
     		for (Block block : scanWriter.getBlocks()) {
     			ContentFragment fragment = directives.parse(block.getValue());
     			if (fragment != null) {
@@ -230,18 +313,37 @@ public class CachiusResponse implements HttpServletResponse {
     		}
     		content.addTail();
     		data.setContent(content);
+    		// No ETag, as the fragments are evaluated upon each request
+    		return;
+    	}
+    	else if (teeStream != null && teeStream.isEncoding()) {
+    		data.setContent(teeStream.createContent(blob));
     	}
-    	else if (isGzip()) {
-			data.setContent(new GzipContent(file, diskStore.getFile()));
+    	else if (isCompressible(blob)) {
+			data.setContent(encodings.createContent(blob, diskStore));
     	}
     	else if (isCharacter()) {
-    		data.setContent(new CharacterContent(file));
+    		data.setContent(new CharacterContent(blob));
     	}	
     	else {
-    		data.setContent(new BinaryContent(file));
+    		data.setContent(new BinaryContent(blob));
+    	}
+    	if (digest != null && !containsHeader("ETag")) {
+    		data.setETag(toETag(digest.digest()));
     	}
     }
     
+    private static String toETag(byte[] hash) {
+    	StringBuilder sb = new StringBuilder(hash.length * 2 + 2);
+    	sb.append('"');
+    	for (byte b : hash) {
+    		sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+    		sb.append(Character.forDigit(b & 0xf, 16));
+    	}
+    	sb.append('"');
+    	return sb.toString();
+    }
+    
     private boolean isCharacter() {
 		return scanWriter != null;
 	}
@@ -250,8 +352,8 @@ public class CachiusResponse implements HttpServletResponse {
 		return isCharacter() && scanWriter.foundBlocks();
 	}
 	
-	private boolean isGzip() {
-		return compressible && file.length() > gzipThreshold;
+	private boolean isCompressible(Blob blob) {
+		return compressible && blob.getLength() > gzipThreshold;
 	}
 
     /**
@@ -312,7 +414,7 @@ public class CachiusResponse implements HttpServletResponse {
 	}
 
 	public boolean isCommitted() {
-		return false;
+		return isStreamed();
 	}
 
 	public int getBufferSize() {
@@ -322,21 +424,171 @@ public class CachiusResponse implements HttpServletResponse {
 	public void setBufferSize(int size) {
 	}
 
+	/**
+	 * OutputStream that writes into the blob and to the client. The client 
+	 * response is committed upon the first write, so that the status code
+	 * and headers can be set after {@link #getOutputStream()} has been 
+	 * called. If the client goes away, the capture continues. Compressible
+	 * content is passed to all encoders, the client receives the variant
+	 * negotiated via the Accept-Encoding header. 
+	 */
+	private class TeeStream extends OutputStream {
+		
+		private OutputStream client;
+		
+		private List<ContentEncoder> encoders = new ArrayList<ContentEncoder>();
+		
+		private List<BlobOutputStream> blobStreams = new ArrayList<BlobOutputStream>();
+		
+		private List<OutputStream> encoderStreams = new ArrayList<OutputStream>();
+		
+		private boolean clientEncoded;
+		
+		private boolean clientBroken;
+		
+		public boolean isOpen() {
+			return client != null;
+		}
+		
+		public boolean isEncoding() {
+			return !encoders.isEmpty();
+		}
+		
+		private void open() throws IOException {
+			if (client != null) {
+				return;
+			}
+			data.serveHead(teeRequest, teeResponse);
+			String encoding = null;
+			if (compressible) {
+				List<String> names = new ArrayList<String>();
+				for (ContentEncoder encoder : encodings.getEncoders()) {
+					names.add(encoder.getName());
+				}
+				encoding = AcceptEncoding.select(teeRequest, names);
+				teeResponse.setHeader("Vary", "Accept-Encoding");
+				if (encoding != null) {
+					teeResponse.setHeader("Content-Encoding", encoding);
+				}
+			}
+			client = new OutputStream() {
+				private OutputStream out = teeResponse.getOutputStream();
+				
+				@Override
+				public void write(int b) {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+				
+				@Override
+				public void write(byte[] b, int off, int len) {
+					if (!clientBroken) {
+						try {
+							out.write(b, off, len);
+						}
+						catch (IOException e) {
+							clientBroken = true;
+						}
+					}
+				}
+				
+				@Override
+				public void flush() {
+					if (!clientBroken) {
+						try {
+							out.flush();
+						}
+						catch (IOException e) {
+							clientBroken = true;
+						}
+					}
+				}
+			};
+			if (compressible) {
+				int level = ContentEncodings.getLevel();
+				for (ContentEncoder encoder : encodings.getEncoders()) {
+					BlobOutputStream blobOut = BlobOutputStream.create(diskStore);
+					OutputStream target = blobOut;
+					if (encoder.getName().equals(encoding)) {
+						target = new TeeOutputStream(blobOut, client);
+						clientEncoded = true;
+					}
+					encoders.add(encoder);
+					blobStreams.add(blobOut);
+					encoderStreams.add(encoder.encode(target, level));
+				}
+			}
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			open();
+			digestStream.write(b, off, len);
+			for (OutputStream out : encoderStreams) {
+				out.write(b, off, len);
+			}
+			if (!clientEncoded) {
+				client.write(b, off, len);
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			if (client != null) {
+				for (OutputStream out : encoderStreams) {
+					out.flush();
+				}
+				client.flush();
+			}
+		}
+		
+		/**
+		 * Completes the encoded streams and flushes all output.
+		 */
+		public void finish() throws IOException {
+			open();
+			closeEncoderStreams();
+			client.flush();
+		}
+		
+		private void closeEncoderStreams() throws IOException {
+			for (OutputStream out : encoderStreams) {
+				out.close();
+			}
+			encoderStreams.clear();
+		}
+		
+		/**
+		 * Creates an EncodedContent with the variants written by 
+		 * the encoders.
+		 */
+		public EncodedContent createContent(Blob blob) throws IOException {
+			closeEncoderStreams();
+			EncodedContent content = new EncodedContent(blob);
+			for (int i = 0; i < encoders.size(); i++) {
+				content.addVariant(encoders.get(i).getName(), 
+						blobStreams.get(i).toBlob());
+			}
+			return content;
+		}
+	}
+	
 	public void reset() {
 		resetBuffer();
 		data.clear();
 	}
 
 	public void resetBuffer() {
-		try {
-			if (writer != null) {
-	    		writer.close();
-	    	}
-	    	else if (outputStream != null) {
-	    		outputStream.close();
-	    	}
+		if (isStreamed()) {
+			throw new IllegalStateException("Response has already been committed");
 		}
-		catch (IOException e) {
+		blobStream.reset();
+		if (digest != null) {
+			digest.reset();
 		}
 		writer = null;
 		outputStream = null;
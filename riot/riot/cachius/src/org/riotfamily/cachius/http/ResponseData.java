@@ -9,12 +9,14 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.riotfamily.cachius.http.content.Content;
+import org.riotfamily.cachius.http.content.EncodedContent;
 import org.riotfamily.cachius.http.header.Cookies;
 import org.riotfamily.cachius.http.header.Headers;
 import org.riotfamily.cachius.persistence.Deleteable;
+import org.riotfamily.cachius.persistence.Measurable;
 
 
-public class ResponseData implements Serializable, Deleteable {
+public class ResponseData implements Serializable, Deleteable, Measurable {
 
 	/** The HTTP Status code */
     private int statusCode;
@@ -37,6 +39,12 @@ public class ResponseData implements Serializable, Deleteable {
 	private Locale locale;
 	
 	private Content content;
+	
+	/** Strong validator computed from the captured content */
+	private String etag;
+	
+	/** Value of the Last-Modified header set by the application */
+	private long lastModified = -1;
 	 
     public ResponseData(String characterEncoding) {
     	this.characterEncoding = characterEncoding;
@@ -106,26 +114,128 @@ public class ResponseData implements Serializable, Deleteable {
 	public void setContent(Content content) {
 		this.content = content;
 	}
-
-	public void serve(HttpServletRequest request, HttpServletResponse response) 
-			throws IOException, ServletException {
+	
+	/**
+	 * Sets the (quoted) ETag computed for the captured content.
+	 */
+	public void setETag(String etag) {
+		this.etag = etag;
+	}
+	
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+	
+	/**
+	 * Returns the ETag for the given request. Unless the application has set
+	 * its own ETag header, this is the computed one, with the 
+	 * Content-Encoding appended if the content is compressed.
+	 */
+	public String getETag(HttpServletRequest request) {
+		if (headers != null && headers.contain("ETag")) {
+			return headers.getStringValue("ETag");
+		}
+		if (etag != null && content instanceof EncodedContent) {
+			String encoding = ((EncodedContent) content).getContentEncoding(request);
+			if (encoding != null) {
+				return etag.substring(0, etag.length() - 1) + '-' + encoding + '"';
+			}
+		}
+		return etag;
+	}
+	
+	/**
+	 * Returns whether the client already holds the content, i.e. whether 
+	 * the request contains an If-None-Match header that matches the ETag, 
+	 * or (in absence of an If-None-Match header) an If-Modified-Since 
+	 * header that is not older than the Last-Modified header.
+	 */
+	public boolean isNotModified(HttpServletRequest request) {
+		if (error || (statusCode != 0 && statusCode != HttpServletResponse.SC_OK)
+				|| !isSafeMethod(request)
+				|| request.getAttribute("javax.servlet.include.request_uri") != null) {
+			
+			return false;
+		}
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return matches(ifNoneMatch, getETag(request));
+		}
+		if (lastModified >= 0) {
+			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			return ifModifiedSince >= 0 
+					&& lastModified / 1000 <= ifModifiedSince / 1000;
+		}
+		return false;
+	}
+	
+	private static boolean isSafeMethod(HttpServletRequest request) {
+		String method = request.getMethod();
+		return "GET".equals(method) || "HEAD".equals(method);
+	}
+	
+	/**
+	 * Performs a weak comparison of the given ETag against the (comma 
+	 * separated) list of entity tags sent by the client.
+	 */
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if (etag == null) {
+			// Content without a validator must always be served
+			return false;
+		}
+		if (ifNoneMatch.trim().equals("*")) {
+			return true;
+		}
+		etag = stripWeakIndicator(etag);
+		for (String tag : ifNoneMatch.split(",")) {
+			if (stripWeakIndicator(tag.trim()).equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static String stripWeakIndicator(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+	
+	/**
+	 * Sends a bodiless 304 response with the captured headers and cookies.
+	 * The content is not touched.
+	 */
+	public void serveNotModified(HttpServletRequest request, 
+			HttpServletResponse response) {
 		
-    	if (contentType != null) {
-    		response.setContentType(contentType);
-    	}
-        if (headers != null) {
+		response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		sendHeaders(request, response);
+		if (content instanceof EncodedContent) {
+			response.setHeader("Vary", "Accept-Encoding");
+		}
+	}
+	
+	private void sendHeaders(HttpServletRequest request, 
+			HttpServletResponse response) {
+		
+		if (headers != null) {
             headers.send(request, response);
         }
         if (cookies != null) {
         	cookies.send(request, response);
         }
+        if (etag != null) {
+        	response.setHeader("ETag", getETag(request));
+        }
+	}
+
+	public void serve(HttpServletRequest request, HttpServletResponse response) 
+			throws IOException, ServletException {
+		
         if (error) {
+        	sendContentTypeAndHeaders(request, response);
 			response.sendError(statusCode, errorMessage);
 		}
 		else {
-			if (statusCode > 0) {    
-				response.setStatus(statusCode);
-			}
+			serveHead(request, response);
 			if (content != null) {
 				int contentLength = content.getLength(request, response);
 				if (contentLength > 0) {
@@ -136,6 +246,38 @@ public class ResponseData implements Serializable, Deleteable {
 		}
     }
 
+	/**
+	 * Sends the Content-Type, headers, cookies and the status code.
+	 */
+	public void serveHead(HttpServletRequest request, 
+			HttpServletResponse response) {
+		
+		sendContentTypeAndHeaders(request, response);
+		if (statusCode > 0) {
+			response.setStatus(statusCode);
+		}
+	}
+	
+	private void sendContentTypeAndHeaders(HttpServletRequest request, 
+			HttpServletResponse response) {
+		
+		if (contentType != null) {
+    		response.setContentType(contentType);
+    	}
+    	sendHeaders(request, response);
+	}
+	
+	public boolean isError() {
+		return error;
+	}
+	
+	/**
+	 * Returns the size of the content.
+	 */
+	public long getSize() {
+		return content != null ? content.getSize() : 0;
+	}
+	
 	public void delete() {
 		if (content != null) {
 			content.delete();
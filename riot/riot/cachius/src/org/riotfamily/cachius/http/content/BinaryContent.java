@@ -1,35 +1,167 @@
 package org.riotfamily.cachius.http.content;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Random;
 
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.riotfamily.cachius.http.support.ByteRange;
 import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.persistence.Blob;
 
-
+/**
+ * Content that is sent as-is. Top-level GET requests may ask for parts of 
+ * the content using a <code>Range</code> header, optionally guarded by an 
+ * <code>If-Range</code> header. Single ranges are answered with a plain 206 
+ * response, multiple ranges with a <code>multipart/byteranges</code> body.
+ * Only the requested slices of the blob are read.
+ */
 public class BinaryContent implements Content {
 
-	private File file;
+	/** Requests with more ranges are served completely */
+	private static final int MAX_RANGES = 16;
+	
+	private static final String CRLF = "\r\n";
+	
+	private static Random random = new Random();
 	
-	public BinaryContent(File file) {
-		this.file = file;
+	private Blob blob;
+	
+	public BinaryContent(Blob blob) {
+		this.blob = blob;
+	}
+
+	/**
+	 * Returns the unencoded blob.
+	 */
+	public Blob getBlob() {
+		return blob;
 	}
 
+	public long getSize() {
+		return blob.getLength();
+	}
+	
 	public int getLength(HttpServletRequest request, HttpServletResponse response) {
-		return (int) file.length();
+		return blob.getLength();
 	}
 
 	public void serve(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		
-		IOUtils.serve(file, response.getOutputStream());
+		serveBlob(blob, request, response);
+	}
+	
+	/**
+	 * Serves the given blob, or the requested ranges of it.
+	 */
+	protected void serveBlob(Blob blob, HttpServletRequest request, 
+			HttpServletResponse response) throws IOException {
+		
+		List<ByteRange> ranges = null;
+		if (isRangeSupported(request, response)) {
+			response.setHeader("Accept-Ranges", "bytes");
+			if (ifRangeMatches(request, response)) {
+				ranges = ByteRange.parse(request.getHeader("Range"), 
+						blob.getLength());
+			}
+		}
+		if (ranges == null || ranges.size() > MAX_RANGES) {
+			IOUtils.serve(blob, response.getOutputStream());
+		}
+		else if (ranges.isEmpty()) {
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader("Content-Range", "bytes */" + blob.getLength());
+			response.setContentLength(0);
+		}
+		else if (ranges.size() == 1) {
+			ByteRange range = ranges.get(0);
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", 
+					range.getContentRange(blob.getLength()));
+			
+			response.setContentLength(range.getLength());
+			IOUtils.serve(blob, response.getOutputStream(), 
+					range.getStart(), range.getLength());
+		}
+		else {
+			serveMultipart(blob, ranges, response);
+		}
+	}
+	
+	private void serveMultipart(Blob blob, List<ByteRange> ranges, 
+			HttpServletResponse response) throws IOException {
+		
+		String boundary = Long.toHexString(random.nextLong());
+		String contentType = response.getContentType();
+		byte[][] headers = new byte[ranges.size()][];
+		byte[] trailer = (CRLF + "--" + boundary + "--" + CRLF).getBytes("ASCII");
+		int length = trailer.length;
+		for (int i = 0; i < headers.length; i++) {
+			ByteRange range = ranges.get(i);
+			StringBuilder sb = new StringBuilder();
+			sb.append(CRLF).append("--").append(boundary).append(CRLF);
+			if (contentType != null) {
+				sb.append("Content-Type: ").append(contentType).append(CRLF);
+			}
+			sb.append("Content-Range: ").append(range.getContentRange(
+					blob.getLength())).append(CRLF).append(CRLF);
+			
+			headers[i] = sb.toString().getBytes("ASCII");
+			length += headers[i].length + range.getLength();
+		}
+		
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setContentType("multipart/byteranges; boundary=" + boundary);
+		response.setContentLength(length);
+		ServletOutputStream out = response.getOutputStream();
+		for (int i = 0; i < headers.length; i++) {
+			ByteRange range = ranges.get(i);
+			out.write(headers[i]);
+			IOUtils.serve(blob, out, range.getStart(), range.getLength());
+		}
+		out.write(trailer);
+	}
+	
+	/**
+	 * Ranges are only supported for top-level GET requests with a 
+	 * 200 status code.
+	 */
+	private boolean isRangeSupported(HttpServletRequest request, 
+			HttpServletResponse response) {
+		
+		return "GET".equals(request.getMethod())
+				&& request.getAttribute("javax.servlet.include.request_uri") == null
+				&& response.getStatus() == HttpServletResponse.SC_OK;
+	}
+	
+	/**
+	 * Returns whether the request contains no If-Range header, or one that 
+	 * matches the ETag (strong comparison) or the Last-Modified date of 
+	 * the response.
+	 */
+	private boolean ifRangeMatches(HttpServletRequest request, 
+			HttpServletResponse response) {
+		
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"")) {
+			return ifRange.equals(response.getHeader("ETag"));
+		}
+		if (ifRange.startsWith("W/")) {
+			return false;
+		}
+		return ifRange.equals(response.getHeader("Last-Modified"));
 	}
 
 	public void delete() {
-		file.delete();
+		blob.delete();
 	}
 	
 }
@@ -13,7 +13,6 @@
 // Decompiled by Jad v1.5.8g. Copyright 2001 Pavel Kouznetsov.
 package org.riotfamily.cachius.http.content;
 
-import java.io.File;
 import java.io.IOException;
 
 import javax.servlet.ServletException;
@@ -21,27 +20,32 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.persistence.Blob;
 
 public class CharacterContent implements Content {
 
-	private File file;
+	private Blob blob;
 	
-    public CharacterContent(File file) {
-        this.file = file;
+    public CharacterContent(Blob blob) {
+        this.blob = blob;
     }
 
+    public long getSize() {
+    	return blob.getLength();
+    }
+    
     public int getLength(HttpServletRequest request, HttpServletResponse response) {
-        return (int)file.length();
+        return blob.getLength();
     }
 
     public void serve(HttpServletRequest request, HttpServletResponse response)
     		throws ServletException, IOException {
     	
-        IOUtils.serve(file, response.getWriter(), "UTF-8");
+        IOUtils.serve(blob, response.getWriter(), "UTF-8");
     }
 
     public void delete() {
-        file.delete();
+        blob.delete();
     }
 
 }
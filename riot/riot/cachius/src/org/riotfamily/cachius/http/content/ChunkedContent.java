@@ -1,35 +1,59 @@
 package org.riotfamily.cachius.http.content;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
 import org.riotfamily.cachius.CacheContext;
 import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.persistence.Blob;
 
-
+/**
+ * Content that contains {@link ContentFragment fragments} which are
+ * evaluated upon each request. The static parts in between are described by
+ * byte offsets into the UTF-8 encoded blob, which are recorded by the
+ * {@link org.riotfamily.cachius.http.support.ScanWriter ScanWriter} during
+ * the capture.
+ * <p>
+ * If the response uses UTF-8 and its OutputStream is available, the static
+ * parts are copied as raw bytes. Fragments write into a response wrapper
+ * whose Writer encodes into the very same stream. Otherwise (for example when
+ * the content is included by a page that already uses the Writer) the
+ * static parts are decoded and sent to the response's Writer.
+ * <p>
+ * If a {@link ParallelFragmentRenderer} has been exposed for the request,
+ * {@link IndependentFragment independent fragments} are rendered
+ * concurrently before the content is written.
+ */
 public class ChunkedContent implements Content {
 
-	private File file;
-	
-	private List<Chunk> chunks = new LinkedList<Chunk>();
+	private static final String ENCODING = "UTF-8";
 	
+	/** Approximate heap size of a chunk and its fragment */
+	private static final int CHUNK_OVERHEAD = 64;
+
+	private Blob blob;
+
+	private List<Chunk> chunks = new ArrayList<Chunk>();
+
 	private transient int lastEnd = -1;
-	
-	public ChunkedContent(File file) {
-		this.file = file;
+
+	public ChunkedContent(Blob blob) {
+		this.blob = blob;
 	}
-	
+
 	public void addFragment(int start, int end, ContentFragment fragment) {
 		int gap = start - (lastEnd + 1);
 		if (gap > 0) {
@@ -38,54 +62,118 @@ public class ChunkedContent implements Content {
 		chunks.add(new FragmentChunk(end - start + 1, fragment));
 		lastEnd = end;
 	}
-	
+
 	public void addTail() {
-		int gap = ((int) file.length()) - (lastEnd + 1);
+		int gap = blob.getLength() - (lastEnd + 1);
 		if (gap > 0) {
 			chunks.add(new Chunk(gap));
 		}
 	}
 
+	/**
+	 * Returns the size of the blob plus an estimate for the chunk objects.
+	 */
+	public long getSize() {
+		return blob.getLength() + chunks.size() * CHUNK_OVERHEAD;
+	}
+	
 	public int getLength(HttpServletRequest request, HttpServletResponse response) {
+		if (!isUtf8(response)) {
+			return -1;
+		}
 		int length = 0;
-		if (chunks != null) {
-			for (Chunk chunk : chunks) {
-				int chunkLength = chunk.getLength(request, response);
-				if (chunkLength < 0) {
-					return -1;
-				}
-				length += chunkLength;
+		for (Chunk chunk : chunks) {
+			int chunkLength = chunk.getLength(request, response);
+			if (chunkLength < 0) {
+				return -1;
 			}
+			length += chunkLength;
 		}
 		return length;
 	}
-	
+
 	public void serve(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
-		
-		Reader reader = new BufferedReader(new InputStreamReader(
-				new FileInputStream(file), "UTF-8"));
-		
+
+		ParallelFragmentRenderer.Batch batch = renderInParallel(request, response);
+		InputStream in = blob.getInputStream();
 		try {
-			if (chunks != null) {
+			ServletOutputStream out = getOutputStream(response);
+			if (out != null) {
+				ByteResponse byteResponse = new ByteResponse(response, out);
 				for (Chunk chunk : chunks) {
-					chunk.serve(reader, request, response);
+					chunk.serve(in, request, byteResponse, batch);
+				}
+				byteResponse.flushWriter();
+			}
+			else {
+				for (Chunk chunk : chunks) {
+					chunk.serve(in, request, response, batch);
 				}
 			}
 		}
 		finally {
-			IOUtils.closeReader(reader);
+			IOUtils.closeStream(in);
+			if (batch != null) {
+				batch.cancel();
+			}
 		}
 	}
-	
+
+	/**
+	 * Submits the {@link IndependentFragment independent fragments} to the
+	 * {@link ParallelFragmentRenderer} exposed for the current request, if
+	 * there is one.
+	 */
+	private ParallelFragmentRenderer.Batch renderInParallel(
+			HttpServletRequest request, HttpServletResponse response) {
+
+		ParallelFragmentRenderer renderer = ParallelFragmentRenderer.get(request);
+		if (renderer == null || !renderer.isEnabled()) {
+			return null;
+		}
+		List<IndependentFragment> fragments = new ArrayList<IndependentFragment>();
+		for (Chunk chunk : chunks) {
+			if (chunk instanceof FragmentChunk) {
+				ContentFragment fragment = ((FragmentChunk) chunk).fragment;
+				if (fragment instanceof IndependentFragment) {
+					fragments.add((IndependentFragment) fragment);
+				}
+			}
+		}
+		return renderer.render(fragments, request, response);
+	}
+
+	/**
+	 * Returns the response's OutputStream, or <code>null</code> if the
+	 * response does not use UTF-8 or its Writer has already been obtained.
+	 */
+	private ServletOutputStream getOutputStream(HttpServletResponse response) {
+		if (isUtf8(response)) {
+			try {
+				return response.getOutputStream();
+			}
+			catch (IllegalStateException e) {
+			}
+			catch (IOException e) {
+			}
+		}
+		return null;
+	}
+
+	private static boolean isUtf8(HttpServletResponse response) {
+		return ENCODING.equalsIgnoreCase(response.getCharacterEncoding());
+	}
+
 	public void delete() {
-		file.delete();
+		blob.delete();
 	}
-			
+
 	private static class Chunk implements Serializable {
 
+		/** Number of bytes */
 		protected int length;
-		
+
 		public Chunk(int length) {
 			this.length = length;
 		}
@@ -93,44 +181,111 @@ public class ChunkedContent implements Content {
 		public int getLength(HttpServletRequest request, HttpServletResponse response) {
 			return length;
 		}
-		
-		public void serve(Reader reader, HttpServletRequest request, HttpServletResponse response) 
+
+		public void serve(InputStream in, HttpServletRequest request,
+				HttpServletResponse response, ParallelFragmentRenderer.Batch batch)
 				throws ServletException, IOException {
-			
-			IOUtils.copy(reader, response.getWriter(), length);
+
+			copy(in, response);
+		}
+
+		protected void copy(InputStream in, HttpServletResponse response)
+				throws IOException {
+
+			if (response instanceof ByteResponse) {
+				ByteResponse byteResponse = (ByteResponse) response;
+				byteResponse.flushWriter();
+				IOUtils.copy(in, byteResponse.getOutputStream(), length);
+			}
+			else {
+				IOUtils.copy(in, response.getWriter(), length, ENCODING);
+			}
 		}
 	}
-	
-	private class FragmentChunk extends Chunk {
+
+	private static class FragmentChunk extends Chunk {
 
 		private ContentFragment fragment;
-		
+
 		public FragmentChunk(int length, ContentFragment fragment) {
 			super(length);
 			this.fragment = fragment;
 		}
-		
+
 		@Override
 		public int getLength(HttpServletRequest request,
 				HttpServletResponse response) {
-			
+
 			return fragment.getLength(request, response);
 		}
 
 		@Override
-		public void serve(Reader reader, HttpServletRequest request, 
-				HttpServletResponse response) throws ServletException, IOException {
-			
+		public void serve(InputStream in, HttpServletRequest request,
+				HttpServletResponse response, ParallelFragmentRenderer.Batch batch)
+				throws ServletException, IOException {
+
 			if (CacheContext.exists()) {
-				IOUtils.copy(reader, response.getWriter(), length);
+				copy(in, response);
 			}
 			else {
-				reader.skip(length);
-				fragment.serve(request, response);
+				IOUtils.skip(in, length);
+				if (batch == null || !batch.writeTo(fragment, response)) {
+					fragment.serve(request, response);
+				}
 			}
-			
 		}
-		
+
 	}
-	
+
+	/**
+	 * Response wrapper that provides a Writer which encodes into the
+	 * wrapped response's OutputStream, so that fragments can use either
+	 * of them.
+	 */
+	private static class ByteResponse extends HttpServletResponseWrapper {
+
+		private ServletOutputStream out;
+
+		private PrintWriter writer;
+
+		public ByteResponse(HttpServletResponse response, ServletOutputStream out) {
+			super(response);
+			this.out = out;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			flushWriter();
+			return out;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				// Don't propagate flush() calls, as this would commit
+				// the response after each fragment
+				OutputStream target = new FilterOutputStream(out) {
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						out.write(b, off, len);
+					}
+					@Override
+					public void flush() {
+					}
+				};
+				writer = new PrintWriter(new OutputStreamWriter(target, ENCODING));
+			}
+			return writer;
+		}
+
+		/**
+		 * Pushes characters buffered by the Writer into the OutputStream.
+		 */
+		public void flushWriter() {
+			if (writer != null) {
+				writer.flush();
+			}
+		}
+	}
+
 }
@@ -3,6 +3,12 @@ package org.riotfamily.cachius.http.content;
 
 public interface Content extends ContentFragment {
 
+	/**
+	 * Returns the number of bytes occupied by the stored content, including
+	 * all variants.
+	 */
+	public long getSize();
+	
 	public void delete();
 
 }
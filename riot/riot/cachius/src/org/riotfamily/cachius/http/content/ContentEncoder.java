@@ -0,0 +1,42 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Strategy that encodes content for one HTTP content-coding. Implementations
+ * must be thread-safe.
+ * 
+ * @see ContentEncodings
+ */
+public interface ContentEncoder {
+
+	/**
+	 * Returns the name of the coding as used in the <code>Accept-Encoding</code>
+	 * and <code>Content-Encoding</code> headers.
+	 */
+	public String getName();
+	
+	/**
+	 * Returns a stream that writes the encoded form of all bytes written to 
+	 * it into the given stream. Closing the returned stream completes the 
+	 * encoding and closes the target stream.
+	 * 
+	 * @param level the compression level, or <code>-1</code> to use the
+	 * 		encoder's default
+	 */
+	public OutputStream encode(OutputStream out, int level) throws IOException;
+	
+}
@@ -0,0 +1,218 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.riotfamily.cachius.CacheContext;
+import org.riotfamily.cachius.CacheItem;
+import org.riotfamily.cachius.Region;
+import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.persistence.Blob;
+import org.riotfamily.cachius.persistence.BlobOutputStream;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates {@link EncodedContent} with one variant per configured 
+ * {@link ContentEncoder}. The compression level is taken from the 
+ * {@link Region} of the item that is currently being captured, 
+ * falling back to each encoder's default.
+ * <p>
+ * If asynchronous encoding is enabled, the variants are created by a 
+ * background thread, so that the capturing request doesn't have to wait. 
+ * Until an encoding is complete, the content is served unencoded. Once the
+ * variants have been added, the {@link CacheItem} is notified, so that the
+ * cache accounts for their size. When the queue is full (or the executor 
+ * is being shut down), the encoding is performed on the calling thread.
+ */
+public class ContentEncodings {
+
+	private Logger log = LoggerFactory.getLogger(ContentEncodings.class);
+	
+	private List<ContentEncoder> encoders = 
+			Collections.<ContentEncoder>singletonList(new GzipEncoder());
+	
+	private boolean asynchronous = false;
+	
+	private int poolSize = 2;
+	
+	private int queueSize = 256;
+	
+	private ThreadPoolExecutor executor;
+
+	public List<ContentEncoder> getEncoders() {
+		return encoders;
+	}
+	
+	/**
+	 * Sets the encoders to use. The order is significant if a client accepts
+	 * several codings with the same q-value. Default is a single 
+	 * {@link GzipEncoder}.
+	 */
+	public void setEncoders(List<ContentEncoder> encoders) {
+		this.encoders = encoders;
+	}
+
+	/**
+	 * Sets whether the content should be encoded in the background. 
+	 * Default is <code>false</code>.
+	 */
+	public void setAsynchronous(boolean asynchronous) {
+		this.asynchronous = asynchronous;
+	}
+
+	/**
+	 * Sets the number of threads used for asynchronous encoding.
+	 * Default is <code>2</code>.
+	 */
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * Sets the number of contents that may be waiting for a thread.
+	 * Default is <code>256</code>.
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+	
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(poolSize, poolSize, 
+					60, TimeUnit.SECONDS, 
+					new ArrayBlockingQueue<Runnable>(queueSize),
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "cachius-encoder");
+							thread.setDaemon(true);
+							thread.setPriority(Thread.MIN_PRIORITY);
+							return thread;
+						}
+					},
+					new RejectedExecutionHandler() {
+						public void rejectedExecution(Runnable job, 
+								ThreadPoolExecutor executor) {
+							
+							if (executor.isShutdown()) {
+								log.debug("Encoder has been shut down, " +
+										"encoding on the calling thread");
+							}
+							job.run();
+						}
+					});
+			
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+	
+	public synchronized void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Returns the compression level configured for the region of the item
+	 * that is currently being captured, or <code>-1</code>.
+	 */
+	public static int getLevel() {
+		Region region = CacheContext.getRegion();
+		return region != null ? region.getCompressionLevel() : -1;
+	}
+	
+	/**
+	 * Creates an EncodedContent for the given blob. New blobs are created
+	 * using the given DiskStore.
+	 */
+	public EncodedContent createContent(Blob blob, DiskStore diskStore) {
+		EncodedContent content = new EncodedContent(blob);
+		Job job = new Job(content, diskStore, getLevel());
+		if (asynchronous) {
+			job.item = CacheContext.getItem();
+			getExecutor().execute(job);
+		}
+		else {
+			job.run();
+		}
+		return content;
+	}
+	
+	/**
+	 * Encodes the given blob. The returned blob is created by the given 
+	 * BlobOutputStream.
+	 */
+	public static Blob encode(Blob blob, ContentEncoder encoder, 
+			BlobOutputStream blobOut, int level) throws IOException {
+		
+		try {
+			OutputStream out = encoder.encode(blobOut, level);
+			IOUtils.copy(blob.getInputStream(), out);
+			out.close();
+			return blobOut.toBlob();
+		}
+		catch (IOException e) {
+			blobOut.reset();
+			throw e;
+		}
+	}
+	
+	private class Job implements Runnable {
+		
+		private EncodedContent content;
+		
+		private DiskStore diskStore;
+		
+		private int level;
+		
+		/** Item to notify when the variants have been added */
+		private CacheItem item;
+		
+		public Job(EncodedContent content, DiskStore diskStore, int level) {
+			this.content = content;
+			this.diskStore = diskStore;
+			this.level = level;
+		}
+
+		public void run() {
+			for (ContentEncoder encoder : encoders) {
+				try {
+					content.addVariant(encoder.getName(), encode(
+							content.getBlob(), encoder, 
+							BlobOutputStream.create(diskStore), level));
+				}
+				catch (IOException e) {
+					// The content may have been deleted in the meantime
+					log.debug("Failed to encode content using " 
+							+ encoder.getName(), e);
+				}
+			}
+			if (item != null) {
+				item.dataModified();
+			}
+		}
+	}
+	
+}
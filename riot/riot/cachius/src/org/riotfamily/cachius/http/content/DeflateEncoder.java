@@ -0,0 +1,57 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * ContentEncoder for the <code>deflate</code> coding, i.e. zlib-wrapped 
+ * deflate data as specified by RFC 2616.
+ */
+public class DeflateEncoder implements ContentEncoder {
+
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	
+	/**
+	 * Sets the default compression level (0-9). 
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+	
+	public String getName() {
+		return "deflate";
+	}
+
+	public OutputStream encode(OutputStream out, int level) throws IOException {
+		return new DeflaterOutputStream(out, new Deflater(
+				level >= 0 ? level : this.level)) {
+			
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				}
+				finally {
+					// Release the native memory, as the Deflater is not the
+					// stream's default one
+					def.end();
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,135 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.riotfamily.cachius.http.support.AcceptEncoding;
+import org.riotfamily.cachius.persistence.Blob;
+
+/**
+ * BinaryContent that also holds pre-encoded variants of the data, keyed by
+ * content-coding. The variant is negotiated upon each request using the 
+ * q-values of the <code>Accept-Encoding</code> header. Includes are always
+ * served unencoded.
+ * <p>
+ * Variants may be added after the content has been cached, which allows
+ * the encoding to take place in the background.
+ * 
+ * @see ContentEncodings
+ */
+public class EncodedContent extends BinaryContent {
+
+	/** Replaced as a whole whenever a variant is added */
+	private volatile Map<String, Blob> variants = Collections.emptyMap();
+	
+	private boolean deleted;
+	
+	public EncodedContent(Blob blob) {
+		super(blob);
+	}
+	
+	/**
+	 * Adds a variant for the given coding. If the content has already 
+	 * been deleted, the blob is deleted right away.
+	 */
+	public synchronized void addVariant(String encoding, Blob blob) {
+		if (deleted) {
+			blob.delete();
+			return;
+		}
+		Map<String, Blob> map = new LinkedHashMap<String, Blob>(variants);
+		Blob previous = map.put(encoding, blob);
+		if (previous != null) {
+			previous.delete();
+		}
+		variants = map;
+	}
+
+	/**
+	 * Returns the codings for which a variant is available.
+	 */
+	public Collection<String> getEncodings() {
+		return variants.keySet();
+	}
+	
+	/**
+	 * Returns the Content-Encoding that is used for the given request, or 
+	 * <code>null</code> if the content is sent unencoded.
+	 */
+	public String getContentEncoding(HttpServletRequest request) {
+		if (request.getAttribute("javax.servlet.include.request_uri") != null) {
+			return null;
+		}
+		return AcceptEncoding.select(request, variants.keySet());
+	}
+	
+	private Blob getVariant(String encoding) {
+		return encoding != null ? variants.get(encoding) : null;
+	}
+	
+	@Override
+	public long getSize() {
+		long size = super.getSize();
+		for (Blob variant : variants.values()) {
+			size += variant.getLength();
+		}
+		return size;
+	}
+	
+	@Override
+	public int getLength(HttpServletRequest request,
+			HttpServletResponse response) {
+		
+		Blob variant = getVariant(getContentEncoding(request));
+		if (variant != null) {
+			return variant.getLength();
+		}
+		return super.getLength(request, response);
+	}
+	
+	@Override
+	public void serve(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		
+		response.setHeader("Vary", "Accept-Encoding");
+		String encoding = getContentEncoding(request);
+		Blob variant = getVariant(encoding);
+		if (variant != null) {
+			response.setHeader("Content-Encoding", encoding);
+			serveBlob(variant, request, response);
+		}
+		else {
+			super.serve(request, response);
+		}
+	}
+	
+	@Override
+	public synchronized void delete() {
+		deleted = true;
+		super.delete();
+		for (Blob variant : variants.values()) {
+			variant.delete();
+		}
+		variants = Collections.emptyMap();
+	}
+	
+}
@@ -0,0 +1,47 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ContentEncoder for the <code>gzip</code> coding.
+ */
+public class GzipEncoder implements ContentEncoder {
+
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	
+	/**
+	 * Sets the default compression level (0-9). 
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+	
+	public String getName() {
+		return "gzip";
+	}
+
+	public OutputStream encode(OutputStream out, int level) throws IOException {
+		final int compressionLevel = level >= 0 ? level : this.level;
+		return new GZIPOutputStream(out) {
+			{
+				def.setLevel(compressionLevel);
+			}
+		};
+	}
+
+}
@@ -20,7 +20,7 @@ public class IncludeDirective implements Directive {
 		return null;
 	}
 	
-	private static class IncludeFragment implements ContentFragment {
+	private static class IncludeFragment implements IndependentFragment {
 		
 		private String url;
 	
@@ -40,6 +40,11 @@ public class IncludeDirective implements Directive {
 			request.getRequestDispatcher(url).include(request, response);
 			
 		}
+		
+		@Override
+		public String toString() {
+			return "include " + url;
+		}
 	}
 	
 }
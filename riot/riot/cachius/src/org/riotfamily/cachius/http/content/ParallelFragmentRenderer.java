@@ -0,0 +1,631 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.riotfamily.cachius.CacheContext;
+import org.riotfamily.cachius.http.support.DelegatingServletOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders the {@link IndependentFragment independent fragments} of a
+ * {@link ChunkedContent} concurrently, so that a page with several uncached
+ * includes doesn't have to pay their latencies one after another. The 
+ * fragments are rendered into buffers by a bounded thread pool and are 
+ * written in document order once the ChunkedContent reaches them.
+ * <p>
+ * Parallel rendering is disabled by default. When enabled, it is only used 
+ * if the content is not served as part of another item that is currently
+ * being captured (in that case fragments aren't evaluated anyway, see
+ * {@link CacheContext#exists()}), and never from within one of the pool's 
+ * own threads. Each fragment sees its own view of the request attributes.
+ * <p>
+ * Fragments are rendered serially on the request thread whenever the pool
+ * is saturated or a fragment has not been started within the configured 
+ * timeout. A fragment that is already running is always waited for, so that
+ * it is never rendered twice, and no pool thread uses the request once it 
+ * has been served. Exceptions thrown by a fragment are propagated as if it 
+ * had been rendered serially.
+ * <p>
+ * Some containers don't allow a RequestDispatcher to be used outside 
+ * of the request thread. If a dispatch fails with an IllegalStateException
+ * or UnsupportedOperationException, the fragment is rendered serially and
+ * parallel rendering is turned off for good.
+ */
+public class ParallelFragmentRenderer {
+
+	private static final String REQUEST_ATTRIBUTE = 
+			ParallelFragmentRenderer.class.getName();
+	
+	private Logger log = LoggerFactory.getLogger(ParallelFragmentRenderer.class);
+	
+	private boolean enabled = false;
+	
+	private int poolSize = 8;
+	
+	private int queueSize = 64;
+	
+	private long timeout = 10000;
+	
+	private volatile boolean crossThreadDispatchSupported = true;
+	
+	private ThreadPoolExecutor executor;
+	
+	private ThreadGroup threadGroup = new ThreadGroup("cachius-fragments");
+
+	public boolean isEnabled() {
+		return enabled && crossThreadDispatchSupported;
+	}
+
+	/**
+	 * Sets whether fragments should be rendered in parallel. 
+	 * Default is <code>false</code>.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Sets the maximum number of threads used to render fragments.
+	 * Default is <code>8</code>.
+	 */
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+	
+	/**
+	 * Sets the number of fragments that may be waiting for a thread. If the
+	 * queue is full, fragments are rendered on the request thread.
+	 * Default is <code>64</code>.
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Sets how long (in milliseconds) the request thread waits for a 
+	 * fragment before it renders the fragment itself. 
+	 * Default is <code>10000</code>.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+	
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(poolSize, poolSize, 
+					60, TimeUnit.SECONDS, 
+					new ArrayBlockingQueue<Runnable>(queueSize),
+					new FragmentThreadFactory());
+			
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	public synchronized void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Makes the renderer available to {@link ChunkedContent} instances that 
+	 * are served while the given request is processed. Returns the previously
+	 * exposed renderer, which should be passed to 
+	 * {@link #restore(HttpServletRequest, ParallelFragmentRenderer)} when
+	 * the content has been served.
+	 */
+	public ParallelFragmentRenderer expose(HttpServletRequest request) {
+		ParallelFragmentRenderer previous = get(request);
+		request.setAttribute(REQUEST_ATTRIBUTE, this);
+		return previous;
+	}
+	
+	public static void restore(HttpServletRequest request, 
+			ParallelFragmentRenderer previous) {
+		
+		if (previous != null) {
+			request.setAttribute(REQUEST_ATTRIBUTE, previous);
+		}
+		else {
+			request.removeAttribute(REQUEST_ATTRIBUTE);
+		}
+	}
+	
+	static ParallelFragmentRenderer get(HttpServletRequest request) {
+		return (ParallelFragmentRenderer) request.getAttribute(REQUEST_ATTRIBUTE);
+	}
+	
+	/**
+	 * Starts rendering the given fragments. Returns <code>null</code> if
+	 * parallel rendering is not possible, in which case the caller must 
+	 * render all fragments itself.
+	 */
+	Batch render(List<IndependentFragment> fragments, 
+			HttpServletRequest request, HttpServletResponse response) {
+		
+		if (fragments.size() < 2 || !isEnabled() || CacheContext.exists()
+				|| Thread.currentThread().getThreadGroup() == threadGroup) {
+			
+			return null;
+		}
+		Batch batch = new Batch();
+		for (IndependentFragment fragment : fragments) {
+			FragmentTask task = new FragmentTask(fragment, 
+					new IsolatedRequest(request), 
+					new BufferingResponse(response));
+			try {
+				task.future = getExecutor().submit(task);
+				batch.add(fragment, task);
+			}
+			catch (RejectedExecutionException e) {
+				// The remaining fragments will be rendered serially
+				break;
+			}
+		}
+		return batch;
+	}
+	
+	/**
+	 * Fragments submitted for a single ChunkedContent.
+	 */
+	class Batch {
+		
+		private Map<ContentFragment, FragmentTask> tasks = 
+				new IdentityHashMap<ContentFragment, FragmentTask>();
+		
+		private void add(ContentFragment fragment, FragmentTask task) {
+			tasks.put(fragment, task);
+		}
+		
+		/**
+		 * Waits until the given fragment has been rendered and writes the 
+		 * buffered output to the response. Returns <code>false</code> if the 
+		 * fragment was not rendered, in which case the caller must render it
+		 * itself.
+		 */
+		public boolean writeTo(ContentFragment fragment, 
+				HttpServletResponse response) 
+				throws ServletException, IOException {
+			
+			FragmentTask task = tasks.remove(fragment);
+			if (task == null) {
+				return false;
+			}
+			BufferingResponse buffer;
+			try {
+				buffer = await(task);
+			}
+			catch (ExecutionException e) {
+				handleFailure(fragment, e.getCause());
+				return false;
+			}
+			if (buffer == null) {
+				return false;
+			}
+			buffer.writeTo(response);
+			return true;
+		}
+		
+		/**
+		 * Cancels all fragments that have not been started yet and waits for
+		 * the running ones, so that no pool thread uses the request after 
+		 * it has been served.
+		 */
+		public void cancel() {
+			for (FragmentTask task : tasks.values()) {
+				if (!task.cancel()) {
+					try {
+						awaitUninterruptibly(task.future);
+					}
+					catch (ExecutionException e) {
+					}
+				}
+			}
+			tasks.clear();
+		}
+	}
+	
+	/**
+	 * Waits for the given task. If the timeout elapses (or the thread is 
+	 * interrupted) before the task has been started, it is cancelled and 
+	 * <code>null</code> is returned. A running task is waited for until it
+	 * completes.
+	 */
+	private BufferingResponse await(FragmentTask task) 
+			throws ExecutionException {
+		
+		try {
+			return task.future.get(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e) {
+			if (task.cancel()) {
+				log.warn("Fragment {} was not started within {} ms, " +
+						"rendering it serially", task.fragment, timeout);
+				
+				return null;
+			}
+			log.warn("Fragment {} did not complete within {} ms, " +
+					"waiting for it", task.fragment, timeout);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (task.cancel()) {
+				return null;
+			}
+		}
+		return awaitUninterruptibly(task.future);
+	}
+	
+	private static <T> T awaitUninterruptibly(Future<T> future) 
+			throws ExecutionException {
+		
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Handles an exception thrown by a fragment. If the container doesn't
+	 * support cross-thread dispatches, parallel rendering is disabled and 
+	 * the method returns normally, so that the fragment is rendered serially.
+	 * Any other exception is re-thrown, as the fragment has already been 
+	 * executed once.
+	 */
+	private void handleFailure(ContentFragment fragment, Throwable cause) 
+			throws ServletException, IOException {
+		
+		if (cause instanceof IllegalStateException 
+				|| cause instanceof UnsupportedOperationException) {
+			
+			if (crossThreadDispatchSupported) {
+				crossThreadDispatchSupported = false;
+				log.warn("The servlet container does not seem to support " +
+						"dispatching outside the request thread. " +
+						"Parallel fragment rendering has been disabled.", cause);
+			}
+			return;
+		}
+		if (cause instanceof IOException) {
+			throw (IOException) cause;
+		}
+		if (cause instanceof ServletException) {
+			throw (ServletException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		throw new ServletException(cause);
+	}
+	
+	private static class FragmentTask implements Callable<BufferingResponse> {
+		
+		private ContentFragment fragment;
+		
+		private HttpServletRequest request;
+		
+		private BufferingResponse response;
+		
+		private Future<BufferingResponse> future;
+		
+		/** Set by the pool thread that runs the task, or by cancel() */
+		private AtomicBoolean started = new AtomicBoolean();
+
+		public FragmentTask(ContentFragment fragment, 
+				HttpServletRequest request, BufferingResponse response) {
+			
+			this.fragment = fragment;
+			this.request = request;
+			this.response = response;
+		}
+
+		public BufferingResponse call() throws Exception {
+			if (!started.compareAndSet(false, true)) {
+				return null;
+			}
+			fragment.serve(request, response);
+			response.flushWriter();
+			return response;
+		}
+		
+		/**
+		 * Prevents the task from being started. Returns <code>false</code> 
+		 * if the task is already running or has completed.
+		 */
+		boolean cancel() {
+			if (started.compareAndSet(false, true)) {
+				future.cancel(false);
+				return true;
+			}
+			return false;
+		}
+	}
+	
+	private class FragmentThreadFactory implements ThreadFactory {
+		
+		private AtomicInteger count = new AtomicInteger();
+		
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(threadGroup, r, 
+					"cachius-fragment-" + count.incrementAndGet());
+			
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	/**
+	 * Request wrapper that keeps attributes set by a fragment to itself,
+	 * so that fragments rendered at the same time don't see each other's 
+	 * attributes (like the <code>javax.servlet.include.*</code> ones).
+	 */
+	private static class IsolatedRequest extends HttpServletRequestWrapper {
+
+		private Map<String, Object> attributes = new HashMap<String, Object>();
+		
+		private Set<String> removedAttributes = new HashSet<String>();
+		
+		public IsolatedRequest(HttpServletRequest request) {
+			super(request);
+		}
+		
+		@Override
+		public Object getAttribute(String name) {
+			if (attributes.containsKey(name)) {
+				return attributes.get(name);
+			}
+			if (removedAttributes.contains(name)) {
+				return null;
+			}
+			return super.getAttribute(name);
+		}
+		
+		@Override
+		public Enumeration<String> getAttributeNames() {
+			Set<String> names = new HashSet<String>();
+			Enumeration<String> en = super.getAttributeNames();
+			while (en.hasMoreElements()) {
+				names.add(en.nextElement());
+			}
+			names.removeAll(removedAttributes);
+			names.addAll(attributes.keySet());
+			return Collections.enumeration(names);
+		}
+		
+		@Override
+		public void setAttribute(String name, Object value) {
+			if (value == null) {
+				removeAttribute(name);
+			}
+			else {
+				attributes.put(name, value);
+				removedAttributes.remove(name);
+			}
+		}
+		
+		@Override
+		public void removeAttribute(String name) {
+			attributes.remove(name);
+			removedAttributes.add(name);
+		}
+	}
+
+	/**
+	 * Response wrapper that buffers the output of a fragment. As with any 
+	 * include, headers and status codes set by the fragment are ignored.
+	 */
+	private static class BufferingResponse extends HttpServletResponseWrapper {
+
+		private ByteArrayOutputStream bytes;
+		
+		private CharArrayWriter chars;
+		
+		private PrintWriter writer;
+		
+		private ServletOutputStream outputStream;
+		
+		public BufferingResponse(HttpServletResponse response) {
+			super(response);
+		}
+		
+		@Override
+		public ServletOutputStream getOutputStream() {
+			if (chars != null) {
+				throw new IllegalStateException("getWriter() has already been called");
+			}
+			if (outputStream == null) {
+				bytes = new ByteArrayOutputStream();
+				outputStream = new DelegatingServletOutputStream(bytes);
+			}
+			return outputStream;
+		}
+		
+		@Override
+		public PrintWriter getWriter() {
+			if (bytes != null) {
+				throw new IllegalStateException("getOutputStream() has already been called");
+			}
+			if (writer == null) {
+				chars = new CharArrayWriter();
+				writer = new PrintWriter(chars);
+			}
+			return writer;
+		}
+		
+		void flushWriter() {
+			if (writer != null) {
+				writer.flush();
+			}
+		}
+		
+		void writeTo(HttpServletResponse response) throws IOException {
+			if (chars != null) {
+				chars.writeTo(response.getWriter());
+			}
+			else if (bytes != null) {
+				try {
+					bytes.writeTo(response.getOutputStream());
+				}
+				catch (IllegalStateException e) {
+					response.getWriter().write(bytes.toString(
+							response.getCharacterEncoding()));
+				}
+			}
+		}
+		
+		@Override
+		public void flushBuffer() {
+		}
+		
+		@Override
+		public void resetBuffer() {
+			if (bytes != null) {
+				bytes.reset();
+			}
+			if (chars != null) {
+				flushWriter();
+				chars.reset();
+			}
+		}
+		
+		@Override
+		public void reset() {
+			resetBuffer();
+		}
+		
+		@Override
+		public boolean isCommitted() {
+			return false;
+		}
+		
+		@Override
+		public void setBufferSize(int size) {
+		}
+		
+		@Override
+		public void setContentLength(int len) {
+		}
+		
+		@Override
+		public void setContentType(String type) {
+		}
+		
+		@Override
+		public void setCharacterEncoding(String charset) {
+		}
+		
+		@Override
+		public void setLocale(Locale locale) {
+		}
+		
+		@Override
+		public void setStatus(int sc) {
+		}
+		
+		@Override
+		@Deprecated
+		public void setStatus(int sc, String sm) {
+		}
+		
+		@Override
+		public void sendError(int sc) {
+		}
+		
+		@Override
+		public void sendError(int sc, String msg) {
+		}
+		
+		@Override
+		public void sendRedirect(String location) {
+		}
+		
+		@Override
+		public void addCookie(Cookie cookie) {
+		}
+		
+		@Override
+		public void setHeader(String name, String value) {
+		}
+		
+		@Override
+		public void addHeader(String name, String value) {
+		}
+		
+		@Override
+		public void setDateHeader(String name, long date) {
+		}
+		
+		@Override
+		public void addDateHeader(String name, long date) {
+		}
+		
+		@Override
+		public void setIntHeader(String name, int value) {
+		}
+		
+		@Override
+		public void addIntHeader(String name, int value) {
+		}
+	}
+}
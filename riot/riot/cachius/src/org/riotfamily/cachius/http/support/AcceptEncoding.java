@@ -0,0 +1,114 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Negotiates the content-coding based on the q-values of the 
+ * <code>Accept-Encoding</code> header.
+ */
+public final class AcceptEncoding {
+
+	private static final String IDENTITY = "identity";
+	
+	private static final String ANY = "*";
+	
+	private Map<String, Float> qualities = new HashMap<String, Float>();
+	
+	private AcceptEncoding(String header) {
+		for (String token : header.split(",")) {
+			String[] params = token.split(";");
+			String coding = params[0].trim().toLowerCase();
+			if (coding.length() == 0) {
+				continue;
+			}
+			float q = 1;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						q = Float.parseFloat(param.substring(2));
+					}
+					catch (NumberFormatException e) {
+						q = 0;
+					}
+				}
+			}
+			qualities.put(coding, q);
+		}
+	}
+	
+	private float getQuality(String coding) {
+		Float q = qualities.get(coding);
+		if (q == null && coding.equals("gzip")) {
+			q = qualities.get("x-gzip");
+		}
+		if (q == null) {
+			q = qualities.get(ANY);
+		}
+		if (q == null) {
+			return coding.equals(IDENTITY) ? 1 : 0;
+		}
+		return q;
+	}
+	
+	/**
+	 * Selects the coding to use for the given request.
+	 * 
+	 * @see #select(String, Collection)
+	 */
+	public static String select(HttpServletRequest request, 
+			Collection<String> available) {
+		
+		Enumeration<String> values = request.getHeaders("Accept-Encoding");
+		if (values == null || !values.hasMoreElements()) {
+			return null;
+		}
+		StringBuilder header = new StringBuilder(values.nextElement());
+		while (values.hasMoreElements()) {
+			header.append(',').append(values.nextElement());
+		}
+		return select(header.toString(), available);
+	}
+	
+	/**
+	 * Selects the available coding with the highest q-value. Returns 
+	 * <code>null</code> if the content should be sent unencoded. This is also
+	 * the case if no Accept-Encoding header is present, or no acceptable 
+	 * coding is available. In case of equal q-values, encoded content is 
+	 * preferred, in the order of the given collection. 
+	 */
+	public static String select(String header, Collection<String> available) {
+		if (header == null || available.isEmpty()) {
+			return null;
+		}
+		AcceptEncoding accept = new AcceptEncoding(header);
+		String best = null;
+		float bestQ = accept.getQuality(IDENTITY);
+		for (String coding : available) {
+			float q = accept.getQuality(coding);
+			if (q > 0 && (best == null ? q >= bestQ : q > bestQ)) {
+				best = coding;
+				bestQ = q;
+			}
+		}
+		return best;
+	}
+	
+}
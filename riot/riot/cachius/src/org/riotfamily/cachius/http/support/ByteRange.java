@@ -0,0 +1,117 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Range of bytes requested via an HTTP <code>Range</code> header.
+ */
+public class ByteRange {
+
+	private static final String UNIT = "bytes=";
+	
+	private int start;
+	
+	private int end;
+
+	public ByteRange(int start, int end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Returns the offset of the first byte.
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the offset of the last byte (inclusive).
+	 */
+	public int getEnd() {
+		return end;
+	}
+	
+	public int getLength() {
+		return end - start + 1;
+	}
+	
+	/**
+	 * Returns the value of the <code>Content-Range</code> header.
+	 */
+	public String getContentRange(int contentLength) {
+		return "bytes " + start + "-" + end + "/" + contentLength;
+	}
+	
+	/**
+	 * Parses the given Range header. Returns <code>null</code> if the 
+	 * header is syntactically invalid, in which case it must be ignored. 
+	 * Ranges that can't be satisfied are skipped, hence an empty list is 
+	 * returned if none of the ranges overlaps the content.
+	 */
+	public static List<ByteRange> parse(String header, int contentLength) {
+		if (header == null || !header.startsWith(UNIT)) {
+			return null;
+		}
+		List<ByteRange> ranges = new ArrayList<ByteRange>();
+		for (String spec : header.substring(UNIT.length()).split(",")) {
+			spec = spec.trim();
+			int i = spec.indexOf('-');
+			if (i == -1) {
+				return null;
+			}
+			try {
+				String first = spec.substring(0, i).trim();
+				String last = spec.substring(i + 1).trim();
+				long start;
+				long end;
+				if (first.length() == 0) {
+					// Suffix range: the last n bytes
+					long suffix = Long.parseLong(last);
+					if (suffix <= 0) {
+						continue;
+					}
+					start = Math.max(0, contentLength - suffix);
+					end = contentLength - 1;
+				}
+				else {
+					start = Long.parseLong(first);
+					end = last.length() > 0 ? Long.parseLong(last) : contentLength - 1;
+					if (end < start) {
+						return null;
+					}
+				}
+				if (start < 0) {
+					return null;
+				}
+				if (start < contentLength) {
+					ranges.add(new ByteRange((int) start, 
+							(int) Math.min(end, contentLength - 1)));
+				}
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return ranges;
+	}
+	
+	@Override
+	public String toString() {
+		return start + "-" + end;
+	}
+	
+}
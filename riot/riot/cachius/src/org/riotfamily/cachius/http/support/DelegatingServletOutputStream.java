@@ -39,6 +39,10 @@ public class DelegatingServletOutputStream extends ServletOutputStream {
             this.targetStream.write(b);
     }
 
+    public void write(byte[] b, int off, int len) throws IOException {
+            this.targetStream.write(b, off, len);
+    }
+
     public void flush() throws IOException {
             super.flush();
             this.targetStream.flush();
@@ -0,0 +1,519 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.Principal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Snapshot of a request that can be used after the original request has 
+ * completed, e.g. to replay a capture in a background thread. The URL, 
+ * headers, parameters, attributes and locales are copied upon construction. 
+ * <p>
+ * The snapshot is anonymous: it has no session, no user and no body. 
+ * {@link #getSession()} throws an IllegalStateException, so that content 
+ * which depends on the session can't be captured by accident. Request 
+ * dispatchers are obtained from the ServletContext, if one is given. 
+ * Note that some containers don't allow them to be used outside of a 
+ * request thread.
+ * <p>
+ * The class extends HttpServletRequestWrapper only to implement the methods
+ * of newer Servlet API versions. These are delegated to the original 
+ * request and must not be used.
+ */
+public class DetachedRequest extends HttpServletRequestWrapper {
+
+	private static final String DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+	
+	private ServletContext servletContext;
+	
+	private String method;
+	
+	private String scheme;
+	
+	private String protocol;
+	
+	private String serverName;
+	
+	private int serverPort;
+	
+	private boolean secure;
+	
+	private String contextPath;
+	
+	private String servletPath;
+	
+	private String pathInfo;
+	
+	private String requestUri;
+	
+	private String requestUrl;
+	
+	private String queryString;
+	
+	private String characterEncoding;
+	
+	private String contentType;
+	
+	private String remoteAddr;
+	
+	private String remoteHost;
+	
+	private int remotePort;
+	
+	private String localName;
+	
+	private String localAddr;
+	
+	private int localPort;
+	
+	private List<Locale> locales = new ArrayList<Locale>();
+	
+	private Cookie[] cookies;
+	
+	private Map<String, List<String>> headers = new TreeMap<String, List<String>>(
+			String.CASE_INSENSITIVE_ORDER);
+	
+	private Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+	
+	private Map<String, Object> attributes = 
+			Collections.synchronizedMap(new HashMap<String, Object>());
+	
+	public DetachedRequest(HttpServletRequest request) {
+		this(request, null);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public DetachedRequest(HttpServletRequest request, 
+			ServletContext servletContext) {
+		
+		super(request);
+		this.servletContext = servletContext;
+		method = request.getMethod();
+		scheme = request.getScheme();
+		protocol = request.getProtocol();
+		serverName = request.getServerName();
+		serverPort = request.getServerPort();
+		secure = request.isSecure();
+		contextPath = request.getContextPath();
+		servletPath = request.getServletPath();
+		pathInfo = request.getPathInfo();
+		requestUri = request.getRequestURI();
+		requestUrl = request.getRequestURL().toString();
+		queryString = request.getQueryString();
+		characterEncoding = request.getCharacterEncoding();
+		contentType = request.getContentType();
+		remoteAddr = request.getRemoteAddr();
+		remoteHost = request.getRemoteHost();
+		remotePort = request.getRemotePort();
+		localName = request.getLocalName();
+		localAddr = request.getLocalAddr();
+		localPort = request.getLocalPort();
+		locales.addAll(Collections.list(request.getLocales()));
+		if (request.getCookies() != null) {
+			cookies = request.getCookies().clone();
+		}
+		Enumeration<String> names = request.getHeaderNames();
+		while (names.hasMoreElements()) {
+			String name = names.nextElement();
+			headers.put(name, Collections.list(
+					(Enumeration<String>) request.getHeaders(name)));
+		}
+		parameters.putAll(request.getParameterMap());
+		names = request.getAttributeNames();
+		while (names.hasMoreElements()) {
+			String name = names.nextElement();
+			attributes.put(name, request.getAttribute(name));
+		}
+	}
+	
+	// -----------------------------------------------------------------------
+	// Implementation of the ServletRequest interface
+	// -----------------------------------------------------------------------
+	
+	@Override
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+	
+	@Override
+	public Enumeration<String> getAttributeNames() {
+		synchronized (attributes) {
+			return Collections.enumeration(
+					new ArrayList<String>(attributes.keySet()));
+		}
+	}
+	
+	@Override
+	public void setAttribute(String name, Object value) {
+		if (value != null) {
+			attributes.put(name, value);
+		}
+		else {
+			attributes.remove(name);
+		}
+	}
+	
+	@Override
+	public void removeAttribute(String name) {
+		attributes.remove(name);
+	}
+	
+	@Override
+	public String getCharacterEncoding() {
+		return characterEncoding;
+	}
+	
+	@Override
+	public void setCharacterEncoding(String enc) 
+			throws UnsupportedEncodingException {
+		
+		this.characterEncoding = enc;
+	}
+	
+	@Override
+	public int getContentLength() {
+		return -1;
+	}
+	
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+	
+	@Override
+	public ServletInputStream getInputStream() throws IOException {
+		final InputStream in = new ByteArrayInputStream(new byte[0]);
+		return new ServletInputStream() {
+			@Override
+			public int read() throws IOException {
+				return in.read();
+			}
+		};
+	}
+	
+	@Override
+	public BufferedReader getReader() throws IOException {
+		return new BufferedReader(new StringReader(""));
+	}
+	
+	@Override
+	public String getParameter(String name) {
+		String[] values = parameters.get(name);
+		return values != null && values.length > 0 ? values[0] : null;
+	}
+	
+	@Override
+	public Enumeration<String> getParameterNames() {
+		return Collections.enumeration(parameters.keySet());
+	}
+	
+	@Override
+	public String[] getParameterValues(String name) {
+		return parameters.get(name);
+	}
+	
+	@Override
+	public Map<String, String[]> getParameterMap() {
+		return Collections.unmodifiableMap(parameters);
+	}
+	
+	@Override
+	public String getProtocol() {
+		return protocol;
+	}
+	
+	@Override
+	public String getScheme() {
+		return scheme;
+	}
+	
+	@Override
+	public String getServerName() {
+		return serverName;
+	}
+	
+	@Override
+	public int getServerPort() {
+		return serverPort;
+	}
+	
+	@Override
+	public boolean isSecure() {
+		return secure;
+	}
+	
+	@Override
+	public String getRemoteAddr() {
+		return remoteAddr;
+	}
+	
+	@Override
+	public String getRemoteHost() {
+		return remoteHost;
+	}
+	
+	@Override
+	public int getRemotePort() {
+		return remotePort;
+	}
+	
+	@Override
+	public String getLocalName() {
+		return localName;
+	}
+	
+	@Override
+	public String getLocalAddr() {
+		return localAddr;
+	}
+	
+	@Override
+	public int getLocalPort() {
+		return localPort;
+	}
+	
+	@Override
+	public Locale getLocale() {
+		return locales.isEmpty() ? Locale.getDefault() : locales.get(0);
+	}
+	
+	@Override
+	public Enumeration<Locale> getLocales() {
+		return Collections.enumeration(locales);
+	}
+	
+	/**
+	 * Returns a dispatcher obtained from the ServletContext, or 
+	 * <code>null</code> if no context has been specified.
+	 */
+	@Override
+	public RequestDispatcher getRequestDispatcher(String path) {
+		if (servletContext == null || path == null) {
+			return null;
+		}
+		if (!path.startsWith("/")) {
+			String uri = servletPath + (pathInfo != null ? pathInfo : "");
+			path = uri.substring(0, uri.lastIndexOf('/') + 1) + path;
+		}
+		return servletContext.getRequestDispatcher(path);
+	}
+	
+	@Override
+	@SuppressWarnings("deprecation")
+	public String getRealPath(String path) {
+		return servletContext != null ? servletContext.getRealPath(path) : null;
+	}
+	
+	/**
+	 * Returns the ServletContext passed to the constructor. Overrides the
+	 * Servlet 3.0 method, so that the original request is not accessed.
+	 */
+	public ServletContext getServletContext() {
+		return servletContext;
+	}
+	
+	public boolean isAsyncStarted() {
+		return false;
+	}
+	
+	public boolean isAsyncSupported() {
+		return false;
+	}
+	
+	// -----------------------------------------------------------------------
+	// Implementation of the HttpServletRequest interface
+	// -----------------------------------------------------------------------
+	
+	@Override
+	public String getAuthType() {
+		return null;
+	}
+	
+	@Override
+	public Cookie[] getCookies() {
+		return cookies;
+	}
+	
+	@Override
+	public long getDateHeader(String name) {
+		String value = getHeader(name);
+		if (value == null) {
+			return -1;
+		}
+		SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return format.parse(value).getTime();
+		}
+		catch (ParseException e) {
+			throw new IllegalArgumentException("Invalid date header " 
+					+ name + ": " + value);
+		}
+	}
+	
+	@Override
+	public String getHeader(String name) {
+		List<String> values = headers.get(name);
+		return values != null && !values.isEmpty() ? values.get(0) : null;
+	}
+	
+	@Override
+	public Enumeration<String> getHeaders(String name) {
+		List<String> values = headers.get(name);
+		if (values == null) {
+			values = Collections.emptyList();
+		}
+		return Collections.enumeration(values);
+	}
+	
+	@Override
+	public Enumeration<String> getHeaderNames() {
+		return Collections.enumeration(headers.keySet());
+	}
+	
+	@Override
+	public int getIntHeader(String name) {
+		String value = getHeader(name);
+		return value != null ? Integer.parseInt(value) : -1;
+	}
+	
+	@Override
+	public String getMethod() {
+		return method;
+	}
+	
+	@Override
+	public String getPathInfo() {
+		return pathInfo;
+	}
+	
+	@Override
+	public String getPathTranslated() {
+		return pathInfo != null ? getRealPath(pathInfo) : null;
+	}
+	
+	@Override
+	public String getContextPath() {
+		return contextPath;
+	}
+	
+	@Override
+	public String getQueryString() {
+		return queryString;
+	}
+	
+	@Override
+	public String getRemoteUser() {
+		return null;
+	}
+	
+	@Override
+	public boolean isUserInRole(String role) {
+		return false;
+	}
+	
+	@Override
+	public Principal getUserPrincipal() {
+		return null;
+	}
+	
+	@Override
+	public String getRequestedSessionId() {
+		return null;
+	}
+	
+	@Override
+	public String getRequestURI() {
+		return requestUri;
+	}
+	
+	@Override
+	public StringBuffer getRequestURL() {
+		return new StringBuffer(requestUrl);
+	}
+	
+	@Override
+	public String getServletPath() {
+		return servletPath;
+	}
+	
+	/**
+	 * Returns <code>null</code> if <code>create</code> is <code>false</code>, 
+	 * otherwise an IllegalStateException is thrown.
+	 */
+	@Override
+	public HttpSession getSession(boolean create) {
+		if (create) {
+			throw new IllegalStateException(
+					"A detached request has no session");
+		}
+		return null;
+	}
+	
+	@Override
+	public HttpSession getSession() {
+		return getSession(true);
+	}
+	
+	@Override
+	public boolean isRequestedSessionIdValid() {
+		return false;
+	}
+	
+	/**
+	 * Returns <code>true</code>, so that no session id is encoded into 
+	 * URLs.
+	 */
+	@Override
+	public boolean isRequestedSessionIdFromCookie() {
+		return true;
+	}
+	
+	@Override
+	public boolean isRequestedSessionIdFromURL() {
+		return false;
+	}
+	
+	@Override
+	@Deprecated
+	public boolean isRequestedSessionIdFromUrl() {
+		return false;
+	}
+	
+}
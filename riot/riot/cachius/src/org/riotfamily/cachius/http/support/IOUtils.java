@@ -15,6 +15,7 @@ package org.riotfamily.cachius.http.support;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -23,6 +24,11 @@ import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.riotfamily.cachius.persistence.Blob;
 
 public class IOUtils {
 	
@@ -110,6 +116,74 @@ public class IOUtils {
 		return -1;
 	}
 	
+	/**
+	 * Returns a WritableByteChannel that writes directly into the given 
+	 * OutputStream, or <code>null</code> if the stream does not expose one.
+	 */
+	public static WritableByteChannel getChannel(OutputStream out) {
+		if (out instanceof WritableByteChannel) {
+			return (WritableByteChannel) out;
+		}
+		if (out instanceof FileOutputStream) {
+			return ((FileOutputStream) out).getChannel();
+		}
+		return null;
+	}
+	
+	/**
+	 * Transfers the content of the given File to a WritableByteChannel using
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which
+	 * allows the operating system to move the bytes without copying them 
+	 * into the JVM. 
+	 * @return the number of bytes transferred
+	 */
+	public static long transfer(File file, WritableByteChannel out) 
+			throws IOException {
+		
+		return transfer(file, out, 0, -1);
+	}
+	
+	/**
+	 * Transfers <code>count</code> bytes of the given File, starting at the
+	 * given position, to a WritableByteChannel. A negative count transfers 
+	 * everything up to the end of the file.
+	 * @return the number of bytes transferred
+	 */
+	public static long transfer(File file, WritableByteChannel out, 
+			long position, long count) throws IOException {
+		
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long end = count < 0 ? channel.size() 
+					: Math.min(channel.size(), position + count);
+			
+			long pos = position;
+			while (pos < end) {
+				pos += channel.transferTo(pos, end - pos, out);
+			}
+			return pos - position;
+		}
+		finally {
+			closeStream(in);
+		}
+	}
+	
+	/**
+	 * Writes the remaining bytes of the given buffer to a 
+	 * WritableByteChannel.
+	 * @return the number of bytes written
+	 */
+	public static int write(ByteBuffer buffer, WritableByteChannel out) 
+			throws IOException {
+		
+		int byteCount = 0;
+		while (buffer.hasRemaining()) {
+			byteCount += out.write(buffer);
+		}
+		return byteCount;
+	}
+	
 	/**
 	 * Copies the content of the given Reader to a Writer.
 	 * Unlike FileCopyUtils.copy(Reader, Writer) this method does not 
@@ -136,15 +210,67 @@ public class IOUtils {
 		}
 	}
 	
-	public static int copy(Reader in, Writer out, int length) throws IOException {
-		for (int i = 0; i < length; i++) {
-			int c = in.read();
-			if (c == -1) {
-				return i;
+	/**
+	 * Copies the given number of bytes from an InputStream to an 
+	 * OutputStream. Neither of the streams is closed.
+	 * @return the number of bytes copied, which is less than 
+	 * 		<code>length</code> if the end of the input was reached
+	 */
+	public static int copy(InputStream in, OutputStream out, int length) 
+			throws IOException {
+		
+		byte[] buffer = new byte[Math.min(length, BUFFER_SIZE)];
+		int remaining = length;
+		while (remaining > 0) {
+			int bytesRead = in.read(buffer, 0, Math.min(remaining, buffer.length));
+			if (bytesRead == -1) {
+				break;
 			}
-			out.write(c);
+			out.write(buffer, 0, bytesRead);
+			remaining -= bytesRead;
+		}
+		return length - remaining;
+	}
+	
+	/**
+	 * Reads the given number of bytes from an InputStream and writes them 
+	 * to a Writer, decoded with the specified encoding. The stream must be 
+	 * positioned on a character boundary and <code>length</code> bytes must 
+	 * form complete characters.
+	 * @return the number of bytes read
+	 */
+	public static int copy(InputStream in, Writer out, int length, 
+			String encoding) throws IOException {
+		
+		byte[] buffer = new byte[length];
+		int count = 0;
+		while (count < length) {
+			int bytesRead = in.read(buffer, count, length - count);
+			if (bytesRead == -1) {
+				break;
+			}
+			count += bytesRead;
+		}
+		out.write(new String(buffer, 0, count, encoding));
+		return count;
+	}
+	
+	/**
+	 * Skips exactly <code>length</code> bytes unless the end of the stream 
+	 * is reached.
+	 */
+	public static void skip(InputStream in, long length) throws IOException {
+		long remaining = length;
+		while (remaining > 0) {
+			long skipped = in.skip(remaining);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					return;
+				}
+				skipped = 1;
+			}
+			remaining -= skipped;
 		}
-		return length;
 	}
 	
 	/**
@@ -239,6 +365,70 @@ public class IOUtils {
 		return -1;
 	}
 		
+	/**
+	 * Writes the content of the given Blob to an OutputStream,
+	 * swallowing exceptions caused by a ClientAbortException.
+	 *  
+	 * @see Blob#writeTo(OutputStream)
+	 */
+	public static void serve(Blob blob, OutputStream out) throws IOException {
+		try {
+			blob.writeTo(out);
+			out.flush();
+		}
+		catch (SocketException e) {
+		}
+		catch (IOException e) {
+			if (!SocketException.class.isInstance(e.getCause())) {
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Writes a slice of the given Blob to an OutputStream,
+	 * swallowing exceptions caused by a ClientAbortException.
+	 *  
+	 * @see Blob#writeTo(OutputStream, int, int)
+	 */
+	public static void serve(Blob blob, OutputStream out, int offset, 
+			int length) throws IOException {
+		
+		try {
+			blob.writeTo(out, offset, length);
+			out.flush();
+		}
+		catch (SocketException e) {
+		}
+		catch (IOException e) {
+			if (!SocketException.class.isInstance(e.getCause())) {
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Writes the content of the given Blob to a Writer,
+	 * swallowing exceptions caused by a ClientAbortException.
+	 *  
+	 * @see Blob#writeTo(Writer, String)
+	 */
+	public static void serve(Blob blob, Writer out, String encoding) 
+			throws IOException {
+		
+		try {
+			blob.writeTo(out, encoding);
+			out.flush();
+		}
+		catch (SocketException e) {
+		}
+		catch (IOException e) {
+			if (!SocketException.class.isInstance(e.getCause())) {
+				throw e;
+			}
+		}
+	}
+		
 	public static void closeStream(InputStream in) {
 		if (in != null) {
 			try {
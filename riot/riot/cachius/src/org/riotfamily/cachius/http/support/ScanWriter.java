@@ -18,12 +18,19 @@ import java.util.Collection;
 import java.util.LinkedList;
 
 /**
- * Writer that scans the output for expressions. 
+ * Writer that scans the output for expressions. The positions of the 
+ * {@link Block blocks} are byte offsets into the UTF-8 encoded output, so 
+ * the writer must only be used on top of a UTF-8 encoding Writer. The start
+ * marker and end character must be ASCII characters.
  */
 public class ScanWriter extends Writer {
 
+	/** Byte offset of the current character in the UTF-8 encoded output */
 	private int index;
 	
+	/** Whether the previous character was a high surrogate */
+	private boolean highSurrogate;
+	
 	private char[] startPattern;
 	
 	private char endChar;
@@ -92,10 +99,35 @@ public class ScanWriter extends Writer {
 					p = 0;
 				}
 			}
-			index++;
+			index += getEncodedLength(c);
 		}
 		out.write(cbuf, off, len);
 	}
+	
+	/**
+	 * Returns the number of bytes the UTF-8 encoder emits for the given 
+	 * character. Surrogate pairs take four bytes, which are attributed with 
+	 * one to the high and three to the low surrogate. Unpaired surrogates 
+	 * are replaced by a single '?'.
+	 */
+	private int getEncodedLength(char c) {
+		boolean afterHighSurrogate = highSurrogate;
+		highSurrogate = false;
+		if (c < 0x80) {
+			return 1;
+		}
+		if (c < 0x800) {
+			return 2;
+		}
+		if (Character.isHighSurrogate(c)) {
+			highSurrogate = true;
+			return 1;
+		}
+		if (Character.isLowSurrogate(c)) {
+			return afterHighSurrogate ? 3 : 1;
+		}
+		return 3;
+	}
 
 	public static class Block {
     	
@@ -0,0 +1,266 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ItemInvalidator that publishes invalidated tags to the other nodes of a
+ * cluster, using a pluggable {@link InvalidationTransport}.
+ * <p>
+ * Tags are invalidated locally right away (or upon {@link #commit()} if the
+ * invalidation has been {@link #defer() deferred}) and are then collected 
+ * for the duration of the {@link #setBatchDelay(long) batch delay}. During 
+ * that window each tag is sent only once, no matter how often it is 
+ * invalidated. A batch is sent early when it reaches the 
+ * {@link #setMaxBatchSize(int) maximum size}.
+ * <p>
+ * Tags received from other nodes are invalidated in all indexes that have 
+ * been {@link #register(ItemIndex) registered}. This happens automatically 
+ * when the invalidator is passed to 
+ * {@link org.riotfamily.cachius.CacheService#setInvalidator(ItemInvalidator)}.
+ * Received tags are not published again.
+ */
+public class ClusterItemInvalidator extends DeferredItemInvalidator 
+		implements InvalidationTransport.Receiver {
+
+	private Logger log = LoggerFactory.getLogger(ClusterItemInvalidator.class);
+	
+	private InvalidationTransport transport;
+	
+	private String nodeId = UUID.randomUUID().toString();
+	
+	private long batchDelay = 100;
+	
+	private int maxBatchSize = 500;
+	
+	private CopyOnWriteArrayList<ItemIndex> indexes = 
+			new CopyOnWriteArrayList<ItemIndex>();
+	
+	private Set<String> pendingTags = new HashSet<String>();
+	
+	private boolean flushScheduled;
+	
+	private ScheduledThreadPoolExecutor executor;
+	
+	private AtomicLong publishedMessages = new AtomicLong();
+	
+	private AtomicLong publishedTags = new AtomicLong();
+	
+	private AtomicLong suppressedTags = new AtomicLong();
+	
+	private AtomicLong receivedMessages = new AtomicLong();
+	
+	private AtomicLong receivedTags = new AtomicLong();
+	
+	private AtomicLong failedMessages = new AtomicLong();
+	
+	public ClusterItemInvalidator(InvalidationTransport transport) 
+			throws IOException {
+		
+		this.transport = transport;
+		this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "cachius-invalidation");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Delayed flushes are dropped by destroy(), which flushes right away
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		transport.connect(this);
+	}
+	
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Sets the ID that identifies this node. Messages with the same ID are
+	 * ignored. Defaults to a random UUID.
+	 */
+	public void setNodeId(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * Sets the number of milliseconds during which tags are collected 
+	 * before they are published. Default is <code>100</code>. 
+	 */
+	public void setBatchDelay(long batchDelay) {
+		this.batchDelay = batchDelay;
+	}
+
+	/**
+	 * Sets the maximum number of tags per message. Default is 
+	 * <code>500</code>.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Registers an index in which tags received from other nodes are 
+	 * invalidated.
+	 */
+	public void register(ItemIndex index) {
+		indexes.addIfAbsent(index);
+	}
+	
+	@Override
+	protected void doInvalidate(ItemIndex index, String tag) {
+		super.doInvalidate(index, tag);
+		boolean flushNow = false;
+		synchronized (pendingTags) {
+			if (!pendingTags.add(tag)) {
+				suppressedTags.incrementAndGet();
+				return;
+			}
+			if (pendingTags.size() >= maxBatchSize) {
+				flushNow = true;
+			}
+			else if (!flushScheduled) {
+				flushScheduled = true;
+				schedule(batchDelay);
+			}
+		}
+		if (flushNow) {
+			schedule(0);
+		}
+	}
+	
+	private void schedule(long delay) {
+		try {
+			executor.schedule(new Runnable() {
+				public void run() {
+					flush();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		catch (RuntimeException e) {
+			// Rejected after destroy() has been called
+			log.warn("Failed to schedule invalidation message", e);
+		}
+	}
+	
+	/**
+	 * Publishes all pending tags immediately.
+	 */
+	public void flush() {
+		Set<String> tags;
+		synchronized (pendingTags) {
+			if (pendingTags.isEmpty()) {
+				flushScheduled = false;
+				return;
+			}
+			tags = new HashSet<String>(pendingTags);
+			pendingTags.clear();
+			flushScheduled = false;
+		}
+		Iterator<String> it = tags.iterator();
+		while (it.hasNext()) {
+			Set<String> batch = new HashSet<String>();
+			while (it.hasNext() && batch.size() < maxBatchSize) {
+				batch.add(it.next());
+			}
+			publish(batch);
+		}
+	}
+	
+	private void publish(Set<String> tags) {
+		try {
+			log.debug("Publishing {} invalidated tags", tags.size());
+			transport.publish(nodeId, tags);
+			publishedMessages.incrementAndGet();
+			publishedTags.addAndGet(tags.size());
+		}
+		catch (IOException e) {
+			failedMessages.incrementAndGet();
+			log.error("Failed to publish invalidated tags " + tags, e);
+		}
+	}
+	
+	public void tagsInvalidated(String senderId, Set<String> tags) {
+		if (nodeId.equals(senderId)) {
+			return;
+		}
+		log.debug("Received {} invalidated tags from {}", tags.size(), senderId);
+		receivedMessages.incrementAndGet();
+		receivedTags.addAndGet(tags.size());
+		for (ItemIndex index : indexes) {
+			for (String tag : tags) {
+				index.invalidate(tag);
+			}
+		}
+	}
+	
+	public long getPublishedMessages() {
+		return publishedMessages.get();
+	}
+
+	public long getPublishedTags() {
+		return publishedTags.get();
+	}
+
+	/**
+	 * Returns the number of invalidations that were not published because
+	 * the tag was already pending.
+	 */
+	public long getSuppressedTags() {
+		return suppressedTags.get();
+	}
+
+	public long getReceivedMessages() {
+		return receivedMessages.get();
+	}
+
+	public long getReceivedTags() {
+		return receivedTags.get();
+	}
+
+	public long getFailedMessages() {
+		return failedMessages.get();
+	}
+
+	/**
+	 * Publishes pending tags and closes the transport. Scheduled flushes are
+	 * cancelled, but a running flush is awaited, so that the transport isn't
+	 * closed while a message is being sent.
+	 */
+	public void destroy() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(5000, TimeUnit.MILLISECONDS)) {
+				log.warn("Timed out waiting for invalidation messages to be sent");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		transport.close();
+	}
+
+}
@@ -16,6 +16,11 @@ import java.util.HashSet;
 import java.util.Set;
 
 
+/**
+ * ItemInvalidator that allows to collect the invalidations performed by the
+ * current thread and apply them when the outermost {@link #commit()} is 
+ * reached. Each tag is invalidated only once per commit.
+ */
 public class DeferredItemInvalidator implements ItemInvalidator {
 
 	private ThreadLocal<Invalidations> localInvalidations = new ThreadLocal<Invalidations>();
@@ -43,14 +48,23 @@ public class DeferredItemInvalidator implements ItemInvalidator {
 	public void invalidate(ItemIndex index, String tag) {
 		Invalidations invalidations = (Invalidations) localInvalidations.get();
 		if (invalidations == null) {
-			index.invalidate(tag);
+			doInvalidate(index, tag);
 		}
 		else {
 			invalidations.add(index, tag);
 		}
 	}
 
-	private static class Invalidations {
+	/**
+	 * Invalidates the given tag. Invoked immediately if no invalidations are 
+	 * deferred, or upon commit otherwise. Subclasses may override this 
+	 * method to propagate the invalidation.
+	 */
+	protected void doInvalidate(ItemIndex index, String tag) {
+		index.invalidate(tag);
+	}
+
+	private class Invalidations {
 
 		private Set<String> tags = new HashSet<String>();
 
@@ -65,7 +79,7 @@ public class DeferredItemInvalidator implements ItemInvalidator {
 
 		void commit() {
 			for (String tag : tags) {
-				index.invalidate(tag);				
+				doInvalidate(index, tag);
 			}
 		}
 
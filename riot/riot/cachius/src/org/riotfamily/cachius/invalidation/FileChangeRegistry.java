@@ -0,0 +1,251 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.riotfamily.cachius.CacheItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry that keeps track of the files involved in the creation of cached 
+ * items. Instead of checking each file upon every cache hit, all registered 
+ * files are polled by a single background thread. When a modification is 
+ * detected, all items depending on the file are 
+ * {@link CacheItem#markFilesModified() marked} as modified, so that a hit 
+ * only has to check a flag.
+ * <p>
+ * Modifications are detected with a delay of up to one 
+ * {@link #setPollInterval(long) poll interval}. Files that are not known 
+ * to the registry yet are checked immediately when an item is registered.
+ * <p>
+ * The files are polled, as the WatchService is not available at the
+ * project's Java 6 source level.
+ * <p>
+ * Items are registered and unregistered by the {@link ItemIndex}.
+ */
+public class FileChangeRegistry {
+
+	private Logger log = LoggerFactory.getLogger(FileChangeRegistry.class);
+	
+	private ConcurrentHashMap<File, WatchedFile> files = 
+			new ConcurrentHashMap<File, WatchedFile>();
+	
+	private boolean enabled = true;
+	
+	private long pollInterval = 1000;
+	
+	private ItemIndex index;
+	
+	private Thread pollerThread;
+	
+	private volatile boolean running;
+	
+	private AtomicLong changeCount = new AtomicLong();
+	
+	private volatile long lastPollTime;
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets whether the registry should be used. If disabled, items check 
+	 * their files themselves upon each hit. Default is <code>true</code>.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Sets the number of milliseconds between two polls. 
+	 * Default is <code>1000</code>.
+	 */
+	public void setPollInterval(long pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+	
+	void setIndex(ItemIndex index) {
+		this.index = index;
+	}
+	
+	/**
+	 * Registers the files involved in the creation of the given item.
+	 */
+	public void register(CacheItem item) {
+		Set<File> itemFiles = item.getInvolvedFiles();
+		if (!enabled || itemFiles == null) {
+			return;
+		}
+		start();
+		boolean modified = false;
+		for (File file : itemFiles) {
+			WatchedFile watched = add(file, item);
+			if (watched.lastModified > item.getLastModified()) {
+				modified = true;
+			}
+		}
+		item.setFilesWatched(true);
+		if (modified) {
+			filesModified(item);
+		}
+	}
+	
+	private WatchedFile add(File file, CacheItem item) {
+		WatchedFile watched;
+		do {
+			watched = files.get(file);
+			if (watched == null) {
+				WatchedFile newFile = new WatchedFile(file);
+				watched = files.putIfAbsent(file, newFile);
+				if (watched == null) {
+					watched = newFile;
+				}
+			}
+			watched.items.add(item);
+		}
+		// Retry if the file was removed by the poller
+		while (files.get(file) != watched);
+		return watched;
+	}
+	
+	public void unregister(CacheItem item) {
+		Set<File> itemFiles = item.getInvolvedFiles();
+		if (itemFiles != null) {
+			for (File file : itemFiles) {
+				WatchedFile watched = files.get(file);
+				if (watched != null) {
+					watched.items.remove(item);
+				}
+			}
+		}
+	}
+	
+	private void filesModified(CacheItem item) {
+		if (!item.isFilesModified()) {
+			item.markFilesModified();
+			if (index != null) {
+				index.filesModified(item);
+			}
+		}
+	}
+	
+	/**
+	 * Checks all registered files and marks the items depending on modified 
+	 * files. Files that are no longer used by any item are removed. 
+	 */
+	void poll() {
+		long start = System.currentTimeMillis();
+		for (Map.Entry<File, WatchedFile> entry : files.entrySet()) {
+			WatchedFile watched = entry.getValue();
+			if (watched.items.isEmpty()) {
+				if (files.remove(entry.getKey(), watched)) {
+					// Move items that have been added concurrently
+					for (CacheItem item : watched.items) {
+						add(entry.getKey(), item);
+					}
+				}
+				continue;
+			}
+			long lastModified = entry.getKey().lastModified();
+			if (lastModified != watched.lastModified) {
+				log.debug("File modified: {}", entry.getKey());
+				watched.lastModified = lastModified;
+				changeCount.incrementAndGet();
+				for (CacheItem item : watched.items) {
+					filesModified(item);
+				}
+			}
+		}
+		lastPollTime = System.currentTimeMillis() - start;
+	}
+	
+	private synchronized void start() {
+		if (pollerThread == null) {
+			running = true;
+			pollerThread = new Thread("cachius-file-poller") {
+				@Override
+				public void run() {
+					while (running) {
+						try {
+							Thread.sleep(pollInterval);
+							poll();
+						}
+						catch (InterruptedException e) {
+							break;
+						}
+						catch (RuntimeException e) {
+							log.error("Failed to check files", e);
+						}
+					}
+				}
+			};
+			pollerThread.setDaemon(true);
+			pollerThread.start();
+		}
+	}
+	
+	/**
+	 * Returns the number of files that are currently watched.
+	 */
+	public int getFileCount() {
+		return files.size();
+	}
+	
+	/**
+	 * Returns the number of modifications detected so far.
+	 */
+	public long getChangeCount() {
+		return changeCount.get();
+	}
+	
+	/**
+	 * Returns the duration of the last poll in milliseconds.
+	 */
+	public long getLastPollTime() {
+		return lastPollTime;
+	}
+
+	public synchronized void destroy() {
+		running = false;
+		if (pollerThread != null) {
+			pollerThread.interrupt();
+			pollerThread = null;
+		}
+	}
+	
+	private static class WatchedFile {
+		
+		/** Last modification time as seen by the poller */
+		private volatile long lastModified;
+		
+		/** 
+		 * Items depending on the file. As CacheItem doesn't override 
+		 * equals(), the set effectively compares them by identity, just 
+		 * like the item sets of the ItemIndex.
+		 */
+		private Set<CacheItem> items = Collections.newSetFromMap(
+				new ConcurrentHashMap<CacheItem, Boolean>(4, 0.75f, 4));
+
+		public WatchedFile(File file) {
+			this.lastModified = file.lastModified();
+		}
+	}
+	
+}
@@ -0,0 +1,33 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import org.riotfamily.cachius.CacheItem;
+
+/**
+ * Callback interface that is notified whenever the {@link ItemIndex}
+ * invalidates an item or a tag.
+ */
+public interface InvalidationListener {
+
+	public void itemInvalidated(CacheItem item);
+	
+	/**
+	 * Invoked when a tag is invalidated while 
+	 * {@link ItemIndex#setLazyInvalidation(boolean) lazy invalidation}
+	 * is enabled. The items carrying the tag are not notified individually
+	 * until they are {@link ItemIndex#checkInvalidation(CacheItem) checked}.
+	 */
+	public void tagInvalidated(String tag);
+	
+}
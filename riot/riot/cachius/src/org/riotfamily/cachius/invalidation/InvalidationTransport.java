@@ -0,0 +1,43 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Transport used by the {@link ClusterItemInvalidator} to exchange 
+ * invalidated tags with other nodes.
+ */
+public interface InvalidationTransport {
+
+	/**
+	 * Starts to receive messages from other nodes. 
+	 */
+	public void connect(Receiver receiver) throws IOException;
+	
+	/**
+	 * Sends the given tags to all other nodes. Implementations may deliver
+	 * the message to the sender, too.
+	 */
+	public void publish(String nodeId, Set<String> tags) throws IOException;
+	
+	public void close();
+	
+	public interface Receiver {
+		
+		public void tagsInvalidated(String nodeId, Set<String> tags);
+		
+	}
+	
+}
@@ -1,49 +1,181 @@
 package org.riotfamily.cachius.invalidation;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.riotfamily.cachius.CacheItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Index that maps tags to the items carrying them. Each tag is associated 
+ * with a concurrent identity set, so that items can be added and removed in
+ * constant time without locking a whole tag. 
+ * <p>
+ * By default, invalidating a tag eagerly marks all items carrying it as 
+ * invalidated. The iteration uses a weakly consistent view of the set: items
+ * added concurrently may or may not be invalidated, which is no different 
+ * from being added a moment later.
+ * <p>
+ * With {@link #setLazyInvalidation(boolean) lazy invalidation} enabled,
+ * invalidating a tag merely stores a new generation number for the tag, 
+ * regardless of how many items carry it. Items record the generation that 
+ * was current when their capture began, and are checked by 
+ * {@link #checkInvalidation(CacheItem)} whenever they are requested.
+ * <p>
+ * The generations are kept apart from the item sets, as an invalidation 
+ * must outlive the items carrying the tag: an item that is being captured
+ * might be tagged with it, even if all other items have been removed.
+ * Captures are therefore registered by {@link #beginCapture()} and 
+ * {@link #endCapture(CacheItem)}, and a generation is only discarded once no
+ * item carries the tag and no capture that began before the invalidation
+ * is still running.
+ */
 public class ItemIndex {
 
 	private Logger log = LoggerFactory.getLogger(ItemIndex.class);
 	
-	private ConcurrentHashMap<String, List<CacheItem>> taggedItems =
-			new ConcurrentHashMap<String, List<CacheItem>>();
+	private ConcurrentHashMap<String, Tag> tags = 
+			new ConcurrentHashMap<String, Tag>();
+	
+	private InvalidationListener listener;
+	
+	private boolean lazyInvalidation;
+	
+	private FileChangeRegistry fileRegistry;
+	
+	/** Source of generation numbers, shared by all tags */
+	private AtomicLong generation = new AtomicLong();
+	
+	/** Generation of the last invalidation of each tag */
+	private ConcurrentHashMap<String, Long> generations = 
+			new ConcurrentHashMap<String, Long>();
+	
+	/** Number of running captures by the generation they began with */
+	private TreeMap<Long, Integer> captures = new TreeMap<Long, Integer>();
+	
+	/** Number of invalidations after which stale generations are pruned */
+	private static final int PRUNE_INTERVAL = 1024;
+	
+	/**
+	 * Sets a listener that is notified about each invalidated item.
+	 */
+	public void setListener(InvalidationListener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Sets a registry that watches the files involved in the creation of
+	 * the indexed items.
+	 */
+	public void setFileRegistry(FileChangeRegistry fileRegistry) {
+		this.fileRegistry = fileRegistry;
+		fileRegistry.setIndex(this);
+	}
+	
+	public boolean isLazyInvalidation() {
+		return lazyInvalidation;
+	}
+
+	/**
+	 * Sets whether invalidation should be performed lazily. Default is 
+	 * <code>false</code>. 
+	 */
+	public void setLazyInvalidation(boolean lazyInvalidation) {
+		this.lazyInvalidation = lazyInvalidation;
+	}
+	
+	/**
+	 * Returns the current generation.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+	
+	/**
+	 * Registers a capture and returns the current generation, which must be
+	 * recorded in the new item <em>before</em> its capture begins, so that 
+	 * invalidations that happen during the capture are not lost. Each call
+	 * must be followed by {@link #endCapture(CacheItem)} once the item has 
+	 * been added to the index or discarded.
+	 */
+	public long beginCapture() {
+		synchronized (captures) {
+			long gen = generation.get();
+			Integer count = captures.get(gen);
+			captures.put(gen, count != null ? count + 1 : 1);
+			return gen;
+		}
+	}
+	
+	/**
+	 * Unregisters a capture started by {@link #beginCapture()}.
+	 */
+	public void endCapture(CacheItem item) {
+		synchronized (captures) {
+			long gen = item.getGeneration();
+			Integer count = captures.get(gen);
+			if (count == null || count == 1) {
+				captures.remove(gen);
+			}
+			else {
+				captures.put(gen, count - 1);
+			}
+		}
+	}
 	
 	public void add(CacheItem item) {
-		Set<String> tags = item.getTags();
-		if (tags != null) {
-			for (String tag : tags) {
+		if (fileRegistry != null) {
+			fileRegistry.register(item);
+		}
+		Set<String> itemTags = item.getTags();
+		if (itemTags != null) {
+			for (String tag : itemTags) {
 				log.debug("Tagging item with {}", tag);
-				List<CacheItem> items = taggedItems.get(tag);
-				if (items == null) {
-					List<CacheItem> newItems = new ArrayList<CacheItem>();
-					List<CacheItem> oldItems = taggedItems.putIfAbsent(tag, newItems);
-					items = oldItems != null ? oldItems : newItems;
-				}
-				synchronized (items) {
-					items.add(item);
-				}
+				add(tag, item);
 			}
 		}
 	}
 	
+	private void add(String tag, CacheItem item) {
+		Tag t;
+		do {
+			t = getOrCreateTag(tag);
+			t.items.add(item);
+		}
+		// Retry if the tag was removed by a concurrent remove() call
+		while (tags.get(tag) != t);
+	}
+	
+	private Tag getOrCreateTag(String tag) {
+		Tag t = tags.get(tag);
+		if (t == null) {
+			Tag newTag = new Tag();
+			Tag oldTag = tags.putIfAbsent(tag, newTag);
+			t = oldTag != null ? oldTag : newTag;
+		}
+		return t;
+	}
+	
 	public void remove(CacheItem item) {
-		Set<String> tags = item.getTags();
-		if (tags != null) {
-			for (String tag : tags) {
-				List<CacheItem> items = taggedItems.get(tag);
-				if (items != null) {
-					synchronized (items) {
-						items.remove(item);
-						if (items.isEmpty()) {
-							taggedItems.remove(tag);
+		if (fileRegistry != null) {
+			fileRegistry.unregister(item);
+		}
+		Set<String> itemTags = item.getTags();
+		if (itemTags != null) {
+			for (String tag : itemTags) {
+				Tag t = tags.get(tag);
+				if (t != null) {
+					t.items.remove(item);
+					if (t.items.isEmpty() && tags.remove(tag, t)) {
+						// Move items that have been added concurrently 
+						// after the isEmpty() check
+						for (CacheItem added : t.items) {
+							add(tag, added);
 						}
 					}
 				}
@@ -54,15 +186,118 @@ public class ItemIndex {
 	public void invalidate(String tag) {
 		if (tag != null) {
 			log.debug("Invalidating items tagged with {}", tag);
-			List<CacheItem> items = taggedItems.get(tag);
-			if (items != null) {
-				synchronized (items) {
-					for (CacheItem item : items) {
-						item.invalidate();
+			if (lazyInvalidation) {
+				// Record the generation even if no item carries the tag yet, 
+				// as it might be used by an item that is currently captured
+				long gen = generation.incrementAndGet();
+				raiseGeneration(tag, gen);
+				if (gen % PRUNE_INTERVAL == 0) {
+					pruneGenerations();
+				}
+				if (listener != null) {
+					listener.tagInvalidated(tag);
+				}
+			}
+			else {
+				Tag t = tags.get(tag);
+				if (t != null) {
+					for (CacheItem item : t.items) {
+						invalidate(item);
+					}
+				}
+			}
+		}
+	}
+	
+	private void raiseGeneration(String tag, long gen) {
+		Long current = generations.putIfAbsent(tag, gen);
+		while (current != null && current < gen 
+				&& !generations.replace(tag, current, gen)) {
+			
+			current = generations.putIfAbsent(tag, gen);
+		}
+	}
+	
+	/**
+	 * Discards the generations of tags that are no longer needed, i.e. tags
+	 * that are not carried by any item and have been invalidated before the 
+	 * oldest running capture began. Without pruning, tags that are 
+	 * invalidated but never used (like those of deleted entities) would 
+	 * accumulate. Invoked automatically every {@value #PRUNE_INTERVAL} 
+	 * invalidations.
+	 */
+	public void pruneGenerations() {
+		long oldest;
+		synchronized (captures) {
+			oldest = captures.isEmpty() ? generation.get() : captures.firstKey();
+		}
+		for (Map.Entry<String, Long> entry : generations.entrySet()) {
+			if (entry.getValue() <= oldest && !tags.containsKey(entry.getKey())) {
+				generations.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of tags for which an invalidation is recorded.
+	 */
+	public int getGenerationCount() {
+		return generations.size();
+	}
+	
+	private void invalidate(CacheItem item) {
+		item.invalidate();
+		if (listener != null) {
+			listener.itemInvalidated(item);
+		}
+	}
+	
+	/**
+	 * Invoked by the {@link FileChangeRegistry} when a file involved in the
+	 * creation of the given item has been modified.
+	 */
+	void filesModified(CacheItem item) {
+		if (listener != null) {
+			listener.itemInvalidated(item);
+		}
+	}
+	
+	/**
+	 * Marks the given item as invalidated if one of its tags has been 
+	 * invalidated after the item's capture began. Does nothing unless
+	 * lazy invalidation is enabled.
+	 */
+	public void checkInvalidation(CacheItem item) {
+		if (lazyInvalidation && !item.isInvalidated()) {
+			Set<String> itemTags = item.getTags();
+			if (itemTags != null) {
+				for (String tag : itemTags) {
+					Long gen = generations.get(tag);
+					if (gen != null && gen > item.getGeneration()) {
+						invalidate(item);
+						return;
 					}
 				}
 			}
 		}
 	}
+	
+	/**
+	 * Returns the number of items carrying the given tag.
+	 */
+	public int getItemCount(String tag) {
+		Tag t = tags.get(tag);
+		return t != null ? t.items.size() : 0;
+	}
+	
+	private static class Tag {
+		
+		/** 
+		 * Items carrying the tag. CacheItem doesn't override equals(), 
+		 * so this is an identity set.
+		 */
+		private Set<CacheItem> items = Collections.newSetFromMap(
+				new ConcurrentHashMap<CacheItem, Boolean>(4, 0.75f, 4));
+	}
 
 }
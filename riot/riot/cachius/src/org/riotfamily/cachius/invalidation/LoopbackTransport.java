@@ -0,0 +1,75 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process transport that delivers messages synchronously to all other 
+ * members of its group. Intended for tests with several CacheServices 
+ * in one JVM.
+ */
+public class LoopbackTransport implements InvalidationTransport {
+
+	private List<LoopbackTransport> group;
+	
+	private volatile Receiver receiver;
+	
+	private AtomicInteger messageCount = new AtomicInteger();
+	
+	/**
+	 * Creates a transport that forms a new group. 
+	 */
+	public LoopbackTransport() {
+		this.group = new CopyOnWriteArrayList<LoopbackTransport>();
+	}
+	
+	/**
+	 * Creates a transport that joins the group of the given peer.
+	 */
+	public LoopbackTransport(LoopbackTransport peer) {
+		this.group = peer.group;
+	}
+	
+	public void connect(Receiver receiver) {
+		this.receiver = receiver;
+		group.add(this);
+	}
+
+	public void publish(String nodeId, Set<String> tags) {
+		messageCount.incrementAndGet();
+		Set<String> copy = Collections.unmodifiableSet(new HashSet<String>(tags));
+		for (LoopbackTransport member : group) {
+			if (member != this) {
+				member.receiver.tagsInvalidated(nodeId, copy);
+			}
+		}
+	}
+
+	public void close() {
+		group.remove(this);
+	}
+	
+	/**
+	 * Returns the number of messages published by this transport.
+	 */
+	public int getMessageCount() {
+		return messageCount.get();
+	}
+
+}
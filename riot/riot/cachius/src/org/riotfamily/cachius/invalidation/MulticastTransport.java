@@ -0,0 +1,167 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport that sends invalidated tags via UDP multicast. Tags that don't
+ * fit into a single datagram are split into several messages.
+ * <p>
+ * Note that UDP does not guarantee delivery. Nodes that miss a message will
+ * serve stale content until the affected items expire.
+ */
+public class MulticastTransport implements InvalidationTransport {
+
+	private static final int MAGIC = 0xCAC410;
+	
+	private static final int MAX_PACKET_SIZE = 60 * 1024;
+	
+	private Logger log = LoggerFactory.getLogger(MulticastTransport.class);
+	
+	private String group = "230.0.0.1";
+	
+	private int port = 45588;
+	
+	private int timeToLive = 1;
+	
+	private InetAddress address;
+	
+	private MulticastSocket socket;
+	
+	private Thread receiverThread;
+	
+	public void setGroup(String group) {
+		this.group = group;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public void setTimeToLive(int timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	public void connect(final Receiver receiver) throws IOException {
+		address = InetAddress.getByName(group);
+		socket = new MulticastSocket(port);
+		socket.setTimeToLive(timeToLive);
+		socket.joinGroup(address);
+		receiverThread = new Thread("cachius-multicast") {
+			@Override
+			public void run() {
+				receive(receiver);
+			}
+		};
+		receiverThread.setDaemon(true);
+		receiverThread.start();
+	}
+	
+	private void receive(Receiver receiver) {
+		byte[] buffer = new byte[MAX_PACKET_SIZE];
+		while (!socket.isClosed()) {
+			try {
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				socket.receive(packet);
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+						packet.getData(), packet.getOffset(), packet.getLength()));
+				
+				if (in.readInt() != MAGIC) {
+					continue;
+				}
+				String nodeId = in.readUTF();
+				int count = in.readInt();
+				// Each tag takes at least two bytes for its length
+				if (count < 0 || count > in.available() / 2) {
+					log.warn("Ignoring invalidation message with an invalid "
+							+ "tag count: {}", count);
+					
+					continue;
+				}
+				Set<String> tags = new HashSet<String>(count);
+				for (int i = 0; i < count; i++) {
+					tags.add(in.readUTF());
+				}
+				receiver.tagsInvalidated(nodeId, tags);
+			}
+			catch (SocketException e) {
+				// Socket has been closed
+			}
+			catch (IOException e) {
+				log.warn("Failed to read invalidation message", e);
+			}
+			catch (Throwable e) {
+				log.error("Failed to process invalidation message", e);
+			}
+		}
+	}
+
+	public void publish(String nodeId, Set<String> tags) throws IOException {
+		Set<String> batch = new HashSet<String>();
+		int size = 0;
+		for (String tag : tags) {
+			// Upper bound of the modified UTF-8 length
+			int tagSize = 2 + tag.length() * 3;
+			if (!batch.isEmpty() && size + tagSize > MAX_PACKET_SIZE - 1024) {
+				send(nodeId, batch);
+				batch.clear();
+				size = 0;
+			}
+			batch.add(tag);
+			size += tagSize;
+		}
+		if (!batch.isEmpty()) {
+			send(nodeId, batch);
+		}
+	}
+	
+	private void send(String nodeId, Set<String> tags) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+		out.writeInt(MAGIC);
+		out.writeUTF(nodeId);
+		out.writeInt(tags.size());
+		for (String tag : tags) {
+			out.writeUTF(tag);
+		}
+		out.flush();
+		byte[] data = buffer.toByteArray();
+		socket.send(new DatagramPacket(data, data.length, address, port));
+	}
+
+	public void close() {
+		if (socket != null) {
+			try {
+				socket.leaveGroup(address);
+			}
+			catch (IOException e) {
+			}
+			socket.close();
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.Writer;
+
+/**
+ * Chunk of captured bytes. Depending on its size a blob either lives in a
+ * file provided by a {@link DiskStore} or in the off-heap memory of a
+ * {@link MemoryStore}.
+ *
+ * @see BlobOutputStream
+ */
+public interface Blob extends Deleteable, Serializable {
+
+	/**
+	 * Returns the number of bytes.
+	 */
+	public int getLength();
+
+	public InputStream getInputStream() throws IOException;
+
+	/**
+	 * Writes all bytes to the given OutputStream.
+	 */
+	public void writeTo(OutputStream out) throws IOException;
+	
+	/**
+	 * Writes <code>length</code> bytes, starting at the given offset, to 
+	 * the given OutputStream.
+	 */
+	public void writeTo(OutputStream out, int offset, int length) 
+			throws IOException;
+
+	/**
+	 * Decodes the bytes using the given encoding and writes the resulting
+	 * characters to the given Writer.
+	 */
+	public void writeTo(Writer out, String encoding) throws IOException;
+
+}
@@ -0,0 +1,173 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream that creates a {@link Blob}. Data is buffered on the heap
+ * until the threshold is exceeded, after which it spills to a file provided
+ * by the DiskStore. If the data fits within the threshold,
+ * {@link #toBlob()} moves it into the MemoryStore, or into a file if the
+ * store is full.
+ */
+public class BlobOutputStream extends OutputStream {
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private DiskStore diskStore;
+
+	private MemoryStore memoryStore;
+
+	private int threshold;
+
+	private byte[] buffer;
+
+	private int count;
+
+	private File file;
+
+	private OutputStream out;
+
+	/**
+	 * Creates a BlobOutputStream that writes directly into a file.
+	 */
+	public BlobOutputStream(DiskStore diskStore) {
+		this(diskStore, null, 0);
+	}
+
+	public BlobOutputStream(DiskStore diskStore, MemoryStore memoryStore,
+			int threshold) {
+
+		this.diskStore = diskStore;
+		this.memoryStore = memoryStore;
+		this.threshold = memoryStore != null ? threshold : 0;
+	}
+
+	/**
+	 * Creates a BlobOutputStream for the given store. If it is a
+	 * {@link TieredStore} small blobs will be kept in memory.
+	 */
+	public static BlobOutputStream create(DiskStore diskStore) {
+		if (diskStore instanceof TieredStore) {
+			return ((TieredStore) diskStore).createOutputStream();
+		}
+		return new BlobOutputStream(diskStore);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (out == null) {
+			if (count < threshold) {
+				ensureCapacity(count + 1);
+				buffer[count++] = (byte) b;
+				return;
+			}
+			spill();
+		}
+		out.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (out == null) {
+			if (count + len <= threshold) {
+				ensureCapacity(count + len);
+				System.arraycopy(b, off, buffer, count, len);
+				count += len;
+				return;
+			}
+			spill();
+		}
+		out.write(b, off, len);
+	}
+
+	private void ensureCapacity(int size) {
+		if (buffer == null) {
+			buffer = new byte[Math.min(threshold,
+					Math.max(size, INITIAL_BUFFER_SIZE))];
+		}
+		else if (size > buffer.length) {
+			byte[] newBuffer = new byte[Math.min(threshold,
+					Math.max(size, buffer.length << 1))];
+
+			System.arraycopy(buffer, 0, newBuffer, 0, count);
+			buffer = newBuffer;
+		}
+	}
+
+	private void spill() throws IOException {
+		file = diskStore.getFile();
+		out = new BufferedOutputStream(new FileOutputStream(file));
+		if (count > 0) {
+			out.write(buffer, 0, count);
+		}
+		buffer = null;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (out != null) {
+			out.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out != null) {
+			out.close();
+		}
+	}
+
+	/**
+	 * Discards everything that has been written so far.
+	 */
+	public void reset() {
+		if (out != null) {
+			try {
+				out.close();
+			}
+			catch (IOException e) {
+			}
+			file.delete();
+			file = null;
+			out = null;
+		}
+		count = 0;
+	}
+
+	/**
+	 * Closes the stream and returns the Blob containing the written data.
+	 */
+	public Blob toBlob() throws IOException {
+		if (out == null && memoryStore != null) {
+			Blob blob = memoryStore.store(buffer != null ? buffer : new byte[0],
+					0, count);
+
+			if (blob != null) {
+				buffer = null;
+				return blob;
+			}
+		}
+		if (out == null) {
+			spill();
+		}
+		out.close();
+		return new FileBlob(file);
+	}
+
+}
@@ -0,0 +1,200 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.riotfamily.cachius.http.support.ByteBufferInputStream;
+import org.riotfamily.cachius.http.support.IOUtils;
+
+/**
+ * Blob that is stored in a file. When the target stream exposes a
+ * WritableByteChannel the file is sent using
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel) transferTo}.
+ * Otherwise files larger than {@link #MAPPING_THRESHOLD} are served from
+ * a read-only MappedByteBuffer that is shared by all requests, smaller files
+ * are copied using a regular stream.
+ */
+public class FileBlob implements Blob {
+
+	public static final int MAPPING_THRESHOLD = 64 * 1024;
+
+	private static final int MAPPED_CHUNK_SIZE = 64 * 1024;
+
+	private static ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>();
+
+	private File file;
+	
+	/** Size and modification time of the complete file */
+	private long size;
+	
+	private long lastModified;
+
+	private transient volatile MappedByteBuffer mappedBuffer;
+
+	/**
+	 * Creates a FileBlob for the given file, which must have been written 
+	 * completely.
+	 */
+	public FileBlob(File file) {
+		this.file = file;
+		this.size = file.length();
+		this.lastModified = file.lastModified();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getLength() {
+		return (int) size;
+	}
+	
+	/**
+	 * Returns whether the file still exists and has not been modified since
+	 * the blob was created. Used to validate blobs that have been restored 
+	 * after a restart, as the file might have been deleted or re-used in
+	 * the meantime.
+	 */
+	public boolean isIntact() {
+		return file.isFile() && file.length() == size 
+				&& file.lastModified() == lastModified;
+	}
+
+	/**
+	 * Returns an InputStream that reads from the shared MappedByteBuffer if 
+	 * the file is larger than the {@link #MAPPING_THRESHOLD}, or from a 
+	 * regular FileInputStream otherwise.
+	 */
+	public InputStream getInputStream() throws IOException {
+		if (size >= MAPPING_THRESHOLD) {
+			return new ByteBufferInputStream(getMappedBuffer().duplicate());
+		}
+		return new BufferedInputStream(new FileInputStream(file));
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		WritableByteChannel channel = IOUtils.getChannel(out);
+		if (channel != null) {
+			transferTo(channel);
+		}
+		else if (size >= MAPPING_THRESHOLD) {
+			writeMappedTo(out);
+		}
+		else {
+			copyTo(out);
+		}
+	}
+
+	/**
+	 * Writes a slice of the file, using the same strategies as 
+	 * {@link #writeTo(OutputStream)}.
+	 */
+	public void writeTo(OutputStream out, int offset, int length) 
+			throws IOException {
+		
+		WritableByteChannel channel = IOUtils.getChannel(out);
+		if (channel != null) {
+			IOUtils.transfer(file, channel, offset, length);
+		}
+		else if (size >= MAPPING_THRESHOLD) {
+			ByteBuffer buffer = getMappedBuffer().duplicate();
+			buffer.position(offset).limit(offset + length);
+			writeMappedTo(buffer, out);
+		}
+		else {
+			InputStream in = new FileInputStream(file);
+			try {
+				IOUtils.skip(in, offset);
+				IOUtils.copy(in, out, length);
+			}
+			finally {
+				IOUtils.closeStream(in);
+			}
+		}
+	}
+
+	/**
+	 * Copies the file using a regular FileInputStream.
+	 */
+	public void copyTo(OutputStream out) throws IOException {
+		IOUtils.copy(file, out);
+	}
+
+	/**
+	 * Sends the file using FileChannel.transferTo().
+	 */
+	public void transferTo(WritableByteChannel channel) throws IOException {
+		IOUtils.transfer(file, channel);
+	}
+
+	/**
+	 * Copies the file from the shared MappedByteBuffer into the given stream.
+	 * No file handle is opened, except for the first time.
+	 */
+	public void writeMappedTo(OutputStream out) throws IOException {
+		writeMappedTo(getMappedBuffer().duplicate(), out);
+	}
+	
+	private void writeMappedTo(ByteBuffer buffer, OutputStream out) 
+			throws IOException {
+		
+		byte[] bytes = scratch.get();
+		if (bytes == null) {
+			bytes = new byte[MAPPED_CHUNK_SIZE];
+			scratch.set(bytes);
+		}
+		while (buffer.hasRemaining()) {
+			int len = Math.min(bytes.length, buffer.remaining());
+			buffer.get(bytes, 0, len);
+			out.write(bytes, 0, len);
+		}
+	}
+
+	private MappedByteBuffer getMappedBuffer() throws IOException {
+		MappedByteBuffer buffer = mappedBuffer;
+		if (buffer == null) {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				mappedBuffer = buffer;
+			}
+			finally {
+				raf.close();
+			}
+		}
+		return buffer;
+	}
+
+	public void writeTo(Writer out, String encoding) throws IOException {
+		IOUtils.copy(file, out, encoding);
+	}
+
+	public void delete() {
+		mappedBuffer = null;
+		file.delete();
+	}
+
+}
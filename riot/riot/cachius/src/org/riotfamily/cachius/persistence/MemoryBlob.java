@@ -0,0 +1,125 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+import org.riotfamily.cachius.http.support.ByteBufferInputStream;
+import org.riotfamily.cachius.http.support.IOUtils;
+
+/**
+ * Blob that lives in a chunk of off-heap memory provided by a
+ * {@link MemoryStore}. The chunk is not serialized, so a deserialized
+ * MemoryBlob behaves like a deleted one.
+ */
+public class MemoryBlob implements Blob {
+
+	private static ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>();
+
+	private transient MemoryStore store;
+
+	private transient volatile ByteBuffer chunk;
+
+	private int length;
+
+	MemoryBlob(MemoryStore store, ByteBuffer chunk, int length) {
+		this.store = store;
+		this.chunk = chunk;
+		this.length = length;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns a read-only view of the bytes.
+	 * @throws IOException if the blob has been deleted
+	 */
+	public ByteBuffer getBuffer() throws IOException {
+		ByteBuffer chunk = this.chunk;
+		if (chunk == null) {
+			throw new IOException("Blob has been deleted");
+		}
+		ByteBuffer buffer = chunk.asReadOnlyBuffer();
+		buffer.position(0).limit(length);
+		return buffer;
+	}
+
+	public InputStream getInputStream() throws IOException {
+		return new ByteBufferInputStream(getBuffer());
+	}
+
+	/**
+	 * Writes the buffer to the stream's channel, if available. Otherwise the
+	 * bytes are copied into a per-thread scratch array and written with a 
+	 * single call.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		ByteBuffer buffer = getBuffer();
+		WritableByteChannel channel = IOUtils.getChannel(out);
+		if (channel != null) {
+			IOUtils.write(buffer, channel);
+			return;
+		}
+		writeTo(buffer, out);
+	}
+	
+	private void writeTo(ByteBuffer buffer, OutputStream out) 
+			throws IOException {
+		
+		int len = buffer.remaining();
+		byte[] bytes = scratch.get();
+		if (bytes == null || bytes.length < len) {
+			bytes = new byte[Math.max(len, store.getMaxItemSize())];
+			scratch.set(bytes);
+		}
+		buffer.get(bytes, 0, len);
+		out.write(bytes, 0, len);
+	}
+
+	public void writeTo(OutputStream out, int offset, int length) 
+			throws IOException {
+		
+		ByteBuffer buffer = getBuffer();
+		buffer.position(offset).limit(offset + length);
+		WritableByteChannel channel = IOUtils.getChannel(out);
+		if (channel != null) {
+			IOUtils.write(buffer, channel);
+		}
+		else {
+			writeTo(buffer, out);
+		}
+	}
+
+	public void writeTo(Writer out, String encoding) throws IOException {
+		CharBuffer chars = Charset.forName(encoding).decode(getBuffer());
+		out.write(chars.array(), chars.arrayOffset() + chars.position(),
+				chars.remaining());
+	}
+
+	public synchronized void delete() {
+		if (chunk != null) {
+			store.free(chunk);
+			chunk = null;
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded off-heap arena for small blobs. Memory is reserved in slabs of
+ * direct ByteBuffers. Each slab is dedicated to one size class (powers of two
+ * between 256 bytes and the configured maximum item size) and is cut into
+ * chunks of that size. Freed chunks are recycled within their size class,
+ * slabs are never released.
+ */
+public class MemoryStore {
+
+	private static final int MIN_CHUNK_SIZE = 256;
+
+	private static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+	private Logger log = LoggerFactory.getLogger(MemoryStore.class);
+
+	private long capacity;
+
+	private int maxItemSize;
+
+	private int slabSize;
+
+	private SizeClass[] sizeClasses;
+
+	/** Number of bytes reserved by slabs */
+	private AtomicLong reserved = new AtomicLong();
+
+	/** Number of bytes occupied by blobs */
+	private AtomicLong used = new AtomicLong();
+
+	private AtomicInteger blobs = new AtomicInteger();
+
+	/** Number of blobs that did not fit */
+	private AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Creates a MemoryStore.
+	 * @param capacity Maximum number of bytes to allocate
+	 * @param maxItemSize Size of the largest blob that should be stored
+	 */
+	public MemoryStore(long capacity, int maxItemSize) {
+		this.capacity = capacity;
+		int chunkSize = MIN_CHUNK_SIZE;
+		int count = 1;
+		while (chunkSize < maxItemSize) {
+			chunkSize <<= 1;
+			count++;
+		}
+		this.maxItemSize = chunkSize;
+		this.slabSize = Math.max(DEFAULT_SLAB_SIZE, chunkSize);
+		this.sizeClasses = new SizeClass[count];
+		for (int i = 0; i < count; i++) {
+			sizeClasses[i] = new SizeClass(MIN_CHUNK_SIZE << i);
+		}
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the size of the largest blob that can be stored.
+	 */
+	public int getMaxItemSize() {
+		return maxItemSize;
+	}
+
+	public long getReservedBytes() {
+		return reserved.get();
+	}
+
+	public long getUsedBytes() {
+		return used.get();
+	}
+
+	public int getBlobCount() {
+		return blobs.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Copies the given bytes into a free chunk. Returns <code>null</code> if
+	 * the data is too large or the capacity is exhausted.
+	 */
+	public MemoryBlob store(byte[] data, int offset, int length) {
+		SizeClass sizeClass = getSizeClass(length);
+		if (sizeClass == null) {
+			return null;
+		}
+		ByteBuffer chunk = sizeClass.allocate();
+		if (chunk == null) {
+			rejected.incrementAndGet();
+			return null;
+		}
+		chunk.clear();
+		chunk.put(data, offset, length);
+		used.addAndGet(sizeClass.chunkSize);
+		blobs.incrementAndGet();
+		return new MemoryBlob(this, chunk, length);
+	}
+
+	void free(ByteBuffer chunk) {
+		SizeClass sizeClass = getSizeClass(chunk.capacity());
+		sizeClass.free.offer(chunk);
+		used.addAndGet(-sizeClass.chunkSize);
+		blobs.decrementAndGet();
+	}
+
+	private SizeClass getSizeClass(int length) {
+		for (SizeClass sizeClass : sizeClasses) {
+			if (length <= sizeClass.chunkSize) {
+				return sizeClass;
+			}
+		}
+		return null;
+	}
+
+	private boolean reserveSlab() {
+		long r;
+		do {
+			r = reserved.get();
+			if (r + slabSize > capacity) {
+				return false;
+			}
+		}
+		while (!reserved.compareAndSet(r, r + slabSize));
+		return true;
+	}
+
+	private class SizeClass {
+
+		private int chunkSize;
+
+		private ConcurrentLinkedQueue<ByteBuffer> free =
+				new ConcurrentLinkedQueue<ByteBuffer>();
+
+		SizeClass(int chunkSize) {
+			this.chunkSize = chunkSize;
+		}
+
+		ByteBuffer allocate() {
+			ByteBuffer chunk = free.poll();
+			while (chunk == null) {
+				if (!reserveSlab()) {
+					return null;
+				}
+				log.debug("Allocating slab for {} byte chunks", chunkSize);
+				ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+				chunk = slice(slab, 0);
+				for (int pos = chunkSize; pos < slabSize; pos += chunkSize) {
+					free.offer(slice(slab, pos));
+				}
+			}
+			return chunk;
+		}
+
+		private ByteBuffer slice(ByteBuffer slab, int pos) {
+			slab.limit(pos + chunkSize);
+			slab.position(pos);
+			return slab.slice();
+		}
+	}
+
+}
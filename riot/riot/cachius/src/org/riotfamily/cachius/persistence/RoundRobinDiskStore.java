@@ -15,7 +15,7 @@ package org.riotfamily.cachius.persistence;
 import java.io.File;
 import java.io.IOException;
 
-public class RoundRobinDiskStore implements DiskStore {
+public class RoundRobinDiskStore implements DirectoryDiskStore {
 
 	private File baseDir;
 	
@@ -26,13 +26,24 @@ public class RoundRobinDiskStore implements DiskStore {
 	private int maxFilesPerDir = 500;
 	
 	public RoundRobinDiskStore(File baseDir, int depth) {
-		setBaseDir(baseDir);
+		this(baseDir, depth, false);
+	}
+	
+	/**
+	 * @param preserveFiles Whether files from a previous run should be kept, 
+	 * 		  so that they can be restored by a 
+	 * 		  {@link org.riotfamily.cachius.CacheJournal CacheJournal}
+	 */
+	public RoundRobinDiskStore(File baseDir, int depth, boolean preserveFiles) {
+		setBaseDir(baseDir, preserveFiles);
 		setDepth(depth);
 	}
 	
-	private void setBaseDir(File baseDir) {
+	private void setBaseDir(File baseDir, boolean preserveFiles) {
 		this.baseDir = new File(baseDir, "items");
-		delete(this.baseDir);
+		if (!preserveFiles) {
+			delete(this.baseDir);
+		}
 		this.baseDir.mkdirs();
 	}
 	
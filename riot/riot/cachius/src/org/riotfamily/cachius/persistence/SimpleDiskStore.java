@@ -3,23 +3,43 @@ package org.riotfamily.cachius.persistence;
 import java.io.File;
 import java.io.IOException;
 
-public class SimpleDiskStore implements DiskStore {
+public class SimpleDiskStore implements DirectoryDiskStore {
 
 	private File dir;
 
 	public SimpleDiskStore() {
-		setBaseDir(new File(System.getProperty("java.io.tmpdir")));
+		this(false);
+	}
+	
+	/**
+	 * Creates a store in the <code>java.io.tmpdir</code>. 
+	 * @param preserveFiles Whether files from a previous run should be kept, 
+	 * 		  so that they can be restored by a 
+	 * 		  {@link org.riotfamily.cachius.CacheJournal CacheJournal}
+	 */
+	public SimpleDiskStore(boolean preserveFiles) {
+		this(new File(System.getProperty("java.io.tmpdir")), preserveFiles);
 	}
 	
 	public SimpleDiskStore(File dir) {
-		setBaseDir(dir);
+		this(dir, false);
+	}
+	
+	public SimpleDiskStore(File dir, boolean preserveFiles) {
+		setBaseDir(dir, preserveFiles);
 	}
 	
-	private void setBaseDir(File baseDir) {
+	private void setBaseDir(File baseDir, boolean preserveFiles) {
 		this.dir = new File(baseDir, "items");
-		delete(this.dir);
+		if (!preserveFiles) {
+			delete(this.dir);
+		}
 		this.dir.mkdirs();
 	}
+	
+	public File getBaseDir() {
+		return dir;
+	}
 
 	private static void delete(File f) {
         if (f.isDirectory()) {
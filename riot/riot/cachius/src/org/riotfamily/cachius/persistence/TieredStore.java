@@ -0,0 +1,52 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * DiskStore that keeps blobs smaller than the MemoryStore's maximum item
+ * size in off-heap memory. Larger blobs, and small ones that don't fit into
+ * the MemoryStore anymore, are written to files provided by the wrapped
+ * DiskStore.
+ */
+public class TieredStore implements DiskStore {
+
+	private DiskStore diskStore;
+
+	private MemoryStore memoryStore;
+
+	public TieredStore(DiskStore diskStore, MemoryStore memoryStore) {
+		this.diskStore = diskStore;
+		this.memoryStore = memoryStore;
+	}
+
+	public DiskStore getDiskStore() {
+		return diskStore;
+	}
+	
+	public MemoryStore getMemoryStore() {
+		return memoryStore;
+	}
+
+	public File getFile() throws IOException {
+		return diskStore.getFile();
+	}
+
+	public BlobOutputStream createOutputStream() {
+		return new BlobOutputStream(diskStore, memoryStore,
+				memoryStore.getMaxItemSize());
+	}
+
+}
@@ -0,0 +1,76 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.Serializable;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.cachius.persistence.Deleteable;
+
+public class CacheEntryTest {
+
+	@Test
+	public void retiredItemIsDeletedByLastReader() {
+		CacheEntry entry = new CacheEntry(CacheKey.valueOf("test"));
+		Data data = new Data();
+		CacheItem item = new CacheItem("test");
+		item.setData(data);
+		entry.setItem(item);
+		
+		Assert.assertSame(item, entry.retainItem());
+		Assert.assertSame(item, entry.retainItem());
+		Assert.assertTrue(entry.compareAndSetItem(item, new CacheItem("test")));
+		Assert.assertFalse(entry.compareAndSetItem(item, new CacheItem("test")));
+		
+		item.retire();
+		item.release();
+		Assert.assertFalse(data.deleted);
+		item.release();
+		Assert.assertTrue(data.deleted);
+		Assert.assertFalse(item.retain());
+	}
+	
+	@Test
+	public void copyRetiresOriginal() {
+		CacheEntry entry = new CacheEntry(CacheKey.valueOf("test"));
+		Data data = new Data();
+		CacheItem item = new CacheItem("test");
+		item.setData(data);
+		entry.setItem(item);
+		
+		CacheItem reader = entry.retainItem();
+		CacheItem copy = new CacheItem(item);
+		entry.setItem(copy);
+		copy.retire();
+		Assert.assertFalse(data.deleted);
+		reader.release();
+		Assert.assertTrue(data.deleted);
+	}
+	
+	@Test
+	public void deletedEntryYieldsNoItem() {
+		CacheEntry entry = new CacheEntry(CacheKey.valueOf("test"));
+		entry.delete();
+		Assert.assertNull(entry.retainItem());
+	}
+	
+	private static class Data implements Deleteable, Serializable {
+		
+		private boolean deleted;
+		
+		public void delete() {
+			deleted = true;
+		}
+	}
+}
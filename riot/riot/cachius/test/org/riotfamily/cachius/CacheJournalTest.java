@@ -0,0 +1,175 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.FileBlob;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class CacheJournalTest {
+
+	private File dir;
+	
+	private File journalFile;
+	
+	@Before
+	public void setUp() {
+		dir = new File(System.getProperty("java.io.tmpdir"), "journal-test");
+		journalFile = new File(dir, "cachius.journal");
+		new SimpleDiskStore(dir, false);
+		journalFile.delete();
+	}
+	
+	@After
+	public void tearDown() {
+		journalFile.delete();
+		new SimpleDiskStore(dir, false);
+	}
+	
+	private CacheService createService() {
+		CacheService service = new CacheService(new SimpleDiskStore(dir, true), 
+				Collections.singletonList(new Region("default")));
+		
+		service.setJournal(new CacheJournal(journalFile));
+		return service;
+	}
+	
+	@Test
+	public void itemsSurviveRestart() throws Exception {
+		CacheService service = createService();
+		TestHandler handler = new TestHandler("a");
+		service.handle(handler);
+		service.handle(new TestHandler("b"));
+		service.invalidateTaggedItems("b");
+		service.destroy();
+		Assert.assertEquals(1, handler.captured);
+		
+		File orphan = new File(new File(dir, "items"), "orphan");
+		orphan.createNewFile();
+		orphan.setLastModified(System.currentTimeMillis() - 60000);
+		
+		service = createService();
+		handler = new TestHandler("a");
+		service.handle(handler);
+		Assert.assertEquals(0, handler.captured);
+		Assert.assertEquals("a", handler.served);
+		
+		CacheItem item = service.getCache(null).getEntry("b").getItem();
+		Assert.assertTrue(item.isInvalidated());
+		
+		for (int i = 0; i < 100 && orphan.exists(); i++) {
+			Thread.sleep(50);
+		}
+		Assert.assertFalse(orphan.exists());
+		service.destroy();
+	}
+	
+	@Test
+	public void captureSpanningTagInvalidationIsRestoredAsInvalid() 
+			throws Exception {
+		
+		final CacheService service = createService();
+		service.setLazyInvalidation(true);
+		TestHandler handler = new TestHandler("a");
+		handler.duringCapture = new Runnable() {
+			public void run() {
+				service.invalidateTaggedItems("a");
+			}
+		};
+		service.handle(handler);
+		service.destroy();
+		
+		CacheService restarted = createService();
+		CacheItem item = restarted.getCache(null).getEntry("a").getItem();
+		Assert.assertNotNull(item.getData());
+		Assert.assertTrue(item.isInvalidated());
+		restarted.destroy();
+	}
+	
+	@Test
+	public void damagedLengthIsIgnored() throws Exception {
+		DataOutputStream out = new DataOutputStream(
+				new FileOutputStream(journalFile));
+		
+		out.writeInt(Integer.MAX_VALUE);
+		out.writeInt(0);
+		out.close();
+		
+		CacheService service = createService();
+		TestHandler handler = new TestHandler("a");
+		service.handle(handler);
+		Assert.assertEquals(1, handler.captured);
+		service.destroy();
+	}
+	
+	private static class TestHandler implements CacheHandler {
+
+		private String key;
+		
+		private int captured;
+		
+		private String served;
+		
+		private Runnable duringCapture;
+		
+		public TestHandler(String key) {
+			this.key = key;
+		}
+		
+		public String getCacheKey() {
+			return key;
+		}
+
+		public String getCacheRegion() {
+			return null;
+		}
+
+		public long getLastModified() {
+			return 0;
+		}
+
+		public Serializable capture(DiskStore diskStore) throws IOException {
+			captured++;
+			CacheContext.tag(key);
+			if (duringCapture != null) {
+				duringCapture.run();
+			}
+			File file = diskStore.getFile();
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(key.getBytes());
+			out.close();
+			return new FileBlob(file);
+		}
+
+		public void serve(Serializable data) throws IOException {
+			FileBlob blob = (FileBlob) data;
+			byte[] bytes = new byte[blob.getLength()];
+			blob.getInputStream().read(bytes);
+			served = new String(bytes);
+		}
+
+		public void handleUncached() {
+		}
+	}
+}
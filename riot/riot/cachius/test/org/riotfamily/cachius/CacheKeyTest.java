@@ -0,0 +1,56 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.cachius.invalidation.ItemIndex;
+
+public class CacheKeyTest {
+
+	private static final String URL = "http://www.example.com/en/products/list.html";
+	
+	@Test
+	public void segmentsMatchConcatenation() {
+		CacheKey segmented = CacheKey.of(URL, "#list@RequestMapping(value=[/list])", " {1;}");
+		CacheKey flat = CacheKey.valueOf(segmented.toString());
+		Assert.assertEquals(flat.toString().hashCode(), segmented.hashCode());
+		Assert.assertEquals(flat, segmented);
+		Assert.assertEquals(segmented, flat);
+	}
+	
+	@Test
+	public void differentBoundaries() {
+		Assert.assertEquals(CacheKey.of("ab", "cd"), CacheKey.of("a", "bcd"));
+		Assert.assertFalse(CacheKey.of("ab", "cd").equals(CacheKey.of("ab", "ce")));
+		Assert.assertFalse(CacheKey.of("ab", "cd").equals(CacheKey.of("ab", "c")));
+	}
+	
+	@Test
+	public void nestedKeysAreFlattened() {
+		CacheKey prefix = CacheKey.of(URL, CacheKey.intern("#list"));
+		CacheKey key = new CacheKey.Builder().append(prefix).append(" {}").build();
+		Assert.assertEquals(URL + "#list {}", key.toString());
+		Assert.assertEquals('#', key.charAt(URL.length()));
+	}
+	
+	@Test
+	public void cacheLookup() {
+		Cache cache = new Cache(new Region("test"), new ItemIndex());
+		
+		CacheEntry entry = cache.getEntry(CacheKey.of(URL, "#list"));
+		Assert.assertSame(entry, cache.getEntry(URL + "#list"));
+		Assert.assertEquals(URL + "#list", entry.getKey());
+	}
+	
+}
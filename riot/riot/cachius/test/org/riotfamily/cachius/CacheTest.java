@@ -0,0 +1,83 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.Serializable;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.invalidation.ItemIndex;
+import org.riotfamily.cachius.persistence.Measurable;
+
+public class CacheTest {
+
+	private Cache cache;
+	
+	@Before
+    public void setUp() {
+		Region region = new Region("test");
+		region.setCapacity(3);
+		cache = new Cache(region, new ItemIndex());
+    }
+		
+	@Test
+	public void testCapacityIsNeverExceeded() {
+		for (int i = 0; i < 100; i++) {
+			cache.getEntry("key" + i);
+			Assert.assertTrue(cache.getSize() <= 3);
+		}
+		Assert.assertEquals(97, cache.getEvictions());
+	}
+	
+	@Test
+	public void testReferencedEntriesSurvive() {
+		CacheEntry a = cache.getEntry("a");
+		cache.getEntry("b");
+		cache.getEntry("c");
+		cache.getEntry("a");
+		cache.getEntry("d");
+		Assert.assertSame(a, cache.getEntry("a"));
+		Assert.assertEquals(1, cache.getEvictions());
+	}
+	
+	@Test
+	public void testByteBudgetIsNeverExceeded() {
+		Region region = new Region("bytes");
+		region.setMaxSize(10000);
+		cache = new Cache(region, new ItemIndex());
+		for (int i = 0; i < 100; i++) {
+			CacheEntry entry = cache.getEntry("key" + i);
+			CacheItem item = new CacheItem(entry.getKey());
+			item.setData(new Data(i % 10 == 0 ? 4000 : 500));
+			entry.setItem(item);
+			cache.itemReplaced(entry);
+			Assert.assertTrue(cache.getUsedBytes() <= 10000);
+		}
+		Assert.assertTrue(cache.getEvictions() > 0);
+		Assert.assertTrue(cache.getSize() < 100);
+	}
+	
+	private static class Data implements Measurable, Serializable {
+		
+		private long size;
+		
+		public Data(long size) {
+			this.size = size;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class CaptureLimiterTest {
+
+	private CacheService service;
+	
+	@Before
+	public void setUp() {
+		Region region = new Region("default");
+		region.setMaxConcurrentCaptures(1);
+		service = new CacheService(new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "test")), 
+				Collections.singletonList(region));
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		service.destroy();
+	}
+	
+	@Test
+	public void staleContentIsServedWhenSaturated() throws Exception {
+		TestHandler stale = new TestHandler("stale");
+		service.handle(stale);
+		Assert.assertEquals("stale1", stale.served);
+		service.invalidateTaggedItems("test");
+		
+		// Occupy the only permit
+		final TestHandler slow = new TestHandler("slow");
+		slow.gate = new CountDownLatch(1);
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					service.handle(slow);
+				}
+				catch (Exception e) {
+				}
+			}
+		};
+		thread.start();
+		slow.started.await(5, TimeUnit.SECONDS);
+		
+		stale.lastModified = System.currentTimeMillis() + 1000;
+		service.handle(stale);
+		Assert.assertEquals("stale1", stale.served);
+		Assert.assertEquals(1, service.getCache(null).getRejectedCaptures());
+		
+		slow.gate.countDown();
+		thread.join(5000);
+		Assert.assertEquals(0, service.getCaptureLimiter().getActiveCaptures());
+		
+		service.handle(stale);
+		Assert.assertEquals("stale2", stale.served);
+	}
+	
+	@Test
+	public void capturesWithoutDataAreQueued() throws Exception {
+		final TestHandler slow = new TestHandler("slow");
+		slow.gate = new CountDownLatch(1);
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					service.handle(slow);
+				}
+				catch (Exception e) {
+				}
+			}
+		};
+		thread.start();
+		slow.started.await(5, TimeUnit.SECONDS);
+		
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (service.getCaptureLimiter().getWaitingCaptures() == 0) {
+						Thread.sleep(10);
+					}
+				}
+				catch (InterruptedException e) {
+				}
+				slow.gate.countDown();
+			}
+		};
+		releaser.start();
+		
+		TestHandler other = new TestHandler("other");
+		service.handle(other);
+		Assert.assertEquals("other1", other.served);
+		Assert.assertEquals(1, service.getCache(null).getQueuedCaptures());
+		thread.join(5000);
+	}
+	
+	@Test
+	public void waitersForTheSameEntryHoldNoPermits() throws Exception {
+		final TestHandler slow = new TestHandler("slow");
+		slow.gate = new CountDownLatch(1);
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					service.handle(slow);
+				}
+				catch (Exception e) {
+				}
+			}
+		};
+		thread.start();
+		slow.started.await(5, TimeUnit.SECONDS);
+		
+		final TestHandler waiter = new TestHandler("slow");
+		Thread waiting = new Thread() {
+			@Override
+			public void run() {
+				try {
+					service.handle(waiter);
+				}
+				catch (Exception e) {
+				}
+			}
+		};
+		waiting.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (waiting.getState() != Thread.State.WAITING
+				&& System.currentTimeMillis() < deadline) {
+			
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(0, service.getCaptureLimiter().getWaitingCaptures());
+		
+		slow.gate.countDown();
+		thread.join(5000);
+		waiting.join(5000);
+		Assert.assertEquals("slow1", waiter.served);
+		Assert.assertEquals(0, service.getCache(null).getQueuedCaptures());
+	}
+	
+	private static class TestHandler implements CacheHandler {
+
+		private String key;
+		
+		private int version;
+		
+		private volatile long lastModified = System.currentTimeMillis();
+		
+		private volatile CountDownLatch gate;
+		
+		private CountDownLatch started = new CountDownLatch(1);
+		
+		private volatile String served;
+		
+		public TestHandler(String key) {
+			this.key = key;
+		}
+		
+		public String getCacheKey() {
+			return key;
+		}
+
+		public String getCacheRegion() {
+			return null;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public Serializable capture(DiskStore diskStore) throws Exception {
+			CacheContext.tag("test");
+			started.countDown();
+			if (gate != null) {
+				gate.await(5, TimeUnit.SECONDS);
+			}
+			return key + (++version);
+		}
+
+		public void serve(Serializable data) {
+			served = (String) data;
+		}
+
+		public void handleUncached() {
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.invalidation.ItemIndex;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class LazyInvalidationTest {
+
+	private CacheService service;
+	
+	private TestHandler handler;
+	
+	@Before
+	public void setUp() {
+		service = new CacheService(new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "test")), 
+				Collections.singletonList(new Region("default")));
+		
+		service.setLazyInvalidation(true);
+		handler = new TestHandler();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		service.destroy();
+	}
+	
+	@Test
+	public void itemIsInvalidatedUponNextRequest() throws Exception {
+		service.handle(handler);
+		service.handle(handler);
+		Assert.assertEquals(1, handler.captures);
+		
+		service.invalidateTaggedItems("other");
+		service.handle(handler);
+		Assert.assertEquals(1, handler.captures);
+		
+		service.invalidateTaggedItems("test");
+		service.handle(handler);
+		Assert.assertEquals(2, handler.captures);
+		Assert.assertEquals("v2", handler.served);
+	}
+	
+	@Test
+	public void invalidationDuringCaptureIsNotLost() throws Exception {
+		handler.invalidateDuringCapture = true;
+		service.handle(handler);
+		Assert.assertEquals("v1", handler.served);
+		
+		handler.invalidateDuringCapture = false;
+		service.handle(handler);
+		Assert.assertEquals("v2", handler.served);
+	}
+	
+	@Test
+	public void invalidationDuringRecaptureIsNotLost() throws Exception {
+		service.handle(handler);
+		service.invalidateTaggedItems("test");
+		
+		handler.invalidateDuringCapture = true;
+		service.handle(handler);
+		Assert.assertEquals("v2", handler.served);
+		
+		handler.invalidateDuringCapture = false;
+		service.handle(handler);
+		Assert.assertEquals("v3", handler.served);
+	}
+	
+	@Test
+	public void unusedGenerationsArePruned() throws Exception {
+		ItemIndex index = service.getIndex();
+		service.handle(handler);
+		for (int i = 0; i < 10; i++) {
+			service.invalidateTaggedItems("entity#" + i);
+		}
+		service.invalidateTaggedItems("test");
+		Assert.assertEquals(11, index.getGenerationCount());
+		
+		index.pruneGenerations();
+		Assert.assertEquals(1, index.getGenerationCount());
+	}
+	
+	@Test
+	public void generationsAreKeptForRunningCaptures() throws Exception {
+		ItemIndex index = service.getIndex();
+		CacheItem item = new CacheItem("capture");
+		item.setGeneration(index.beginCapture());
+		service.invalidateTaggedItems("entity");
+		index.pruneGenerations();
+		Assert.assertEquals(1, index.getGenerationCount());
+		
+		index.endCapture(item);
+		index.pruneGenerations();
+		Assert.assertEquals(0, index.getGenerationCount());
+	}
+	
+	private class TestHandler implements CacheHandler {
+
+		private int captures;
+		
+		private boolean invalidateDuringCapture;
+		
+		private String served;
+		
+		public String getCacheKey() {
+			return "test";
+		}
+
+		public String getCacheRegion() {
+			return null;
+		}
+
+		public long getLastModified() {
+			// Always newer, so that invalidated items are re-captured
+			return System.currentTimeMillis() + 1000;
+		}
+
+		public Serializable capture(DiskStore diskStore) throws Exception {
+			CacheContext.tag("test");
+			if (invalidateDuringCapture) {
+				service.invalidateTaggedItems("test");
+			}
+			return "v" + (++captures);
+		}
+
+		public void serve(Serializable data) {
+			served = (String) data;
+		}
+
+		public void handleUncached() {
+		}
+	}
+}
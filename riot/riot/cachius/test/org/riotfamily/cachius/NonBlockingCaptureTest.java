@@ -0,0 +1,130 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.persistence.Deleteable;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class NonBlockingCaptureTest {
+
+	private CacheService service;
+	
+	@Before
+	public void setUp() {
+		Region region = new Region("default");
+		region.setCapacity(1);
+		service = new CacheService(new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "test")), 
+				Collections.singletonList(region));
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		service.destroy();
+	}
+	
+	@Test
+	public void entryEvictedDuringCaptureIsNotUpdated() throws Exception {
+		TestHandler handler = new TestHandler();
+		service.handle(handler);
+		Assert.assertEquals("v1", handler.served.value);
+		
+		service.invalidateTaggedItems("test");
+		handler.evictDuringCapture = true;
+		service.handle(handler);
+		Data captured = handler.served;
+		Assert.assertEquals("v2", captured.value);
+		Assert.assertTrue(captured.deleted);
+		Assert.assertNull(service.getCache(null).getExistingEntry("test"));
+		Assert.assertEquals(0, service.getIndex().getItemCount("test"));
+	}
+	
+	@Test
+	public void entriesLockedByCurrentThreadAreNotEvicted() {
+		Cache cache = service.getCache(null);
+		CacheEntry entry = cache.getEntry("a");
+		entry.getUpdateLock().lock();
+		try {
+			cache.getEntry("b");
+			Assert.assertSame(entry, cache.getExistingEntry("a"));
+		}
+		finally {
+			entry.getUpdateLock().unlock();
+		}
+		cache.getEntry("c");
+		Assert.assertNull(cache.getExistingEntry("a"));
+	}
+	
+	private class TestHandler implements CacheHandler {
+
+		private int captures;
+		
+		private boolean evictDuringCapture;
+		
+		private Data served;
+		
+		public String getCacheKey() {
+			return "test";
+		}
+
+		public String getCacheRegion() {
+			return null;
+		}
+
+		public long getLastModified() {
+			return System.currentTimeMillis() + 1000;
+		}
+
+		public Serializable capture(DiskStore diskStore) throws Exception {
+			CacheContext.tag("test");
+			CacheContext.serveStaleWhileRevalidate();
+			if (evictDuringCapture) {
+				for (int i = 0; i < 3; i++) {
+					service.getCache(null).getEntry("other" + i);
+				}
+			}
+			return new Data("v" + (++captures));
+		}
+
+		public void serve(Serializable data) {
+			served = (Data) data;
+		}
+
+		public void handleUncached() {
+		}
+	}
+	
+	private static class Data implements Deleteable, Serializable {
+		
+		private String value;
+		
+		private boolean deleted;
+		
+		public Data(String value) {
+			this.value = value;
+		}
+		
+		public void delete() {
+			deleted = true;
+		}
+	}
+}
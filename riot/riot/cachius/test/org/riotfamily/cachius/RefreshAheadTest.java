@@ -0,0 +1,120 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class RefreshAheadTest {
+
+	private CacheService service;
+	
+	private TestHandler handler;
+	
+	@Before
+	public void setUp() {
+		Region region = new Region("default");
+		region.setRefreshAhead(true);
+		service = new CacheService(new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "test")), 
+				Collections.singletonList(region));
+		
+		handler = new TestHandler();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		service.destroy();
+	}
+	
+	@Test
+	public void staleContentIsServedWhileRefreshing() throws Exception {
+		service.handle(handler);
+		Assert.assertEquals("v1", handler.served);
+		
+		handler.gate = new CountDownLatch(1);
+		handler.lastModified = System.currentTimeMillis() + 1000;
+		service.invalidateTaggedItems("test");
+		
+		// The refresh is blocked, so this must be served from the stale item
+		service.handle(handler);
+		Assert.assertEquals("v1", handler.served);
+		
+		RefreshScheduler scheduler = service.getRefreshScheduler();
+		Assert.assertEquals(1, scheduler.getPendingCount());
+		Assert.assertEquals(1, scheduler.getCoalescedCount());
+		
+		handler.gate.countDown();
+		for (int i = 0; i < 100 && scheduler.getRefreshCount() == 0; i++) {
+			Thread.sleep(50);
+		}
+		Assert.assertEquals(1, scheduler.getRefreshCount());
+		
+		service.handle(handler);
+		Assert.assertEquals("v2", handler.served);
+	}
+	
+	private static class TestHandler implements ReplayableCacheHandler {
+
+		private AtomicInteger version = new AtomicInteger();
+		
+		private volatile long lastModified = System.currentTimeMillis();
+		
+		private volatile CountDownLatch gate;
+		
+		private String served;
+		
+		public String getCacheKey() {
+			return "test";
+		}
+
+		public String getCacheRegion() {
+			return null;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public Serializable capture(DiskStore diskStore) throws Exception {
+			CacheContext.tag("test");
+			CacheContext.serveStaleWhileRevalidate();
+			if (gate != null) {
+				gate.await(5, TimeUnit.SECONDS);
+			}
+			return "v" + version.incrementAndGet();
+		}
+
+		public void serve(Serializable data) {
+			served = (String) data;
+		}
+
+		public void handleUncached() {
+		}
+		
+		public CacheHandler replay() {
+			return this;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletOutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.http.content.Directives;
+import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.http.support.SessionIdEncoder;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+
+public class CachiusResponseTest {
+
+	private static final String TEXT = "Gr\u00fc\u00dfe \u20ac \ud83d\ude00 ";
+	
+	private DiskStore diskStore;
+	
+	private MockHttpServletRequest request;
+	
+	@Before
+    public void setUp() {
+		diskStore = new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "test"));
+		
+		request = new MockHttpServletRequest();
+		request.setSession(new MockHttpSession(null, "abc"));
+		request.setRequestedSessionIdFromCookie(false);
+    }
+	
+	private ResponseData capture(String... parts) throws Exception {
+		ResponseData data = new ResponseData("UTF-8");
+		CachiusResponse response = new CachiusResponse(data, diskStore, 
+				new SessionIdEncoder(request), false, 0, Directives.DEFAULTS);
+		
+		PrintWriter writer = response.getWriter();
+		for (String part : parts) {
+			writer.print(part);
+		}
+		response.stopCapturing();
+		return data;
+	}
+	
+	@Test
+	public void testChunkedContentServedAsBytes() throws Exception {
+		ResponseData data = capture(TEXT, "(@riot.sessionid)", TEXT);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		response.setCharacterEncoding("UTF-8");
+		data.serve(request, response);
+		String expected = TEXT + ";jsessionid=abc" + TEXT;
+		Assert.assertEquals(expected, response.getContentAsString());
+		Assert.assertEquals(expected.getBytes("UTF-8").length, 
+				response.getContentLength());
+	}
+	
+	@Test
+	public void testChunkedContentServedToWriter() throws Exception {
+		ResponseData data = capture(TEXT, "(@riot.sessionid)", TEXT);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		response.setCharacterEncoding("UTF-8");
+		response.getWriter().print("<");
+		data.serve(request, response);
+		Assert.assertEquals("<" + TEXT + ";jsessionid=abc" + TEXT, 
+				response.getContentAsString());
+	}
+	
+	@Test
+	public void testETagMatchIsNotModified() throws Exception {
+		ResponseData data = capture(TEXT);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		data.serve(request, response);
+		String etag = (String) response.getHeader("ETag");
+		Assert.assertNotNull(etag);
+		Assert.assertEquals(etag, capture(TEXT).getETag(request));
+		Assert.assertFalse(etag.equals(capture("other").getETag(request)));
+		
+		request.setMethod("GET");
+		Assert.assertFalse(data.isNotModified(request));
+		request.addHeader("If-None-Match", "\"x\", W/" + etag);
+		Assert.assertTrue(data.isNotModified(request));
+		
+		response = new MockHttpServletResponse();
+		data.serveNotModified(request, response);
+		Assert.assertEquals(304, response.getStatus());
+		Assert.assertEquals(etag, response.getHeader("ETag"));
+		Assert.assertEquals(0, response.getContentAsByteArray().length);
+	}
+	
+	@Test
+	public void testChunkedContentHasNoETag() throws Exception {
+		ResponseData data = capture(TEXT, "(@riot.sessionid)", TEXT);
+		Assert.assertNull(data.getETag(request));
+		request.setMethod("GET");
+		request.addHeader("If-None-Match", "*");
+		Assert.assertFalse(data.isNotModified(request));
+	}
+	
+	@Test
+	public void testTeeSendsOutputWhileCapturing() throws Exception {
+		MockHttpServletResponse client = new MockHttpServletResponse();
+		ResponseData data = new ResponseData("UTF-8");
+		CachiusResponse response = new CachiusResponse(data, diskStore, 
+				new SessionIdEncoder(request), false, 0, Directives.DEFAULTS);
+		
+		response.enableTee(request, client);
+		ServletOutputStream out = response.getOutputStream();
+		response.setContentType("application/pdf");
+		response.setHeader("X-Test", "1");
+		out.write(TEXT.getBytes("UTF-8"));
+		out.flush();
+		Assert.assertTrue(response.isStreamed());
+		Assert.assertEquals("application/pdf", client.getContentType());
+		Assert.assertEquals("1", client.getHeader("X-Test"));
+		Assert.assertEquals(TEXT, new String(client.getContentAsByteArray(), "UTF-8"));
+		response.stopCapturing();
+		
+		MockHttpServletResponse hit = new MockHttpServletResponse();
+		data.serve(request, hit);
+		Assert.assertEquals(TEXT, new String(hit.getContentAsByteArray(), "UTF-8"));
+	}
+	
+	@Test
+	public void testTeeCompressesInSamePass() throws Exception {
+		request.addHeader("Accept-Encoding", "gzip");
+		request.addHeader("User-Agent", "Mozilla/5.0");
+		MockHttpServletResponse client = new MockHttpServletResponse();
+		ResponseData data = new ResponseData("UTF-8");
+		CachiusResponse response = new CachiusResponse(data, diskStore, 
+				new SessionIdEncoder(request), true, 0, Directives.DEFAULTS);
+		
+		response.enableTee(request, client);
+		response.getOutputStream().write(TEXT.getBytes("UTF-8"));
+		response.stopCapturing();
+		Assert.assertEquals("gzip", client.getHeader("Content-Encoding"));
+		Assert.assertEquals(TEXT, gunzip(client.getContentAsByteArray()));
+		
+		MockHttpServletResponse hit = new MockHttpServletResponse();
+		data.serve(request, hit);
+		Assert.assertEquals(TEXT, gunzip(hit.getContentAsByteArray()));
+	}
+	
+	@Test
+	public void testWriterIsNotTeed() throws Exception {
+		MockHttpServletResponse client = new MockHttpServletResponse();
+		ResponseData data = new ResponseData("UTF-8");
+		CachiusResponse response = new CachiusResponse(data, diskStore, 
+				new SessionIdEncoder(request), false, 0, Directives.DEFAULTS);
+		
+		response.enableTee(request, client);
+		response.getWriter().print(TEXT);
+		response.stopCapturing();
+		Assert.assertFalse(response.isStreamed());
+		Assert.assertEquals(0, client.getContentAsByteArray().length);
+	}
+	
+	private static String gunzip(byte[] bytes) throws Exception {
+		InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		IOUtils.copy(in, out);
+		return out.toString("UTF-8");
+	}
+}
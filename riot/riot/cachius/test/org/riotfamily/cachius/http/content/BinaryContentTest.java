@@ -0,0 +1,114 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.persistence.FileBlob;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class BinaryContentTest {
+
+	private File file;
+	
+	private BinaryContent content;
+	
+	private MockHttpServletRequest request;
+	
+	private MockHttpServletResponse response;
+	
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("range", ".bin");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("0123456789".getBytes("ASCII"));
+		out.close();
+		content = new BinaryContent(new FileBlob(file));
+		request = new MockHttpServletRequest("GET", "/file.bin");
+		response = new MockHttpServletResponse();
+		response.setContentType("application/octet-stream");
+	}
+	
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+	
+	@Test
+	public void singleRange() throws Exception {
+		request.addHeader("Range", "bytes=2-4");
+		content.serve(request, response);
+		Assert.assertEquals(206, response.getStatus());
+		Assert.assertEquals("bytes 2-4/10", response.getHeader("Content-Range"));
+		Assert.assertEquals("234", response.getContentAsString());
+		Assert.assertEquals(3, response.getContentLength());
+	}
+	
+	@Test
+	public void suffixAndOpenRanges() throws Exception {
+		request.addHeader("Range", "bytes=-3");
+		content.serve(request, response);
+		Assert.assertEquals("789", response.getContentAsString());
+		
+		request = new MockHttpServletRequest("GET", "/file.bin");
+		request.addHeader("Range", "bytes=8-");
+		response = new MockHttpServletResponse();
+		content.serve(request, response);
+		Assert.assertEquals("89", response.getContentAsString());
+	}
+	
+	@Test
+	public void multipleRanges() throws Exception {
+		request.addHeader("Range", "bytes=0-1,5-6");
+		content.serve(request, response);
+		Assert.assertEquals(206, response.getStatus());
+		String body = response.getContentAsString();
+		Assert.assertTrue(response.getContentType().startsWith("multipart/byteranges"));
+		Assert.assertTrue(body.contains("Content-Range: bytes 0-1/10\r\n\r\n01\r\n"));
+		Assert.assertTrue(body.contains("Content-Range: bytes 5-6/10\r\n\r\n56\r\n"));
+		Assert.assertEquals(body.length(), response.getContentLength());
+	}
+	
+	@Test
+	public void unsatisfiableRange() throws Exception {
+		request.addHeader("Range", "bytes=20-30");
+		content.serve(request, response);
+		Assert.assertEquals(416, response.getStatus());
+		Assert.assertEquals("bytes */10", response.getHeader("Content-Range"));
+	}
+	
+	@Test
+	public void ifRangeMismatchServesEverything() throws Exception {
+		response.setHeader("ETag", "\"abc\"");
+		request.addHeader("Range", "bytes=2-4");
+		request.addHeader("If-Range", "\"xyz\"");
+		content.serve(request, response);
+		Assert.assertEquals(200, response.getStatus());
+		Assert.assertEquals("0123456789", response.getContentAsString());
+		Assert.assertEquals("bytes", response.getHeader("Accept-Ranges"));
+	}
+	
+	@Test
+	public void invalidRangeIsIgnored() throws Exception {
+		request.addHeader("Range", "bytes=4-2");
+		content.serve(request, response);
+		Assert.assertEquals(200, response.getStatus());
+		Assert.assertEquals("0123456789", response.getContentAsString());
+	}
+}
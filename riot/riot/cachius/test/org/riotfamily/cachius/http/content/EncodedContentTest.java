@@ -0,0 +1,187 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.Cache;
+import org.riotfamily.cachius.CacheHandler;
+import org.riotfamily.cachius.CacheService;
+import org.riotfamily.cachius.Region;
+import org.riotfamily.cachius.http.ResponseData;
+import org.riotfamily.cachius.http.support.AcceptEncoding;
+import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.Blob;
+import org.riotfamily.cachius.persistence.BlobOutputStream;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class EncodedContentTest {
+
+	private static final String TEXT = "Hello Hello Hello Hello Hello";
+	
+	private DiskStore diskStore;
+	
+	private ContentEncodings encodings;
+	
+	private MockHttpServletRequest request;
+	
+	@Before
+	public void setUp() {
+		diskStore = new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "test"));
+		
+		encodings = new ContentEncodings();
+		encodings.setEncoders(Arrays.<ContentEncoder>asList(
+				new GzipEncoder(), new DeflateEncoder()));
+		
+		request = new MockHttpServletRequest("GET", "/test.html");
+	}
+	
+	@Test
+	public void qualityValues() {
+		Assert.assertEquals("gzip", AcceptEncoding.select(
+				"gzip, deflate", Arrays.asList("gzip", "deflate")));
+		
+		Assert.assertEquals("deflate", AcceptEncoding.select(
+				"gzip;q=0.5, deflate", Arrays.asList("gzip", "deflate")));
+		
+		Assert.assertEquals("gzip", AcceptEncoding.select(
+				"x-gzip", Arrays.asList("gzip", "deflate")));
+		
+		Assert.assertEquals("deflate", AcceptEncoding.select(
+				"gzip;q=0, *", Arrays.asList("gzip", "deflate")));
+		
+		Assert.assertNull(AcceptEncoding.select(
+				"identity, gzip;q=0.5", Arrays.asList("gzip")));
+		
+		Assert.assertNull(AcceptEncoding.select(
+				"br", Arrays.asList("gzip")));
+		
+		Assert.assertNull(AcceptEncoding.select(
+				(String) null, Arrays.asList("gzip")));
+	}
+	
+	@Test
+	public void servesNegotiatedVariant() throws Exception {
+		EncodedContent content = encodings.createContent(
+				createBlob(), diskStore);
+		
+		request.addHeader("Accept-Encoding", "gzip;q=0.8, deflate");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		content.serve(request, response);
+		Assert.assertEquals("deflate", response.getHeader("Content-Encoding"));
+		Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+		Assert.assertEquals(TEXT, inflate(response.getContentAsByteArray()));
+		content.delete();
+	}
+	
+	@Test
+	public void includesAreNotEncoded() throws Exception {
+		EncodedContent content = encodings.createContent(
+				createBlob(), diskStore);
+		
+		request.addHeader("Accept-Encoding", "gzip");
+		request.setAttribute("javax.servlet.include.request_uri", "/test.html");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		content.serve(request, response);
+		Assert.assertNull(response.getHeader("Content-Encoding"));
+		Assert.assertEquals(TEXT, new String(response.getContentAsByteArray(), "UTF-8"));
+		content.delete();
+	}
+	
+	@Test
+	public void variantsAddedLaterAreAccountedFor() throws Exception {
+		final CountDownLatch gate = new CountDownLatch(1);
+		encodings.setEncoders(Collections.<ContentEncoder>singletonList(
+				new GzipEncoder() {
+			@Override
+			public OutputStream encode(OutputStream out, int level) 
+					throws IOException {
+				
+				try {
+					gate.await(5, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e) {
+				}
+				return super.encode(out, level);
+			}
+		}));
+		encodings.setAsynchronous(true);
+		
+		CacheService service = new CacheService(diskStore, 
+				Collections.singletonList(new Region("default")));
+		
+		final ResponseData data = new ResponseData("UTF-8");
+		service.handle(new CacheHandler() {
+			public String getCacheKey() {
+				return "test";
+			}
+			public String getCacheRegion() {
+				return null;
+			}
+			public long getLastModified() {
+				return 0;
+			}
+			public Serializable capture(DiskStore diskStore) throws Exception {
+				data.setContent(encodings.createContent(createBlob(), diskStore));
+				return data;
+			}
+			public void serve(Serializable data) {
+			}
+			public void handleUncached() {
+			}
+		});
+		Cache cache = service.getCache(null);
+		long usedBytes = cache.getUsedBytes();
+		gate.countDown();
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while (cache.getUsedBytes() == usedBytes 
+				&& System.currentTimeMillis() < deadline) {
+			
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(cache.getUsedBytes() > usedBytes);
+		encodings.destroy();
+		service.destroy();
+	}
+	
+	private Blob createBlob() throws Exception {
+		BlobOutputStream out = new BlobOutputStream(diskStore);
+		out.write(TEXT.getBytes("UTF-8"));
+		return out.toBlob();
+	}
+	
+	private static String inflate(byte[] bytes) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		IOUtils.copy(new InflaterInputStream(new ByteArrayInputStream(bytes)), out);
+		return out.toString("UTF-8");
+	}
+	
+}
@@ -0,0 +1,191 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.http.CachiusResponse;
+import org.riotfamily.cachius.http.ResponseData;
+import org.riotfamily.cachius.http.support.SessionIdEncoder;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class ParallelFragmentRendererTest {
+
+	private static final String PAGE = "<a>(@riot.include /a)</a>"
+			+ "<b>(@riot.include /b)</b><c>(@riot.include /c)</c>";
+	
+	private static final String EXPECTED = "<a>[/a]</a><b>[/b]</b><c>[/c]</c>";
+	
+	private ParallelFragmentRenderer renderer;
+	
+	private ResponseData data;
+	
+	@Before
+	public void setUp() throws Exception {
+		renderer = new ParallelFragmentRenderer();
+		renderer.setEnabled(true);
+		
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		data = new ResponseData("UTF-8");
+		CachiusResponse response = new CachiusResponse(data, 
+				new SimpleDiskStore(new File(System.getProperty("java.io.tmpdir"), "test")), 
+				new SessionIdEncoder(request), false, 0, Directives.DEFAULTS);
+		
+		response.getWriter().print(PAGE);
+		response.stopCapturing();
+	}
+	
+	@After
+	public void tearDown() {
+		renderer.destroy();
+	}
+	
+	private String serve(MockHttpServletRequest request) throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		response.setCharacterEncoding("UTF-8");
+		ParallelFragmentRenderer previous = renderer.expose(request);
+		data.serve(request, response);
+		ParallelFragmentRenderer.restore(request, previous);
+		return response.getContentAsString();
+	}
+	
+	@Test
+	public void includesAreRenderedConcurrently() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(3);
+		String content = serve(new MockHttpServletRequest() {
+			@Override
+			public RequestDispatcher getRequestDispatcher(String path) {
+				return new StandInDispatcher(path) {
+					@Override
+					protected void await() throws IOException {
+						latch.countDown();
+						try {
+							if (!latch.await(5, TimeUnit.SECONDS)) {
+								throw new IOException("Includes were not rendered concurrently");
+							}
+						}
+						catch (InterruptedException e) {
+							throw new IOException(e.getMessage());
+						}
+					}
+				};
+			}
+		});
+		Assert.assertEquals(EXPECTED, content);
+		Assert.assertTrue(renderer.isEnabled());
+	}
+	
+	@Test
+	public void fallsBackToSerialRendering() throws Exception {
+		final Thread requestThread = Thread.currentThread();
+		String content = serve(new MockHttpServletRequest() {
+			@Override
+			public RequestDispatcher getRequestDispatcher(String path) {
+				if (Thread.currentThread() != requestThread) {
+					throw new IllegalStateException("Not the request thread");
+				}
+				return new StandInDispatcher(path);
+			}
+		});
+		Assert.assertEquals(EXPECTED, content);
+		Assert.assertFalse(renderer.isEnabled());
+	}
+	
+	@Test
+	public void slowIncludesAreRenderedOnce() throws Exception {
+		renderer.setTimeout(10);
+		final AtomicInteger includes = new AtomicInteger();
+		String content = serve(new MockHttpServletRequest() {
+			@Override
+			public RequestDispatcher getRequestDispatcher(String path) {
+				return new StandInDispatcher(path) {
+					@Override
+					protected void await() throws IOException {
+						includes.incrementAndGet();
+						try {
+							Thread.sleep(100);
+						}
+						catch (InterruptedException e) {
+							throw new IOException(e.getMessage());
+						}
+					}
+				};
+			}
+		});
+		Assert.assertEquals(EXPECTED, content);
+		Assert.assertEquals(3, includes.get());
+	}
+	
+	@Test(expected = IOException.class)
+	public void failuresAreNotRenderedAgain() throws Exception {
+		final AtomicInteger includes = new AtomicInteger();
+		try {
+			serve(new MockHttpServletRequest() {
+				@Override
+				public RequestDispatcher getRequestDispatcher(String path) {
+					return new StandInDispatcher(path) {
+						@Override
+						protected void await() throws IOException {
+							if ("/a".equals(path)) {
+								includes.incrementAndGet();
+								throw new IOException("Include failed");
+							}
+						}
+					};
+				}
+			});
+		}
+		finally {
+			Assert.assertEquals(1, includes.get());
+			Assert.assertTrue(renderer.isEnabled());
+		}
+	}
+	
+	private static class StandInDispatcher implements RequestDispatcher {
+		
+		protected String path;
+		
+		public StandInDispatcher(String path) {
+			this.path = path;
+		}
+		
+		protected void await() throws IOException {
+		}
+		
+		public void include(ServletRequest request, ServletResponse response)
+				throws ServletException, IOException {
+			
+			await();
+			response.getWriter().print("[" + path + "]");
+		}
+		
+		public void forward(ServletRequest request, ServletResponse response) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
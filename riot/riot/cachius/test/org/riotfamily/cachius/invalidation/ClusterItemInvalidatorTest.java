@@ -0,0 +1,160 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.File;
+import java.io.Serializable;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.CacheContext;
+import org.riotfamily.cachius.CacheHandler;
+import org.riotfamily.cachius.CacheService;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+
+public class ClusterItemInvalidatorTest {
+
+	private LoopbackTransport transport1 = new LoopbackTransport();
+	
+	private LoopbackTransport transport2 = new LoopbackTransport(transport1);
+	
+	private ClusterItemInvalidator invalidator1;
+	
+	private ClusterItemInvalidator invalidator2;
+	
+	private CacheService service1;
+	
+	private CacheService service2;
+	
+	@Before
+	public void setUp() throws Exception {
+		invalidator1 = new ClusterItemInvalidator(transport1);
+		invalidator1.setBatchDelay(60000);
+		invalidator2 = new ClusterItemInvalidator(transport2);
+		invalidator2.setBatchDelay(60000);
+		service1 = createService(invalidator1);
+		service2 = createService(invalidator2);
+	}
+	
+	private CacheService createService(ItemInvalidator invalidator) {
+		CacheService service = new CacheService(new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "test")));
+		
+		service.setInvalidator(invalidator);
+		return service;
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		invalidator1.destroy();
+		invalidator2.destroy();
+		service1.destroy();
+		service2.destroy();
+	}
+	
+	@Test
+	public void invalidationIsPropagated() throws Exception {
+		TestHandler handler1 = new TestHandler();
+		TestHandler handler2 = new TestHandler();
+		service1.handle(handler1);
+		service2.handle(handler2);
+		
+		service1.invalidateTaggedItems("test");
+		service1.handle(handler1);
+		Assert.assertEquals(2, handler1.captures);
+		
+		// Not published before the batch is flushed
+		service2.handle(handler2);
+		Assert.assertEquals(1, handler2.captures);
+		
+		invalidator1.flush();
+		service2.handle(handler2);
+		Assert.assertEquals(2, handler2.captures);
+		Assert.assertEquals(1, invalidator2.getReceivedMessages());
+		
+		// Received invalidations must not be echoed
+		invalidator2.flush();
+		Assert.assertEquals(0, transport2.getMessageCount());
+	}
+	
+	@Test
+	public void tagsAreBatched() throws Exception {
+		invalidator1.defer();
+		service1.invalidateTaggedItems("a");
+		service1.invalidateTaggedItems("a");
+		invalidator1.commit();
+		service1.invalidateTaggedItems("a");
+		service1.invalidateTaggedItems("b");
+		invalidator1.flush();
+		
+		Assert.assertEquals(1, transport1.getMessageCount());
+		Assert.assertEquals(2, invalidator1.getPublishedTags());
+		Assert.assertEquals(1, invalidator1.getSuppressedTags());
+		Assert.assertEquals(2, invalidator2.getReceivedTags());
+	}
+	
+	@Test
+	public void largeBatchesAreSplit() throws Exception {
+		invalidator1.setMaxBatchSize(2);
+		invalidator1.setBatchDelay(0);
+		service1.invalidateTaggedItems("a");
+		service1.invalidateTaggedItems("b");
+		service1.invalidateTaggedItems("c");
+		for (int i = 0; i < 100 && invalidator2.getReceivedTags() < 3; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(3, invalidator2.getReceivedTags());
+	}
+	
+	@Test
+	public void pendingTagsArePublishedOnDestroy() throws Exception {
+		service1.invalidateTaggedItems("a");
+		Assert.assertEquals(0, invalidator2.getReceivedTags());
+		
+		long start = System.currentTimeMillis();
+		invalidator1.destroy();
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertEquals(1, invalidator2.getReceivedTags());
+	}
+	
+	private static class TestHandler implements CacheHandler {
+
+		private int captures;
+		
+		public String getCacheKey() {
+			return "test";
+		}
+
+		public String getCacheRegion() {
+			return null;
+		}
+
+		public long getLastModified() {
+			return System.currentTimeMillis() + 1000;
+		}
+
+		public Serializable capture(DiskStore diskStore) throws Exception {
+			CacheContext.tag("test");
+			return "v" + (++captures);
+		}
+
+		public void serve(Serializable data) {
+		}
+
+		public void handleUncached() {
+		}
+	}
+}
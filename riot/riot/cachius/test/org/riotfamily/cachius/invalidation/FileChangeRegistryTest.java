@@ -0,0 +1,91 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.CacheItem;
+
+public class FileChangeRegistryTest {
+
+	private File file;
+	
+	private ItemIndex index = new ItemIndex();
+	
+	private FileChangeRegistry registry = new FileChangeRegistry();
+	
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("registry", ".ftl");
+		file.setLastModified(System.currentTimeMillis() - 10000);
+		registry.setPollInterval(Long.MAX_VALUE);
+		index.setFileRegistry(registry);
+	}
+	
+	@After
+	public void tearDown() {
+		registry.destroy();
+		file.delete();
+	}
+	
+	@Test
+	public void modificationIsDetectedByPoller() throws Exception {
+		CacheItem item = createItem();
+		index.add(item);
+		Assert.assertEquals(1, registry.getFileCount());
+		Assert.assertFalse(item.anyFileModified());
+		
+		// Not detected before the next poll
+		touch();
+		Assert.assertFalse(item.anyFileModified());
+		
+		registry.poll();
+		Assert.assertTrue(item.anyFileModified());
+		Assert.assertEquals(1, registry.getChangeCount());
+	}
+	
+	@Test
+	public void modificationDuringCaptureIsDetected() throws Exception {
+		CacheItem item = createItem();
+		touch();
+		index.add(item);
+		Assert.assertTrue(item.anyFileModified());
+	}
+	
+	@Test
+	public void unusedFilesAreRemoved() throws Exception {
+		CacheItem item = createItem();
+		index.add(item);
+		index.remove(item);
+		registry.poll();
+		Assert.assertEquals(0, registry.getFileCount());
+	}
+	
+	private CacheItem createItem() {
+		CacheItem item = new CacheItem("test");
+		item.addInvolvedFile(file);
+		return item;
+	}
+	
+	private void touch() throws Exception {
+		FileWriter out = new FileWriter(file);
+		out.write("modified");
+		out.close();
+		file.setLastModified(System.currentTimeMillis() + 10000);
+	}
+}
@@ -0,0 +1,61 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileBlobTest {
+
+	private File file;
+	
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("blob", ".bin");
+		write(file, "0123456789", false);
+	}
+	
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+	
+	@Test
+	public void lengthIsRecordedOnCreation() throws Exception {
+		FileBlob blob = new FileBlob(file);
+		Assert.assertEquals(10, blob.getLength());
+		Assert.assertTrue(blob.isIntact());
+		
+		write(file, "0123456789", true);
+		Assert.assertEquals(10, blob.getLength());
+		Assert.assertFalse(blob.isIntact());
+	}
+	
+	private static void write(File file, String s, boolean append) 
+			throws IOException {
+		
+		FileOutputStream out = new FileOutputStream(file, append);
+		try {
+			out.write(s.getBytes("ASCII"));
+		}
+		finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TieredStoreTest {
+
+	private TieredStore store;
+	
+	@Before
+    public void setUp() {
+		File baseDir = new File(System.getProperty("java.io.tmpdir"), "test");
+		store = new TieredStore(new SimpleDiskStore(baseDir), 
+				new MemoryStore(1024 * 1024, 1000));
+    }
+	
+	private Blob write(int size) throws IOException {
+		BlobOutputStream out = store.createOutputStream();
+		for (int i = 0; i < size; i++) {
+			out.write(i);
+		}
+		return out.toBlob();
+	}
+	
+	private void assertContent(Blob blob, int size) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		blob.writeTo(out);
+		byte[] bytes = out.toByteArray();
+		Assert.assertEquals(size, bytes.length);
+		for (int i = 0; i < size; i++) {
+			Assert.assertEquals((byte) i, bytes[i]);
+		}
+	}
+		
+	@Test
+	public void testSmallBlobsStayInMemory() throws IOException {
+		Blob blob = write(1024);
+		Assert.assertTrue(blob instanceof MemoryBlob);
+		assertContent(blob, 1024);
+		Assert.assertEquals(1, store.getMemoryStore().getBlobCount());
+		blob.delete();
+		Assert.assertEquals(0, store.getMemoryStore().getBlobCount());
+		Assert.assertEquals(0, store.getMemoryStore().getUsedBytes());
+	}
+	
+	@Test
+	public void testLargeBlobsSpillToDisk() throws IOException {
+		Blob blob = write(5000);
+		Assert.assertTrue(blob instanceof FileBlob);
+		assertContent(blob, 5000);
+		blob.delete();
+		Assert.assertFalse(((FileBlob) blob).getFile().exists());
+	}
+	
+	@Test
+	public void testFullMemoryStoreSpillsToDisk() throws IOException {
+		for (int i = 0; i < 1024; i++) {
+			Assert.assertTrue(write(1024) instanceof MemoryBlob);
+		}
+		Blob blob = write(1024);
+		Assert.assertTrue(blob instanceof FileBlob);
+		assertContent(blob, 1024);
+		Assert.assertEquals(1, store.getMemoryStore().getRejectedCount());
+	}
+	
+	@Test(expected=IOException.class)
+	public void testDeletedMemoryBlobCannotBeServed() throws IOException {
+		Blob blob = write(10);
+		blob.delete();
+		blob.writeTo(new ByteArrayOutputStream());
+	}
+}
@@ -0,0 +1,208 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.freemarker;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.Entity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+/**
+ * Renders a navigation-like template with a {@link PluginObjectWrapper} 
+ * that has as many plugins as a typical Riot setup. Every object reaching 
+ * the template (beans, strings, lists and maps) is passed to the wrapper. 
+ * The <code>linear</code> variant asks every plugin for every object, like 
+ * the wrapper did before the responsible plugin was cached per class.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PluginObjectWrapperBenchmark {
+
+	private static final String TEMPLATE = 
+			"<#list pages as page>" +
+			"<a href=\"${page.url}\" class=\"${page.properties.cssClass!}\">${page.title}</a>" +
+			"<#list page.children as child><a href=\"${child.url}\">${child.title}</a></#list>" +
+			"</#list>";
+	
+	@Param({"cached", "linear"})
+	private String dispatch;
+	
+	private Template template;
+	
+	private Map<String, Object> model = new HashMap<String, Object>();
+	
+	private Writer out = new NullWriter();
+	
+	@Setup
+	public void setUp() throws IOException {
+		PluginObjectWrapper wrapper = "linear".equals(dispatch) 
+				? new LinearObjectWrapper() : new PluginObjectWrapper();
+		
+		List<ObjectWrapperPlugin> plugins = new ArrayList<ObjectWrapperPlugin>();
+		plugins.add(new TypePlugin(Runnable.class));
+		plugins.add(new TypePlugin(Thread.class));
+		plugins.add(new MapEntityObjectWrapperPlugin());
+		plugins.add(new TypePlugin(Number[].class));
+		plugins.add(new TypePlugin(Readable.class));
+		plugins.add(new TypePlugin(EntityMap.class));
+		wrapper.setPlugins(plugins);
+		
+		Configuration config = new Configuration(Configuration.VERSION_2_3_23);
+		config.setObjectWrapper(wrapper);
+		template = new Template("benchmark", new StringReader(TEMPLATE), config);
+		
+		List<Page> pages = new ArrayList<Page>();
+		for (int i = 0; i < 50; i++) {
+			Page page = new Page("Page " + i);
+			for (int j = 0; j < 10; j++) {
+				page.children.add(new Page("Child " + j));
+			}
+			pages.add(page);
+		}
+		model.put("pages", pages);
+	}
+	
+	@Benchmark
+	public Writer render() throws TemplateException, IOException {
+		template.process(model, out);
+		return out;
+	}
+	
+	private static class LinearObjectWrapper extends PluginObjectWrapper {
+		
+		private List<ObjectWrapperPlugin> plugins;
+		
+		@Override
+		public void setPlugins(Collection<ObjectWrapperPlugin> plugins) {
+			super.setPlugins(plugins);
+			this.plugins = new ArrayList<ObjectWrapperPlugin>(plugins);
+		}
+		
+		@Override
+		public TemplateModel wrap(Object obj) throws TemplateModelException {
+			if (obj == null) {
+				return null;
+			}
+			if (obj instanceof TemplateModel) {
+				return (TemplateModel) obj;
+			}
+			for (ObjectWrapperPlugin plugin : plugins) {
+				if (plugin.supports(obj)) {
+					return plugin.wrapSupportedObject(obj, this);
+				}
+			}
+			return wrapUnsupportedObject(obj);
+		}
+	}
+	
+	/**
+	 * Plugin that checks the type, like most plugins do.
+	 */
+	private static class TypePlugin implements ObjectWrapperPlugin {
+		
+		private Class<?> type;
+		
+		public TypePlugin(Class<?> type) {
+			this.type = type;
+		}
+		
+		public boolean supports(Object obj) {
+			return type.isInstance(obj);
+		}
+		
+		public TemplateModel wrapSupportedObject(Object obj,
+				PluginObjectWrapper wrapper) throws TemplateModelException {
+			
+			return wrapper.wrapUnsupportedObject(obj);
+		}
+	}
+	
+	@Entity
+	private static class EntityMap extends HashMap<String, Object> {
+	}
+	
+	public static class Page {
+		
+		private String title;
+		
+		private List<Page> children = new ArrayList<Page>();
+		
+		private Map<String, Object> properties = new HashMap<String, Object>();
+		
+		public Page(String title) {
+			this.title = title;
+			properties.put("cssClass", "nav");
+		}
+		
+		public String getTitle() {
+			return title;
+		}
+		
+		public String getUrl() {
+			return "/" + title.toLowerCase().replace(' ', '-') + ".html";
+		}
+		
+		public List<Page> getChildren() {
+			return children;
+		}
+		
+		public Map<String, Object> getProperties() {
+			return properties;
+		}
+	}
+	
+	private static class NullWriter extends Writer {
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+		
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
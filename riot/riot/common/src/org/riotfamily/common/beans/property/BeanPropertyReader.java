@@ -0,0 +1,106 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.beans.property;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Reads bean properties using getter methods that are looked up once per 
+ * class. Unlike a BeanWrapperImpl, no objects are created per access, which
+ * makes it suitable for code that reads a few properties of many beans, 
+ * like URL generation. Nested properties are supported using dots, indexed
+ * or mapped properties are not.
+ * 
+ * @since 10.0.0
+ */
+public final class BeanPropertyReader {
+
+	private static ConcurrentHashMap<Class<?>, BeanPropertyReader> readers = 
+			new ConcurrentHashMap<Class<?>, BeanPropertyReader>();
+	
+	private Map<String, Method> getters = new HashMap<String, Method>();
+	
+	private BeanPropertyReader(Class<?> clazz) {
+		for (PropertyDescriptor pd : BeanUtils.getPropertyDescriptors(clazz)) {
+			Method getter = pd.getReadMethod();
+			if (getter != null) {
+				ReflectionUtils.makeAccessible(getter);
+				getters.put(pd.getName(), getter);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the (shared) reader for the given class.
+	 */
+	public static BeanPropertyReader forClass(Class<?> clazz) {
+		BeanPropertyReader reader = readers.get(clazz);
+		if (reader == null) {
+			reader = new BeanPropertyReader(clazz);
+			BeanPropertyReader existing = readers.putIfAbsent(clazz, reader);
+			if (existing != null) {
+				reader = existing;
+			}
+		}
+		return reader;
+	}
+	
+	/**
+	 * Returns whether the class has a getter for the given property.
+	 */
+	public boolean isReadable(String name) {
+		return getters.containsKey(name);
+	}
+	
+	/**
+	 * Returns the value of the given (non-nested) property, or 
+	 * <code>null</code> if the property is not readable.
+	 */
+	public Object getValue(Object bean, String name) {
+		Method getter = getters.get(name);
+		if (getter == null) {
+			return null;
+		}
+		return ReflectionUtils.invokeMethod(getter, bean);
+	}
+	
+	/**
+	 * Returns the value of the given property path, or <code>null</code> if 
+	 * the path can't be resolved because a property is not readable or an
+	 * intermediate value is <code>null</code>.
+	 */
+	public static Object getProperty(Object bean, String path) {
+		int start = 0;
+		int dot = path.indexOf('.');
+		while (dot != -1 && bean != null) {
+			bean = forClass(bean.getClass()).getValue(bean, 
+					path.substring(start, dot));
+			
+			start = dot + 1;
+			dot = path.indexOf('.', start);
+		}
+		if (bean == null) {
+			return null;
+		}
+		return forClass(bean.getClass()).getValue(bean, 
+				start == 0 ? path : path.substring(start));
+	}
+	
+}
@@ -0,0 +1,26 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.freemarker;
+
+/**
+ * Marker interface for {@link ObjectWrapperPlugin plugins} whose 
+ * {@link #supports(Object)} method depends on the state of the given 
+ * object and not only on its class. The {@link PluginObjectWrapper} caches
+ * the responsible plugin per class, but always asks plugins implementing 
+ * this interface.
+ * 
+ * @since 10.0.0
+ */
+public interface InstanceBasedObjectWrapperPlugin extends ObjectWrapperPlugin {
+
+}
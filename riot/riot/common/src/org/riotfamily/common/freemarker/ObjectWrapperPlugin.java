@@ -21,6 +21,12 @@ import freemarker.template.TemplateModelException;
  */
 public interface ObjectWrapperPlugin {
 
+	/**
+	 * Returns whether the plugin wraps the given object. Unless the plugin
+	 * implements {@link InstanceBasedObjectWrapperPlugin}, the result must 
+	 * only depend on the object's class, as it is cached per class by the
+	 * {@link PluginObjectWrapper}.
+	 */
 	public boolean supports(Object obj);
 
 	public TemplateModel wrapSupportedObject(Object obj, 
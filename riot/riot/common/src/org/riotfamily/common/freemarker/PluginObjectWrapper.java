@@ -12,7 +12,10 @@
  */
 package org.riotfamily.common.freemarker;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.riotfamily.common.util.SpringUtils;
 import org.springframework.context.ApplicationContext;
@@ -23,6 +26,11 @@ import freemarker.template.TemplateModel;
 import freemarker.template.TemplateModelException;
 
 /**
+ * ObjectWrapper that delegates to the first {@link ObjectWrapperPlugin} that
+ * supports a given object. The responsible plugin is looked up once per 
+ * class, only {@link InstanceBasedObjectWrapperPlugin}s are asked for 
+ * every object.
+ * 
  * @author Felix Gnass [fgnass at neteye dot de]
  * @since 6.5
  */
@@ -31,12 +39,16 @@ public class PluginObjectWrapper extends DefaultObjectWrapper
 
 	private Collection<ObjectWrapperPlugin> plugins;
 	
+	private ConcurrentHashMap<Class<?>, Dispatch> dispatchCache = 
+			new ConcurrentHashMap<Class<?>, Dispatch>();
+	
 	public void setApplicationContext(ApplicationContext ctx) {
 		setPlugins(SpringUtils.orderedBeans(ctx, ObjectWrapperPlugin.class));
 	}
 	
 	public void setPlugins(Collection<ObjectWrapperPlugin> plugins) {
 		this.plugins = plugins;
+		dispatchCache.clear();
 	}
 	
 	@Override
@@ -47,18 +59,64 @@ public class PluginObjectWrapper extends DefaultObjectWrapper
 		if (obj instanceof TemplateModel) {
 			return (TemplateModel) obj;
 		}
-		for (ObjectWrapperPlugin plugin : plugins) {
-			if (plugin.supports(obj)) {
-				return plugin.wrapSupportedObject(obj, this);
-			}
+		ObjectWrapperPlugin plugin = getDispatch(obj).getPlugin(obj);
+		if (plugin != null) {
+			return plugin.wrapSupportedObject(obj, this);
 		}
 		return wrapUnsupportedObject(obj);
 	}
 	
+	private Dispatch getDispatch(Object obj) {
+		Dispatch dispatch = dispatchCache.get(obj.getClass());
+		if (dispatch == null) {
+			dispatch = new Dispatch(obj);
+			dispatchCache.put(obj.getClass(), dispatch);
+		}
+		return dispatch;
+	}
+	
 	public TemplateModel wrapUnsupportedObject(Object obj) 
 			throws TemplateModelException {
 		
 		return super.wrap(obj);
 	}
 	
+	/**
+	 * Plugins to consider for a certain class: the first plugin that 
+	 * supports the class, preceded by all instance-based plugins that have
+	 * a higher precedence.
+	 */
+	private class Dispatch {
+		
+		private ObjectWrapperPlugin[] instanceBased;
+		
+		private ObjectWrapperPlugin plugin;
+		
+		Dispatch(Object obj) {
+			List<ObjectWrapperPlugin> candidates = new ArrayList<ObjectWrapperPlugin>();
+			if (plugins != null) {
+				for (ObjectWrapperPlugin candidate : plugins) {
+					if (candidate instanceof InstanceBasedObjectWrapperPlugin) {
+						candidates.add(candidate);
+					}
+					else if (candidate.supports(obj)) {
+						plugin = candidate;
+						break;
+					}
+				}
+			}
+			instanceBased = candidates.toArray(
+					new ObjectWrapperPlugin[candidates.size()]);
+		}
+		
+		ObjectWrapperPlugin getPlugin(Object obj) {
+			for (ObjectWrapperPlugin candidate : instanceBased) {
+				if (candidate.supports(obj)) {
+					return candidate;
+				}
+			}
+			return plugin;
+		}
+	}
+	
 }
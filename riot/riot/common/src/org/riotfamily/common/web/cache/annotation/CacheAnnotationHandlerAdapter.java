@@ -24,6 +24,7 @@ import java.util.Date;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -32,8 +33,11 @@ import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 import org.quartz.CronExpression;
 import org.riotfamily.cachius.CacheContext;
+import org.riotfamily.cachius.CacheKey;
 import org.riotfamily.cachius.CacheService;
 import org.riotfamily.cachius.http.AbstractHttpHandler;
+import org.riotfamily.cachius.http.content.ContentEncodings;
+import org.riotfamily.cachius.http.content.ParallelFragmentRenderer;
 import org.riotfamily.common.util.ExceptionUtils;
 import org.riotfamily.common.util.FormatUtils;
 import org.riotfamily.common.util.Generics;
@@ -92,12 +96,30 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 
 	Logger log = LoggerFactory.getLogger(CacheAnnotationHandlerAdapter.class);
 	
+	private static final String ARGS_START = CacheKey.intern(" {");
+	
+	private static final String ARG_SEPARATOR = CacheKey.intern(";");
+	
+	private static final String ARGS_END = CacheKey.intern("}");
+	
 	private CacheService cacheService;
 	
+	private Map<Method, String> methodSegments = 
+			new ConcurrentHashMap<Method, String>();
+	
+	/** Whether a subclass overrides {@link #getDefaultCacheKeyPrefix} */
+	private boolean customPrefix;
+	
 	CacheKeyAugmentor cacheKeyAugmentor;
 	
 	ViewResolverHelper viewResolverHelper;
 	
+	private ParallelFragmentRenderer fragmentRenderer;
+	
+	private boolean teeCapture;
+	
+	private ContentEncodings contentEncodings;
+	
 	private int order = 0;
 	
 	private Set<Class<? extends Annotation>> ignoredAnnotations;
@@ -113,6 +135,9 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 
 		this.cacheService = cacheService;
 		this.cacheKeyAugmentor = cacheKeyAugmentor;
+		this.customPrefix = ReflectionUtils.findMethod(getClass(), 
+				"getDefaultCacheKeyPrefix", HttpServletRequest.class, 
+				Method.class).getDeclaringClass() != CacheAnnotationHandlerAdapter.class;
 	}
 	
 	/**
@@ -130,6 +155,29 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 	public void setOrder(int order) {
 		this.order = order;
 	}
+	
+	/**
+	 * Sets a renderer that is used to evaluate includes of cached content
+	 * in parallel.
+	 */
+	public void setFragmentRenderer(ParallelFragmentRenderer fragmentRenderer) {
+		this.fragmentRenderer = fragmentRenderer;
+	}
+
+	/**
+	 * Sets whether binary output should be sent to the client while it is
+	 * captured. Default is <code>false</code>.
+	 */
+	public void setTeeCapture(boolean teeCapture) {
+		this.teeCapture = teeCapture;
+	}
+	
+	/**
+	 * Sets the ContentEncodings used to compress cached content.
+	 */
+	public void setContentEncodings(ContentEncodings contentEncodings) {
+		this.contentEncodings = contentEncodings;
+	}
 
 	public void setSupportedAnnotations(Set<Class<? extends Annotation>> supportedAnnotations) {
 		this.supportedAnnotations = supportedAnnotations;
@@ -194,25 +242,55 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 		return super.handle(request, response, handler);
 	}
 	
+	/**
+	 * Returns the originating URL, followed by the handler method's name and
+	 * its RequestMapping. If overridden, the returned String is used as 
+	 * cache key prefix instead of the one returned by 
+	 * {@link #getDefaultCacheKeySegments(HttpServletRequest, Method)}.
+	 */
 	protected String getDefaultCacheKeyPrefix(HttpServletRequest request, Method handlerMethod) {
-		return ServletUtils.getOriginatingRequestUrl(request)
-			.append('#').append(handlerMethod.getName())
-			.append('@').append(StringUtils.unqualify(handlerMethod.getAnnotation(RequestMapping.class).toString()))
-			.toString();
+		return getDefaultCacheKeySegments(request, handlerMethod).toString();
+	}
+	
+	/**
+	 * Returns the default cache key prefix as {@link CacheKey}. Only the 
+	 * method part is an {@link CacheKey#intern(String) interned} segment, 
+	 * as the URL prefix is derived from the Host header.
+	 * 
+	 * @since 10.0.0
+	 */
+	protected CacheKey getDefaultCacheKeySegments(HttpServletRequest request, Method handlerMethod) {
+		return new CacheKey.Builder(3)
+			.append(ServletUtils.getAbsoluteUrlPrefix(request))
+			.append(ServletUtils.getOriginatingRequestUri(request))
+			.append(getMethodSegment(handlerMethod))
+			.build();
+	}
+	
+	private String getMethodSegment(Method handlerMethod) {
+		String segment = methodSegments.get(handlerMethod);
+		if (segment == null) {
+			segment = CacheKey.intern('#' + handlerMethod.getName() + '@' 
+					+ StringUtils.unqualify(handlerMethod.getAnnotation(
+					RequestMapping.class).toString()));
+			
+			methodSegments.put(handlerMethod, segment);
+		}
+		return segment;
 	}
 	
 	protected CharSequence getDefaultMethodLevelCacheKey(Method handlerMethod, Object[] args) {
-		StringBuilder key = new StringBuilder();
-		key.append(" {");
 		Class<?>[] types = handlerMethod.getParameterTypes();
 		Annotation[][] ann = handlerMethod.getParameterAnnotations();
+		CacheKey.Builder key = new CacheKey.Builder(types.length * 2 + 2);
+		key.append(ARGS_START);
 		for (int i = 0; i < types.length; i++) {
 			if (isSupportedArgument(ann[i], types[i])) {
-				key.append(String.valueOf(args[i])).append(';');
+				key.append(String.valueOf(args[i])).append(ARG_SEPARATOR);
 			}
 		}
-		key.append('}');
-		return key;
+		key.append(ARGS_END);
+		return key.build();
 	}
 	
 	protected boolean isSupportedArgument(Annotation[] annotations, Class<?> type) {
@@ -280,6 +358,9 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 			
 			super(request, response);
 			this.handler = handler;
+			setFragmentRenderer(fragmentRenderer);
+			setTeeEnabled(teeCapture);
+			setContentEncodings(contentEncodings);
 			init();
 		}
 		
@@ -329,6 +410,12 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 		
 		@Override
 		public String getCacheKey() {
+			CacheKey key = getKey();
+			return key != null ? key.toString() : null;
+		}
+		
+		@Override
+		public CacheKey getKey() {
 			if (annotation == null) {
 				return null;
 			}
@@ -341,9 +428,12 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 					Assert.isAssignable(CharSequence.class, method.getReturnType());
 					prefix = (CharSequence) method.invoke(handler, getRequest(), handlerMethod);
 				}
-				else {
+				else if (customPrefix) {
 					prefix = getDefaultCacheKeyPrefix(getRequest(), handlerMethod);
 				}
+				else {
+					prefix = getDefaultCacheKeySegments(getRequest(), handlerMethod);
+				}
 				if (prefix == null) {
 					return null;
 				}
@@ -363,11 +453,13 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 					return null;
 				}
 
-				StringBuilder key = new StringBuilder(prefix).append(suffix);
+				CacheKey.Builder key = new CacheKey.Builder().append(prefix).append(suffix);
 				if (cacheKeyAugmentor != null) {
-					cacheKeyAugmentor.augmentCacheKey(key, getRequest());
+					StringBuilder augmentation = new StringBuilder();
+					cacheKeyAugmentor.augmentCacheKey(augmentation, getRequest());
+					key.append(augmentation);
 				}
-				return key.toString();
+				return key.build();
 			}
 			catch (Exception e) {
 				throw ExceptionUtils.wrapReflectionException(e);
@@ -12,15 +12,19 @@
  */
 package org.riotfamily.common.web.cache.controller;
 
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.riotfamily.cachius.CacheService;
+import org.riotfamily.cachius.http.content.ContentEncodings;
+import org.riotfamily.cachius.http.content.ParallelFragmentRenderer;
 import org.riotfamily.common.web.cache.CacheKeyAugmentor;
 import org.riotfamily.common.web.mvc.view.ViewResolverHelper;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.core.Ordered;
+import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.servlet.HandlerAdapter;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.LastModified;
@@ -51,6 +55,14 @@ public class CacheableControllerHandlerAdapter implements HandlerAdapter,
 
     private CacheKeyAugmentor cacheKeyAugmentor;
     
+    private ParallelFragmentRenderer fragmentRenderer;
+    
+    private boolean teeCapture;
+    
+    private ContentEncodings contentEncodings;
+    
+    private ServletContext servletContext;
+    
     private int order = 0;
 
     public CacheableControllerHandlerAdapter(CacheService cacheService) {
@@ -80,12 +92,38 @@ public class CacheableControllerHandlerAdapter implements HandlerAdapter,
 
 	public void setApplicationContext(ApplicationContext context) {
         viewResolverHelper = new ViewResolverHelper(context);
+        if (context instanceof WebApplicationContext) {
+        	servletContext = ((WebApplicationContext) context).getServletContext();
+        }
     }
 
 	public void setCacheKeyAugmentor(CacheKeyAugmentor cacheKeyAugmentor) {
 		this.cacheKeyAugmentor = cacheKeyAugmentor;
 	}
 	
+	/**
+	 * Sets a renderer that is used to evaluate includes of cached content
+	 * in parallel.
+	 */
+	public void setFragmentRenderer(ParallelFragmentRenderer fragmentRenderer) {
+		this.fragmentRenderer = fragmentRenderer;
+	}
+	
+	/**
+	 * Sets whether binary output should be sent to the client while it is
+	 * captured. Default is <code>false</code>.
+	 */
+	public void setTeeCapture(boolean teeCapture) {
+		this.teeCapture = teeCapture;
+	}
+	
+	/**
+	 * Sets the ContentEncodings used to compress cached content.
+	 */
+	public void setContentEncodings(ContentEncodings contentEncodings) {
+		this.contentEncodings = contentEncodings;
+	}
+	
     /**
      * Returns <code>true</code> if handler implements the
      * {@link CacheableController} interface.
@@ -100,10 +138,15 @@ public class CacheableControllerHandlerAdapter implements HandlerAdapter,
     public final ModelAndView handle(HttpServletRequest request,
             HttpServletResponse response, Object handler) throws Exception {
 
-    	cacheService.handle(new ControllerCacheHandler(
+    	ControllerCacheHandler cacheHandler = new ControllerCacheHandler(
     			request, response, (CacheableController) handler, 
-    			cacheKeyAugmentor, viewResolverHelper));
+    			cacheKeyAugmentor, viewResolverHelper);
     	
+    	cacheHandler.setFragmentRenderer(fragmentRenderer);
+    	cacheHandler.setTeeEnabled(teeCapture);
+    	cacheHandler.setContentEncodings(contentEncodings);
+    	cacheHandler.setServletContext(servletContext);
+    	cacheService.handle(cacheHandler);
         return null;
 	}
 	
@@ -12,21 +12,35 @@
  */
 package org.riotfamily.common.web.cache.controller;
 
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.riotfamily.cachius.CacheContext;
+import org.riotfamily.cachius.CacheHandler;
+import org.riotfamily.cachius.CacheKey;
+import org.riotfamily.cachius.ReplayableCacheHandler;
 import org.riotfamily.cachius.http.AbstractHttpHandler;
+import org.riotfamily.cachius.http.support.DetachedRequest;
 import org.riotfamily.common.web.cache.CacheKeyAugmentor;
 import org.riotfamily.common.web.mvc.view.ViewResolverHelper;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.View;
 
 /**
+ * CacheHandler for {@link CacheableController cacheable controllers}.
+ * <p>
+ * In regions with {@link org.riotfamily.cachius.Region#setRefreshAhead(boolean)
+ * refresh-ahead} enabled, items are re-captured in the background by 
+ * invoking the controller with a {@link DetachedRequest}. The replayed 
+ * request has no session and no user, so controllers that depend on either
+ * should not be cached in such a region.
+ * 
  * @author Felix Gnass [fgnass at neteye dot de]
  * @since 6.5
  */
-public class ControllerCacheHandler extends AbstractHttpHandler {
+public class ControllerCacheHandler extends AbstractHttpHandler 
+		implements ReplayableCacheHandler {
 
 	private CacheableController controller;
 
@@ -34,6 +48,8 @@ public class ControllerCacheHandler extends AbstractHttpHandler {
 	
 	private ViewResolverHelper viewResolverHelper;
 	
+	private ServletContext servletContext;
+	
 	public ControllerCacheHandler(HttpServletRequest request, 
 			HttpServletResponse response, CacheableController controller,
 			CacheKeyAugmentor cacheKeyAugmentor,
@@ -45,14 +61,40 @@ public class ControllerCacheHandler extends AbstractHttpHandler {
 		this.viewResolverHelper = viewResolverHelper;
 	}
 
+	/**
+	 * Sets the ServletContext that is used to obtain request dispatchers 
+	 * when the capture is replayed.
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		this.servletContext = servletContext;
+	}
+	
+	public CacheHandler replay() {
+		ControllerCacheHandler replay = new ControllerCacheHandler(
+				new DetachedRequest(getRequest(), servletContext), null, 
+				controller, cacheKeyAugmentor, viewResolverHelper);
+		
+		replay.setServletContext(servletContext);
+		return prepareReplay(replay);
+	}
+	
 	@Override
 	public String getCacheKey() {
+		CacheKey key = getKey();
+		return key != null ? key.toString() : null;
+	}
+	
+	/**
+	 * Returns a key that consists of the controller's cache-key and the
+	 * augmentation, without concatenating them.
+	 */
+	@Override
+	public CacheKey getKey() {
 		String key = controller.getCacheKey(getRequest());
 		if (key != null) {
-			StringBuilder sb = new StringBuilder();
-			sb.append(key);
-			cacheKeyAugmentor.augmentCacheKey(sb, getRequest());
-			return sb.toString();
+			StringBuilder augmentation = new StringBuilder();
+			cacheKeyAugmentor.augmentCacheKey(augmentation, getRequest());
+			return CacheKey.of(key, augmentation);
 		}
 		return null;
 	}
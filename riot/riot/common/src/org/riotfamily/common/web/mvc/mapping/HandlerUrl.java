@@ -12,15 +12,24 @@
  */
 package org.riotfamily.common.web.mvc.mapping;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.riotfamily.common.beans.property.BeanPropertyReader;
 import org.riotfamily.common.util.Generics;
 import org.springframework.beans.PropertyAccessor;
 
+/**
+ * URL pattern of a handler that can be filled in with values. The pattern 
+ * is parsed once and compiled into an array of literals and an array of 
+ * placeholder names, so that filling it in is a simple concatenation.
+ */
 public class HandlerUrl implements Comparable<HandlerUrl> {
 	
 	private static Pattern placeholders = Pattern.compile(
@@ -30,21 +39,42 @@ public class HandlerUrl implements Comparable<HandlerUrl> {
 	
 	private final Set<String> variables = Generics.newHashSet();
 	
-	private int numberOfPlaceholders;
+	/** Literal parts, there is one more literal than there are placeholders */
+	private final String[] literals;
+	
+	/** Placeholder names in order of appearance */
+	private final String[] names;
+	
+	/** Combined length of all literals */
+	private final int literalLength;
+	
+	private final int numberOfPlaceholders;
 	
 	public HandlerUrl(String path) {
 		this.path = path;
+		List<String> literals = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
 		Matcher m = placeholders.matcher(path);
+		int end = 0;
 		while (m.find()) {
 			String name = m.group(2);
-			if (name != null) {
-				variables.add(name);
-			}
-			else {
-				variables.add(m.group(1));
+			if (name == null) {
+				name = m.group(1);
 			}
-			numberOfPlaceholders++;
+			variables.add(name);
+			names.add(name);
+			literals.add(path.substring(end, m.start()));
+			end = m.end();
+		}
+		literals.add(path.substring(end));
+		this.literals = literals.toArray(new String[literals.size()]);
+		this.names = names.toArray(new String[names.size()]);
+		this.numberOfPlaceholders = this.names.length;
+		int length = 0;
+		for (String literal : literals) {
+			length += literal.length();
 		}
+		this.literalLength = length;
 	}
 	
 	public boolean canFillIn(Collection<?> values) {
@@ -65,28 +95,77 @@ public class HandlerUrl implements Comparable<HandlerUrl> {
 	}
 	
 	public String fillIn(Collection<?> values) {
-		Matcher m = placeholders.matcher(path);
-		StringBuffer sb = new StringBuffer();
+		if (numberOfPlaceholders == 0) {
+			return path;
+		}
+		String[] s = new String[numberOfPlaceholders];
 		Iterator<?> it = values.iterator();
-		while (m.find()) {
-			m.appendReplacement(sb , String.valueOf(it.next()));
+		for (int i = 0; i < s.length; i++) {
+			s[i] = String.valueOf(it.next());
 		}
-		m.appendTail(sb);
-		return sb.toString();
+		return concat(s);
 	}
 	
 	public String fillIn(PropertyAccessor pa) {
-		Matcher m = placeholders.matcher(path);
-		StringBuffer sb = new StringBuffer();
-		while (m.find()) {
-			String name = m.group(2);
-			if (name == null) {
-				name = m.group(1);
+		if (numberOfPlaceholders == 0) {
+			return path;
+		}
+		String[] s = new String[numberOfPlaceholders];
+		for (int i = 0; i < s.length; i++) {
+			s[i] = String.valueOf(pa.getPropertyValue(names[i]));
+		}
+		return concat(s);
+	}
+	
+	/**
+	 * Fills in the values of the given map. Returns <code>null</code> if a
+	 * value is missing.
+	 */
+	public String fillIn(Map<?, ?> values) {
+		if (numberOfPlaceholders == 0) {
+			return path;
+		}
+		String[] s = new String[numberOfPlaceholders];
+		for (int i = 0; i < s.length; i++) {
+			Object value = values.get(names[i]);
+			if (value == null) {
+				return null;
 			}
-			Object value = pa.getPropertyValue(name);
-			m.appendReplacement(sb, String.valueOf(value));
+			s[i] = String.valueOf(value);
+		}
+		return concat(s);
+	}
+	
+	/**
+	 * Fills in the properties of the given bean, which are read using a
+	 * {@link BeanPropertyReader}. Returns <code>null</code> if a property
+	 * can't be read or is <code>null</code>.
+	 */
+	public String fillInProperties(Object bean) {
+		if (numberOfPlaceholders == 0) {
+			return path;
+		}
+		String[] s = new String[numberOfPlaceholders];
+		for (int i = 0; i < s.length; i++) {
+			Object value = BeanPropertyReader.getProperty(bean, names[i]);
+			if (value == null) {
+				return null;
+			}
+			s[i] = String.valueOf(value);
+		}
+		return concat(s);
+	}
+	
+	private String concat(String[] values) {
+		int length = literalLength;
+		for (String value : values) {
+			length += value.length();
+		}
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < values.length; i++) {
+			sb.append(literals[i]).append(values[i]);
 		}
-		m.appendTail(sb);
+		sb.append(literals[values.length]);
 		return sb.toString();
 	}
 
@@ -106,4 +185,4 @@ public class HandlerUrl implements Comparable<HandlerUrl> {
 				getClass().getName(), numberOfPlaceholders, path);
 	}
 
-}
\ No newline at end of file
+}
@@ -35,7 +35,7 @@ public class HandlerUrlResolver implements ApplicationContextAware {
 
 	private ApplicationContext applicationContext;
 	
-	private List<ReverseHandlerMapping> reverseMappings;
+	private volatile List<ReverseHandlerMapping> reverseMappings;
 	
 	public void setParent(HandlerUrlResolver parent) {
 		this.parent = parent;
@@ -45,7 +45,19 @@ public class HandlerUrlResolver implements ApplicationContextAware {
 		this.applicationContext = ctx;
 	}
 
-	protected synchronized List<ReverseHandlerMapping> getMappings() {
+	/**
+	 * Returns the ReverseHandlerMappings. The list is created upon first 
+	 * access, subsequent calls don't need to acquire a lock.
+	 */
+	protected List<ReverseHandlerMapping> getMappings() {
+		List<ReverseHandlerMapping> mappings = reverseMappings;
+		if (mappings == null) {
+			mappings = createMappings();
+		}
+		return mappings;
+	}
+	
+	private synchronized List<ReverseHandlerMapping> createMappings() {
 		if (reverseMappings == null) {
 			Assert.notNull(applicationContext, "The ApplicationContext must be set");
 			Collection<HandlerMapping> mappings = SpringUtils.listBeansOfType(
@@ -55,20 +67,21 @@ public class HandlerUrlResolver implements ApplicationContextAware {
 					SpringUtils.orderedBeansIncludingAncestors(
 							applicationContext, ReverseHandlerMappingAdapter.class);
 			
-			reverseMappings = Generics.newArrayList();
+			List<ReverseHandlerMapping> result = Generics.newArrayList();
 			for (HandlerMapping mapping : mappings) {
 				if (mapping instanceof ReverseHandlerMapping) {
-					reverseMappings.add((ReverseHandlerMapping) mapping);
+					result.add((ReverseHandlerMapping) mapping);
 				}
 				else {
 					for (ReverseHandlerMappingAdapter adapter : adapters) {
 						if (adapter.supports(mapping)) {
-							reverseMappings.add(adapter.adapt(mapping));
+							result.add(adapter.adapt(mapping));
 							break;
 						}
 					}
 				}
 			}
+			reverseMappings = result;
 		}
 		return reverseMappings;
 	}
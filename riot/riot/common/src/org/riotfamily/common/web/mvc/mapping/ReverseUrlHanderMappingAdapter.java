@@ -17,10 +17,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import org.riotfamily.common.beans.property.MapPropertyAccessor;
 import org.riotfamily.common.util.Generics;
-import org.springframework.beans.BeanWrapperImpl;
-import org.springframework.beans.PropertyAccessor;
 import org.springframework.context.ApplicationContext;
 import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
@@ -71,7 +68,7 @@ public class ReverseUrlHanderMappingAdapter implements ReverseHandlerMappingAdap
 		private <T> void register(T key, String url, Map<T, List<HandlerUrl>> map) {
 			List<HandlerUrl> urls = map.get(key);
 			if (urls == null) {
-				urls = Generics.newLinkedList();
+				urls = Generics.newArrayList();
 				map.put(key, urls);
 			}
 			urls.add(new HandlerUrl(url));
@@ -106,7 +103,7 @@ public class ReverseUrlHanderMappingAdapter implements ReverseHandlerMappingAdap
 				if (vars != null && vars.length == 1) {
 					Object var = vars[0];
 					if (var instanceof Map<?, ?>) {
-						return getUrl(urls, new MapPropertyAccessor((Map<?, ?>) var));
+						return getUrl(urls, (Map<?, ?>) var);
 					}
 					if (var instanceof Collection<?>) {
 						return getUrl(urls, (Collection<?>) var);
@@ -119,17 +116,28 @@ public class ReverseUrlHanderMappingAdapter implements ReverseHandlerMappingAdap
 						
 						return getUrl(urls, Collections.singletonList(var));
 					}
-					return getUrl(urls, new BeanWrapperImpl(var));
+					return getUrl(urls, var);
 				}
 				return getUrl(urls, CollectionUtils.arrayToList(vars));
 			}
 			return null;
 		}
 
-		private String getUrl(List<HandlerUrl> urls, PropertyAccessor pa) {
+		private String getUrl(List<HandlerUrl> urls, Map<?, ?> values) {
 			for (HandlerUrl uri : urls) {
-				if (uri.canFillIn(pa)) {
-					return servletPrefix + uri.fillIn(pa);
+				String url = uri.fillIn(values);
+				if (url != null) {
+					return servletPrefix + url;
+				}
+			}
+			return null;
+		}
+		
+		private String getUrl(List<HandlerUrl> urls, Object bean) {
+			for (HandlerUrl uri : urls) {
+				String url = uri.fillInProperties(bean);
+				if (url != null) {
+					return servletPrefix + url;
 				}
 			}
 			return null;
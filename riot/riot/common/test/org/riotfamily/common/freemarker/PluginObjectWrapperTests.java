@@ -0,0 +1,98 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.freemarker;
+
+import static junit.framework.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+public class PluginObjectWrapperTests {
+
+	private PluginObjectWrapper wrapper;
+	
+	private CountingPlugin typePlugin = new CountingPlugin("type");
+	
+	private InstancePlugin instancePlugin = new InstancePlugin();
+	
+	@Before
+	public void setUp() {
+		List<ObjectWrapperPlugin> plugins = new ArrayList<ObjectWrapperPlugin>();
+		plugins.add(instancePlugin);
+		plugins.add(typePlugin);
+		wrapper = new PluginObjectWrapper();
+		wrapper.setPlugins(plugins);
+	}
+	
+	@Test
+	public void pluginIsResolvedOncePerClass() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			assertEquals("type", wrap(new StringBuilder("x")));
+		}
+		assertEquals(1, typePlugin.calls);
+	}
+	
+	@Test
+	public void instanceBasedPluginsAreAlwaysAsked() throws Exception {
+		assertEquals("type", wrap(new StringBuilder("x")));
+		assertEquals("instance", wrap(new StringBuilder("instance")));
+		assertEquals("type", wrap(new StringBuilder("y")));
+		assertEquals(3, instancePlugin.calls);
+	}
+	
+	private String wrap(Object obj) throws TemplateModelException {
+		return ((SimpleScalar) wrapper.wrap(obj)).getAsString();
+	}
+	
+	private static class CountingPlugin implements ObjectWrapperPlugin {
+		
+		private String name;
+		
+		int calls;
+		
+		CountingPlugin(String name) {
+			this.name = name;
+		}
+		
+		public boolean supports(Object obj) {
+			calls++;
+			return obj instanceof CharSequence;
+		}
+		
+		public TemplateModel wrapSupportedObject(Object obj,
+				PluginObjectWrapper wrapper) {
+			
+			return new SimpleScalar(name);
+		}
+	}
+	
+	private static class InstancePlugin extends CountingPlugin 
+			implements InstanceBasedObjectWrapperPlugin {
+		
+		InstancePlugin() {
+			super("instance");
+		}
+		
+		@Override
+		public boolean supports(Object obj) {
+			return super.supports(obj) && obj.toString().equals("instance");
+		}
+	}
+}
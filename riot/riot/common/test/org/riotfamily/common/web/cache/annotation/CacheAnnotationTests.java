@@ -43,12 +43,14 @@ public class CacheAnnotationTests {
 	
 	@Before
 	public void initServlet() throws ServletException {
+		initServlet(new CacheAnnotationHandlerAdapter(new CacheService(), null));
+	}
+	
+	private void initServlet(final CacheAnnotationHandlerAdapter handlerAdapter) throws ServletException {
 		servlet = new DispatcherServlet() {
 			@Override
 			protected WebApplicationContext createWebApplicationContext(WebApplicationContext parent) {
 				GenericWebApplicationContext wac = new GenericWebApplicationContext();
-				CacheService cacheService = new CacheService();
-				CacheAnnotationHandlerAdapter handlerAdapter = new CacheAnnotationHandlerAdapter(cacheService, null);
 				wac.getBeanFactory().initializeBean(handlerAdapter, "handlerAdapter");
 				wac.getBeanFactory().registerSingleton("handlerAdapter", handlerAdapter);
 				wac.registerBeanDefinition("controller1", new RootBeanDefinition(TimeController.class));
@@ -116,6 +118,18 @@ public class CacheAnnotationTests {
 		assertTrue(key, key.startsWith("custom-cached"));
 	}
 	
+	@Test
+	public void overriddenDefaultPrefix() throws Exception {
+		initServlet(new CacheAnnotationHandlerAdapter(new CacheService(), null) {
+			@Override
+			protected String getDefaultCacheKeyPrefix(HttpServletRequest request, Method handlerMethod) {
+				return "overridden";
+			}
+		});
+		String key = get("/key/generated", "name", "world");
+		assertEquals("overridden {world;}", key);
+	}
+	
 	@Test
 	public void nullPrefix() throws Exception {
 		String t1 = get("/custom/uncached");
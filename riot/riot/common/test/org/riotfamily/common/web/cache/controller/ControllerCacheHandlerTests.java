@@ -0,0 +1,117 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.web.cache.controller;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.CacheContext;
+import org.riotfamily.cachius.CacheService;
+import org.riotfamily.cachius.RefreshScheduler;
+import org.riotfamily.cachius.Region;
+import org.riotfamily.cachius.http.support.DetachedRequest;
+import org.riotfamily.cachius.persistence.SimpleDiskStore;
+import org.riotfamily.common.web.cache.NoOpCacheKeyAugmentor;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.ModelAndView;
+
+public class ControllerCacheHandlerTests {
+
+	private CacheService cacheService;
+	
+	private TestController controller = new TestController();
+	
+	@Before
+	public void setUp() {
+		Region region = new Region("default");
+		region.setRefreshAhead(true);
+		cacheService = new CacheService(new SimpleDiskStore(new File(
+				System.getProperty("java.io.tmpdir"), "test")), 
+				Collections.singletonList(region));
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		cacheService.destroy();
+	}
+	
+	@Test
+	public void invalidatedItemsAreRefreshedInTheBackground() throws Exception {
+		assertEquals("v1 x", get());
+		
+		controller.lastModified = System.currentTimeMillis() + 1000;
+		cacheService.invalidateTaggedItems("test");
+		
+		RefreshScheduler scheduler = cacheService.getRefreshScheduler();
+		for (int i = 0; i < 100 && scheduler.getRefreshCount() == 0; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(1, scheduler.getRefreshCount());
+		assertTrue(controller.request instanceof DetachedRequest);
+		
+		assertEquals("v2 x", get());
+		assertEquals(2, controller.version);
+	}
+	
+	private String get() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/test");
+		request.addParameter("p", "x");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		cacheService.handle(new ControllerCacheHandler(request, response, 
+				controller, new NoOpCacheKeyAugmentor(), null));
+		
+		return response.getContentAsString();
+	}
+	
+	private static class TestController implements CacheableController {
+
+		private volatile int version;
+		
+		private volatile long lastModified = System.currentTimeMillis();
+		
+		private volatile HttpServletRequest request;
+		
+		public String getCacheKey(HttpServletRequest request) {
+			return request.getRequestURI();
+		}
+
+		public long getTimeToLive() {
+			return CACHE_ETERNALLY;
+		}
+
+		public long getLastModified(HttpServletRequest request) {
+			return lastModified;
+		}
+
+		public ModelAndView handleRequest(HttpServletRequest request,
+				HttpServletResponse response) throws Exception {
+			
+			this.request = request;
+			CacheContext.tag("test");
+			response.getWriter().print("v" + (++version) + " " 
+					+ request.getParameter("p"));
+			
+			return null;
+		}
+	}
+	
+}
@@ -0,0 +1,82 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.web.mvc.mapping;
+
+import static junit.framework.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.riotfamily.common.beans.property.MapPropertyAccessor;
+
+public class HandlerUrlTests {
+
+	@Test
+	public void fillInValues() {
+		HandlerUrl url = new HandlerUrl("/products/{category}/{id:\\d+}.html");
+		assertTrue(url.canFillIn(Arrays.asList("shoes", 42)));
+		assertFalse(url.canFillIn(Collections.singletonList("shoes")));
+		assertEquals("/products/shoes/42.html", url.fillIn(Arrays.asList("shoes", 42)));
+	}
+	
+	@Test
+	public void valuesAreInsertedLiterally() {
+		HandlerUrl url = new HandlerUrl("/price/*");
+		assertEquals("/price/$5", url.fillIn(Collections.singletonList("$5")));
+	}
+	
+	@Test
+	public void fillInMap() {
+		HandlerUrl url = new HandlerUrl("/products/{category}/{id}");
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("category", "shoes");
+		assertNull(url.fillIn(values));
+		values.put("id", 42);
+		assertEquals("/products/shoes/42", url.fillIn(values));
+		assertEquals("/products/shoes/42", url.fillIn(new MapPropertyAccessor(values)));
+	}
+	
+	@Test
+	public void fillInProperties() {
+		HandlerUrl url = new HandlerUrl("/products/{category.name}/{id}");
+		Product product = new Product();
+		assertNull(url.fillInProperties(product));
+		product.category = new Category();
+		assertEquals("/products/shoes/42", url.fillInProperties(product));
+		assertNull(new HandlerUrl("/{missing}").fillInProperties(product));
+		assertEquals("/static", new HandlerUrl("/static").fillInProperties(product));
+	}
+	
+	public static class Product {
+		
+		private Category category;
+		
+		public Category getCategory() {
+			return category;
+		}
+		
+		public Long getId() {
+			return 42L;
+		}
+	}
+	
+	public static class Category {
+		
+		public String getName() {
+			return "shoes";
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.components.xstream;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.io.OutputFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.riotfamily.components.model.Component;
+import org.riotfamily.components.model.ComponentList;
+import org.riotfamily.components.model.Content;
+import org.riotfamily.components.model.ContentMap;
+
+import com.thoughtworks.xstream.io.xml.Dom4JDriver;
+
+/**
+ * Marshals and unmarshals a Content with a list of components, using either
+ * the {@link XStreamMarshaller} configured like in the default application
+ * context (Dom4JDriver with indentation) or the 
+ * {@link BinaryXStreamMarshaller}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentMarshallerBenchmark {
+
+	@Param({"xml", "binary"})
+	private String format;
+	
+	@Param({"10", "100"})
+	private int components;
+	
+	private XStreamMarshaller marshaller;
+	
+	private String data;
+	
+	private ContentMap contentMap;
+	
+	@Setup
+	public void setUp() throws Exception {
+		marshaller = "binary".equals(format) 
+				? new BinaryXStreamMarshaller() : new XStreamMarshaller();
+		
+		OutputFormat outputFormat = new OutputFormat();
+		outputFormat.setSuppressDeclaration(true);
+		outputFormat.setEncoding("UTF-8");
+		outputFormat.setIndent("\t");
+		outputFormat.setNewlines(true);
+		Dom4JDriver driver = new Dom4JDriver();
+		driver.setOutputFormat(outputFormat);
+		marshaller.setDriver(driver);
+		marshaller.afterPropertiesSet();
+		
+		Content content = new Content();
+		content.setMarshaller(marshaller);
+		content.put("title", "Lorem ipsum dolor sit amet");
+		ComponentList list = new ComponentList(content, "main");
+		for (int i = 0; i < components; i++) {
+			Component component = new Component(list);
+			component.setType(i % 2 == 0 ? "text" : "teaser");
+			component.put("headline", "Headline " + i);
+			component.put("text", "<p>Lorem ipsum dolor sit amet, consectetur "
+					+ "adipisicing elit, sed do eiusmod tempor incididunt ut "
+					+ "labore et dolore magna aliqua.</p>");
+			
+			component.put("position", i);
+			component.put("highlighted", i % 3 == 0);
+			list.add(component);
+		}
+		content.put("main", list);
+		data = content.getXml();
+		contentMap = marshaller.unmarshal(new Content(), data);
+	}
+	
+	@Benchmark
+	public String marshal() {
+		return marshaller.marshal(contentMap);
+	}
+	
+	@Benchmark
+	public ContentMap unmarshal() {
+		return marshaller.unmarshal(new Content(), data);
+	}
+	
+}
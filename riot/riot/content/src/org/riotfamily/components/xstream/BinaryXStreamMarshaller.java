@@ -0,0 +1,74 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.components.xstream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.riotfamily.components.model.Content;
+import org.riotfamily.components.model.ContentMap;
+
+import com.thoughtworks.xstream.core.util.Base64Encoder;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
+
+/**
+ * XStreamMarshaller that stores contents in XStream's compact binary format.
+ * Node names are written only once and referred to by id afterwards, and 
+ * neither a DOM nor any indentation is created. All converters of the 
+ * XStreamMarshaller are used, so the same objects are supported.
+ * <p>
+ * As the column holds text, the bytes are Base64 encoded and prefixed with
+ * {@link #PREFIX}, which includes a format version. Contents that have 
+ * been stored as XML are read using the configured driver and are 
+ * converted when they are saved the next time, so that existing databases
+ * can be migrated gradually.
+ * 
+ * @since 10.0.0
+ */
+public class BinaryXStreamMarshaller extends XStreamMarshaller {
+
+	public static final String PREFIX = "riot-bin:1:";
+	
+	private BinaryStreamDriver binaryDriver = new BinaryStreamDriver();
+	
+	private Base64Encoder base64 = new Base64Encoder();
+	
+	/**
+	 * Returns whether the given data has been written by this marshaller.
+	 */
+	public static boolean isBinary(String data) {
+		return data.startsWith(PREFIX);
+	}
+	
+	@Override
+	public ContentMap unmarshal(Content owner, String data) {
+		if (!isBinary(data)) {
+			return super.unmarshal(owner, data);
+		}
+		byte[] bytes = base64.decode(data.substring(PREFIX.length()));
+		
+		return unmarshal(owner, binaryDriver.createReader(
+				new ByteArrayInputStream(bytes)));
+	}
+	
+	@Override
+	public String marshal(ContentMap contentMap) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HierarchicalStreamWriter writer = binaryDriver.createWriter(out);
+		marshal(contentMap, writer);
+		writer.flush();
+		return PREFIX + base64.encode(out.toByteArray());
+	}
+	
+}
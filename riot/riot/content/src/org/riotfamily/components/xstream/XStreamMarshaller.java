@@ -91,18 +91,34 @@ public class XStreamMarshaller implements ContentMapMarshaller,
 	public ContentMap unmarshal(Content owner, String xml) {
 		HierarchicalStreamReader reader = driver.createReader(new StringReader(
 				xml));
+		return unmarshal(owner, reader);
+	}
+	
+	/**
+	 * Reads a ContentMap from the given reader, which may be created by 
+	 * any driver.
+	 */
+	protected ContentMap unmarshal(Content owner, HierarchicalStreamReader reader) {
 		return (ContentMap) xstream.unmarshal(reader, null,
 				createDataHolder(owner));
 	}
 	
 	public String marshal(ContentMap contentMap) {
-		Content owner = contentMap.getContent();
 		StringWriter sw = new StringWriter();
 		HierarchicalStreamWriter writer = driver.createWriter(sw);
-		xstream.marshal(contentMap, writer, createDataHolder(owner));
+		marshal(contentMap, writer);
 		return sw.toString();
 	}
 	
+	/**
+	 * Writes the given ContentMap to a writer, which may be created by any 
+	 * driver.
+	 */
+	protected void marshal(ContentMap contentMap, HierarchicalStreamWriter writer) {
+		Content owner = contentMap.getContent();
+		xstream.marshal(contentMap, writer, createDataHolder(owner));
+	}
+	
 	public static void addReference(DataHolder dataHolder, Object ref) {
 		Content content = (Content) dataHolder.get("content");
 		content.addReference(ref);
@@ -76,16 +76,17 @@ public class PageHandlerMapping extends AbstractHandlerMapping {
 			HttpServletRequest request) {
 		
 		try {
+			PageRoutingTable routes = PageRoutingTable.getInstance();
+			if (routes != null) {
+				PageRoutingTable.Alias alias = routes.getAlias(site, path);
+				if (alias != null) {
+					return getAliasHandler(alias.getPage(), request);
+				}
+				return null;
+			}
 			PageAlias alias = PageAlias.loadBySiteAndPath(site, path);
 			if (alias != null) {
-				ContentPage page = alias.getPage();
-				if (page != null) {
-					String url = new PageFacade(page, request).getUrl();
-					return new RedirectController(url, true);
-				}
-				else {
-					return new HttpErrorController(HttpServletResponse.SC_GONE);
-				}
+				return getAliasHandler(alias.getPage(), request);
 			}
 			return null;
 		}
@@ -95,4 +96,16 @@ public class PageHandlerMapping extends AbstractHandlerMapping {
 		return null;
 	}
 	
+	/**
+	 * Returns a RedirectController for the page an alias points to, or an
+	 * HttpErrorController that sends a 410 if the page has been deleted.
+	 */
+	private Object getAliasHandler(ContentPage page, HttpServletRequest request) {
+		if (page != null) {
+			String url = new PageFacade(page, request).getUrl();
+			return new RedirectController(url, true);
+		}
+		return new HttpErrorController(HttpServletResponse.SC_GONE);
+	}
+	
 }
@@ -87,6 +87,10 @@ public final class PageResolver {
 	
 	private static Site resolveSite(HttpServletRequest request) {
 		String hostName = request.getServerName();
+		PageRoutingTable routes = PageRoutingTable.getInstance();
+		if (routes != null) {
+			return routes.resolveSite(hostName);
+		}
 		return Site.loadByHostName(hostName);
 	}
 
@@ -96,9 +100,16 @@ public final class PageResolver {
             return null;
         }
         String lookupPath = getLookupPath(request);
-        Page page = ContentPage.loadBySiteAndPath(site, lookupPath);
-        if (page == null) {
-            page = resolveVirtualChildPage(site, lookupPath);
+        Page page;
+        PageRoutingTable routes = PageRoutingTable.getInstance();
+        if (routes != null) {
+        	page = routes.resolvePage(site, lookupPath);
+        }
+        else {
+	        page = ContentPage.loadBySiteAndPath(site, lookupPath);
+	        if (page == null) {
+	            page = resolveVirtualChildPage(site, lookupPath);
+	        }
         }
         if (page == null || ((!site.isEnabled() ||
 				!page.getContentContainer().isPublished()) && 
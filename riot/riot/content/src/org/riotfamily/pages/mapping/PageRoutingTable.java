@@ -0,0 +1,635 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.pages.mapping;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hibernate.Session;
+import org.riotfamily.common.hibernate.EntityListener;
+import org.riotfamily.common.util.FormatUtils;
+import org.riotfamily.pages.config.RootPageType;
+import org.riotfamily.pages.config.SystemPageType;
+import org.riotfamily.pages.model.ContentPage;
+import org.riotfamily.pages.model.Page;
+import org.riotfamily.pages.model.PageAlias;
+import org.riotfamily.pages.model.Site;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In-memory routing table used by the {@link PageResolver}. Host names are
+ * mapped to Site ids, and the paths of each Site's pages and 
+ * {@link PageAlias aliases} are stored in a trie, so that requests can be 
+ * routed without running any queries. The matched entities are loaded by 
+ * id, which is answered by the Session or the second-level cache.
+ * <p>
+ * The table is an {@link EntityListener}. Whenever a Site, ContentPage or
+ * PageAlias is modified, the routes of the affected Site are discarded and
+ * rebuilt upon the next request. As the changes are not visible to other
+ * threads before the transaction is committed, the routes are discarded 
+ * once more after the transaction has completed.
+ * <p>
+ * The listener is only notified of changes made by the local node. In a 
+ * cluster, routes are therefore rebuilt after the configured 
+ * {@link #setTimeToLive(String) time to live}, so that changes made on 
+ * other nodes become visible within that period. Expired routes are rebuilt
+ * by a single thread, while all other threads keep using them. Routes that 
+ * have been discarded are also built by a single thread, but the other 
+ * threads wait for them.
+ * <p>
+ * Additionally the table holds a {@link NavigationNode} for each page, which
+ * allows the {@link org.riotfamily.pages.view.PageFacade PageFacade} to
+ * navigate the tree without initializing any lazy collections.
+ * <p>
+ * Like the {@link org.riotfamily.common.hibernate.ActiveRecordInitializer}
+ * the constructor publishes a static reference. If no table has been 
+ * configured, the PageResolver falls back to database queries.
+ * 
+ * @since 10.0.0
+ */
+public class PageRoutingTable implements EntityListener {
+
+	public static final String DEFAULT_TIME_TO_LIVE = "1m";
+	
+	private static PageRoutingTable instance;
+	
+	private volatile HostRoutes hostRoutes;
+	
+	private ReentrantLock hostLock = new ReentrantLock();
+	
+	private ConcurrentHashMap<Long, SiteRoutes> siteRoutes = 
+			new ConcurrentHashMap<Long, SiteRoutes>();
+	
+	/** Incremented whenever the routes of all sites are discarded */
+	private AtomicLong generation = new AtomicLong();
+	
+	private ConcurrentHashMap<Long, SiteState> siteStates = 
+			new ConcurrentHashMap<Long, SiteState>();
+	
+	private long timeToLive = FormatUtils.parseMillis(DEFAULT_TIME_TO_LIVE);
+	
+	public PageRoutingTable() {
+		instance = this;
+	}
+	
+	/**
+	 * Sets the period after which routes are rebuilt, even if no local 
+	 * modification has been detected. Defaults to one minute.
+	 * 
+	 * @see FormatUtils#parseMillis(String)
+	 */
+	public void setTimeToLive(String timeToLive) {
+		this.timeToLive = FormatUtils.parseMillis(timeToLive);
+	}
+	
+	/**
+	 * Returns the configured table, or <code>null</code> if there is none.
+	 */
+	public static PageRoutingTable getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Returns the Site for the given host name. Sites without a host name
+	 * match any host, if no other Site matches.
+	 */
+	public Site resolveSite(String hostName) {
+		Long id = getHostRoutes().resolve(hostName);
+		return id != null ? Site.load(id) : null;
+	}
+	
+	/**
+	 * Returns the page with the given path, or a virtual child of the closest
+	 * virtual parent page.
+	 */
+	public Page resolvePage(Site site, String path) {
+		Node node = getRoutes(site).lookup(path);
+		if (node == null) {
+			return null;
+		}
+		if (node.path.equals(path)) {
+			return ContentPage.load(node.pageId);
+		}
+		ContentPage parent = ContentPage.load(node.pageId);
+		if (parent == null) {
+			return null;
+		}
+		String tail = getVirtualChildPath(node, path, RootPageType.class.equals(
+				parent.getPageType().getClass()));
+		
+		if (tail != null) {
+			SystemPageType parentType = (SystemPageType) parent.getPageType();
+			return parentType.getVirtualChildType().resolve(parent, tail);
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the part of the path that follows the path of the given virtual
+	 * parent, or <code>null</code> if the path does not denote a child of 
+	 * the parent. Only the root page's children are not separated by a 
+	 * slash, as the root page's path already ends with one.
+	 */
+	static String getVirtualChildPath(Node parent, String path, boolean root) {
+		String tail = path.substring(parent.path.length());
+		if (tail.startsWith("/") || root) {
+			return tail;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the alias registered for the given path, or <code>null</code>
+	 * if there is none.
+	 */
+	public Alias getAlias(Site site, String path) {
+		return getRoutes(site).getAlias(path);
+	}
+	
+	/**
+	 * Returns the navigation node of the given page, or <code>null</code> if
+	 * the page has not been saved yet.
+	 */
+	public NavigationNode getNavigationNode(ContentPage page) {
+		if (page.getId() == null || page.getSite() == null) {
+			return null;
+		}
+		return getNavigationNode(page.getSite(), page.getId());
+	}
+	
+	/**
+	 * Returns the navigation node of the page with the given id, or 
+	 * <code>null</code> if the Site contains no such page.
+	 */
+	public NavigationNode getNavigationNode(Site site, Long pageId) {
+		return getRoutes(site).getNavigationNode(pageId);
+	}
+	
+	/**
+	 * Discards the routes of all sites.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		hostRoutes = null;
+		siteRoutes.clear();
+	}
+	
+	/**
+	 * Discards the routes of the given site.
+	 */
+	public void invalidate(Site site) {
+		if (site == null || site.getId() == null) {
+			invalidate();
+		}
+		else {
+			getSiteState(site.getId()).generation.incrementAndGet();
+			siteRoutes.remove(site.getId());
+		}
+	}
+	
+	private SiteState getSiteState(Long siteId) {
+		SiteState state = siteStates.get(siteId);
+		if (state == null) {
+			state = new SiteState();
+			SiteState existing = siteStates.putIfAbsent(siteId, state);
+			if (existing != null) {
+				state = existing;
+			}
+		}
+		return state;
+	}
+	
+	private HostRoutes getHostRoutes() {
+		HostRoutes routes = hostRoutes;
+		if (routes != null && !routes.isExpired(timeToLive)) {
+			return routes;
+		}
+		if (routes == null) {
+			hostLock.lock();
+		}
+		else if (!hostLock.tryLock()) {
+			// Another thread is rebuilding the expired routes
+			return routes;
+		}
+		try {
+			HostRoutes current = hostRoutes;
+			if (current != null && !current.isExpired(timeToLive)) {
+				return current;
+			}
+			long gen = generation.get();
+			routes = loadHostRoutes();
+			hostRoutes = routes;
+			if (generation.get() != gen) {
+				// Routes have been discarded while we were building them
+				hostRoutes = null;
+			}
+			return routes;
+		}
+		finally {
+			hostLock.unlock();
+		}
+	}
+	
+	SiteRoutes getRoutes(Site site) {
+		SiteRoutes routes = siteRoutes.get(site.getId());
+		if (routes != null && !routes.isExpired(timeToLive)) {
+			return routes;
+		}
+		SiteState state = getSiteState(site.getId());
+		if (routes == null) {
+			state.lock.lock();
+		}
+		else if (!state.lock.tryLock()) {
+			// Another thread is rebuilding the expired routes
+			return routes;
+		}
+		try {
+			SiteRoutes current = siteRoutes.get(site.getId());
+			if (current != null && !current.isExpired(timeToLive)) {
+				return current;
+			}
+			long gen = generation.get();
+			long sgen = state.generation.get();
+			routes = loadRoutes(site);
+			siteRoutes.put(site.getId(), routes);
+			if (generation.get() != gen || state.generation.get() != sgen) {
+				// Routes have been discarded while we were building them
+				siteRoutes.remove(site.getId(), routes);
+			}
+			return routes;
+		}
+		finally {
+			state.lock.unlock();
+		}
+	}
+	
+	HostRoutes loadHostRoutes() {
+		return new HostRoutes(Site.findAll());
+	}
+	
+	SiteRoutes loadRoutes(Site site) {
+		return new SiteRoutes(site.getSchema().getVirtualParents(), 
+				ContentPage.listPathsBySite(site), 
+				PageAlias.listPathsBySite(site),
+				ContentPage.listChildIdsBySite(site));
+	}
+	
+	// ----------------------------------------------------------------------
+	// Implementation of the EntityListener interface
+	// ----------------------------------------------------------------------
+	
+	public boolean supports(Class<?> entityClass) {
+		return Site.class.isAssignableFrom(entityClass)
+				|| ContentPage.class.isAssignableFrom(entityClass)
+				|| PageAlias.class.isAssignableFrom(entityClass);
+	}
+	
+	public void onSave(Object entity, Session session) {
+		entityChanged(entity);
+	}
+	
+	public void onUpdate(Object entity, Object oldState, Session session) {
+		entityChanged(entity);
+	}
+	
+	public void onDelete(Object entity, Session session) {
+		entityChanged(entity);
+	}
+	
+	private void entityChanged(Object entity) {
+		final Site site;
+		if (entity instanceof ContentPage) {
+			site = ((ContentPage) entity).getSite();
+		}
+		else if (entity instanceof PageAlias) {
+			site = ((PageAlias) entity).getSite();
+		}
+		else {
+			site = null;
+		}
+		invalidate(site);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(
+					new TransactionSynchronizationAdapter() {
+				
+				@Override
+				public void afterCompletion(int status) {
+					invalidate(site);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Alias for a page that has been moved or renamed.
+	 */
+	public static class Alias {
+		
+		private Long pageId;
+		
+		Alias(Long pageId) {
+			this.pageId = pageId;
+		}
+		
+		Long getPageId() {
+			return pageId;
+		}
+		
+		/**
+		 * Returns the page the alias points to, or <code>null</code> if the
+		 * page has been deleted.
+		 */
+		public ContentPage getPage() {
+			return pageId != null ? ContentPage.load(pageId) : null;
+		}
+	}
+	
+	/**
+	 * Immutable snapshot of a page's position within the page tree.
+	 */
+	public static class NavigationNode {
+		
+		private Long pageId;
+		
+		private Long parentId;
+		
+		private String path;
+		
+		private int index;
+		
+		private List<Long> childIds = Collections.emptyList();
+		
+		NavigationNode(Long pageId, Long parentId, String path) {
+			this.pageId = pageId;
+			this.parentId = parentId;
+			this.path = path;
+		}
+		
+		public Long getPageId() {
+			return pageId;
+		}
+		
+		/**
+		 * Returns the id of the parent page, or <code>null</code> for root 
+		 * pages.
+		 */
+		public Long getParentId() {
+			return parentId;
+		}
+		
+		public String getPath() {
+			return path;
+		}
+		
+		/**
+		 * Returns the position of the page within its parent's children.
+		 */
+		public int getIndex() {
+			return index;
+		}
+		
+		/**
+		 * Returns the ids of the child pages in their natural order.
+		 */
+		public List<Long> getChildIds() {
+			return childIds;
+		}
+		
+		public ContentPage getPage() {
+			return ContentPage.load(pageId);
+		}
+	}
+	
+	/**
+	 * Generation and lock of a single site's routes.
+	 */
+	private static class SiteState {
+		
+		/** Incremented whenever the routes of the site are discarded */
+		private AtomicLong generation = new AtomicLong();
+		
+		/** Held by the thread that builds the routes */
+		private ReentrantLock lock = new ReentrantLock();
+	}
+	
+	/**
+	 * Base class for routes that expire after a given period.
+	 */
+	static abstract class Routes {
+		
+		private long created = System.currentTimeMillis();
+		
+		boolean isExpired(long timeToLive) {
+			return System.currentTimeMillis() - created > timeToLive;
+		}
+	}
+	
+	/**
+	 * Maps host names (and host name aliases) to Site ids. Host names take
+	 * precedence over aliases, otherwise the first Site wins.
+	 */
+	static class HostRoutes extends Routes {
+		
+		private Map<String, Long> hosts = new HashMap<String, Long>();
+		
+		private Long catchAll;
+		
+		HostRoutes(List<Site> sites) {
+			for (Site site : sites) {
+				if (site.getHostName() != null) {
+					add(site.getHostName(), site);
+				}
+				else if (catchAll == null) {
+					catchAll = site.getId();
+				}
+			}
+			for (Site site : sites) {
+				if (site.getAliases() != null) {
+					for (String alias : site.getAliases()) {
+						add(alias, site);
+					}
+				}
+			}
+		}
+		
+		private void add(String hostName, Site site) {
+			if (!hosts.containsKey(hostName)) {
+				hosts.put(hostName, site.getId());
+			}
+		}
+		
+		Long resolve(String hostName) {
+			Long id = hosts.get(hostName);
+			return id != null ? id : catchAll;
+		}
+	}
+	
+	/**
+	 * Trie of the page paths of a Site, a map of its aliases and the 
+	 * navigation nodes of its pages. None of them is modified after 
+	 * construction.
+	 */
+	static class SiteRoutes extends Routes {
+		
+		private Node root = new Node();
+		
+		private Map<String, Alias> aliases = new HashMap<String, Alias>();
+		
+		private Map<Long, NavigationNode> nodes = new HashMap<Long, NavigationNode>();
+		
+		/**
+		 * Creates the routes from the rows returned by 
+		 * {@link ContentPage#listPathsBySite(Site)}, 
+		 * {@link PageAlias#listPathsBySite(Site)} and 
+		 * {@link ContentPage#listChildIdsBySite(Site)}.
+		 */
+		SiteRoutes(Collection<String> virtualParents, List<?> pages, 
+				List<?> aliasRows, List<?> childRows) {
+			
+			for (Object row : pages) {
+				Object[] values = (Object[]) row;
+				String path = (String) values[1];
+				nodes.put((Long) values[0], new NavigationNode((Long) values[0], 
+						(Long) values[3], path));
+				
+				if (path != null) {
+					Node node = root.getOrCreate(path);
+					node.path = path;
+					node.pageId = (Long) values[0];
+					node.virtualParent = virtualParents != null 
+							&& virtualParents.contains(values[2]);
+				}
+			}
+			for (Object row : aliasRows) {
+				Object[] values = (Object[]) row;
+				aliases.put((String) values[0], new Alias((Long) values[1]));
+			}
+			addChildIds(childRows);
+		}
+		
+		private void addChildIds(List<?> rows) {
+			Map<Long, TreeMap<Integer, Long>> children = 
+					new HashMap<Long, TreeMap<Integer, Long>>();
+			
+			for (Object row : rows) {
+				Object[] values = (Object[]) row;
+				if (nodes.containsKey(values[0]) && nodes.containsKey(values[1])) {
+					TreeMap<Integer, Long> ids = children.get(values[0]);
+					if (ids == null) {
+						ids = new TreeMap<Integer, Long>();
+						children.put((Long) values[0], ids);
+					}
+					ids.put((Integer) values[2], (Long) values[1]);
+				}
+			}
+			for (Map.Entry<Long, TreeMap<Integer, Long>> entry : children.entrySet()) {
+				List<Long> childIds = new ArrayList<Long>(entry.getValue().values());
+				for (int i = 0; i < childIds.size(); i++) {
+					nodes.get(childIds.get(i)).index = i;
+				}
+				nodes.get(entry.getKey()).childIds = 
+						Collections.unmodifiableList(childIds);
+			}
+		}
+		
+		Alias getAlias(String path) {
+			return aliases.get(path);
+		}
+		
+		NavigationNode getNavigationNode(Long pageId) {
+			return nodes.get(pageId);
+		}
+		
+		/**
+		 * Returns the node of the page with the given path. If there is no
+		 * such page, the node of the closest virtual parent is returned, or 
+		 * <code>null</code> if there is none.
+		 */
+		Node lookup(String path) {
+			Node node = root;
+			Node virtualParent = null;
+			int start = 1;
+			while (node != null) {
+				if (node.virtualParent) {
+					virtualParent = node;
+				}
+				if (start >= path.length()) {
+					return node.pageId != null ? node : virtualParent;
+				}
+				int end = path.indexOf('/', start);
+				if (end == -1) {
+					end = path.length();
+				}
+				node = node.getChild(path.substring(start, end));
+				start = end + 1;
+			}
+			return virtualParent;
+		}
+	}
+	
+	static class Node {
+		
+		private Map<String, Node> children;
+		
+		private String path;
+		
+		private Long pageId;
+		
+		private boolean virtualParent;
+		
+		String getPath() {
+			return path;
+		}
+		
+		Long getPageId() {
+			return pageId;
+		}
+		
+		Node getChild(String segment) {
+			return children != null ? children.get(segment) : null;
+		}
+		
+		Node getOrCreate(String path) {
+			Node node = this;
+			int start = 1;
+			while (start < path.length()) {
+				int end = path.indexOf('/', start);
+				if (end == -1) {
+					end = path.length();
+				}
+				String segment = path.substring(start, end);
+				Node child = node.getChild(segment);
+				if (child == null) {
+					if (node.children == null) {
+						node.children = new HashMap<String, Node>();
+					}
+					child = new Node();
+					node.children.put(segment, child);
+				}
+				node = child;
+				start = end + 1;
+			}
+			return node;
+		}
+	}
+	
+}
@@ -351,6 +351,26 @@ public class ContentPage extends ContentEntity implements Page, Lifecycle {
 				.cache().load();
 	}
 
+	/**
+	 * Returns the id, path, page type name and parent id of all pages of 
+	 * the given site.
+	 */
+	public static List<?> listPathsBySite(Site site) {
+		return query(ContentPage.class, 
+				"select id, path, pageTypeName, parent.id from {} " +
+				"where site = ?1", site).list();
+	}
+	
+	/**
+	 * Returns the parent id, child id and child position of all pages of
+	 * the given site that have a parent.
+	 */
+	public static List<?> listChildIdsBySite(Site site) {
+		return query(ContentPage.class, 
+				"select p.id, c.id, index(c) from {} p join p.children c " +
+				"where p.site = ?1", site).list();
+	}
+	
 	public static List<ContentPage> findByTypesAndSite(Collection<String> types, Site site) {
 		if (types == null || types.isEmpty()) {
 			return Collections.emptyList();
@@ -12,6 +12,8 @@
  */
 package org.riotfamily.pages.model;
 
+import java.util.List;
+
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
@@ -95,6 +97,16 @@ public class PageAlias extends ActiveRecordBeanSupport {
 				.cache().load();
 	}
 
+	/**
+	 * Returns the path and the page id of all aliases of the given site.
+	 * The id is <code>null</code> if the page has been deleted.
+	 */
+	public static List<?> listPathsBySite(Site site) {
+		return query(PageAlias.class,
+				"select path, page.id from {} where site = ?1", site)
+				.list();
+	}
+	
 	private static void deleteBySiteAndPath(Site site, String path) {
 		query(PageAlias.class, 
 				"delete from {} where site = ?1 and path = ?2", site, path)
@@ -27,9 +27,18 @@ import org.riotfamily.common.web.support.ServletUtils;
 import org.riotfamily.components.view.ContentContainerOwnerFacade;
 import org.riotfamily.core.security.AccessController;
 import org.riotfamily.pages.config.VirtualPageType;
+import org.riotfamily.pages.mapping.PageRoutingTable;
+import org.riotfamily.pages.mapping.PageRoutingTable.NavigationNode;
+import org.riotfamily.pages.model.ContentPage;
 import org.riotfamily.pages.model.Page;
 
 /**
+ * Facade that is exposed to FreeMarker templates. If a 
+ * {@link PageRoutingTable} has been configured, children and siblings are 
+ * looked up in its {@link NavigationNode navigation nodes}, so that walking 
+ * a menu neither initializes lazy collections nor copies the list of 
+ * siblings for each step.
+ * 
  * @author Felix Gnass [fgnass at neteye dot de]
  * @since 6.5
  */
@@ -139,6 +148,16 @@ public class PageFacade extends ContentContainerOwnerFacade {
 	public List<Page> getChildren() {
 		ArrayList<Page> result = Generics.newArrayList();
 		CacheTagUtils.tagIfSupported(page);
+		NavigationNode node = getNavigationNode(page);
+		if (node != null) {
+			for (Long id : node.getChildIds()) {
+				Page child = loadIfVisible(id);
+				if (child != null) {
+					result.add(child);
+				}
+			}
+			return result;
+		}
 		VirtualPageType type = page.getSite().getSchema().getVirtualChildType(page);
 		if (type != null) {
 			Collection<Page> children = type.listChildren(page);
@@ -158,6 +177,10 @@ public class PageFacade extends ContentContainerOwnerFacade {
 	}
 	
 	public Page getPreviousSibling() {
+		NavigationNode parent = getNavigationNode(page.getParent());
+		if (parent != null) {
+			return getSibling(parent, -1);
+		}
 		List<Page> siblings = getSiblings();
 		int i = siblings.indexOf(page);
 		if (i > 0) {
@@ -167,6 +190,10 @@ public class PageFacade extends ContentContainerOwnerFacade {
 	}
 	
 	public Page getNextSibling() {
+		NavigationNode parent = getNavigationNode(page.getParent());
+		if (parent != null) {
+			return getSibling(parent, 1);
+		}
 		List<Page> siblings = getSiblings();
 		int i = siblings.indexOf(page);
 		if (i < siblings.size() - 1) {
@@ -175,6 +202,74 @@ public class PageFacade extends ContentContainerOwnerFacade {
 		return null;
 	}
 	
+	/**
+	 * Walks from the current page in the given direction and returns the 
+	 * first sibling that is published or previewed.
+	 */
+	private Page getSibling(NavigationNode parent, int step) {
+		CacheTagUtils.tagIfSupported(page.getParent());
+		NavigationNode node = PageRoutingTable.getInstance().getNavigationNode(
+				page.getSite(), ((ContentPage) page).getId());
+		
+		if (node == null || !parent.getPageId().equals(node.getParentId())) {
+			return null;
+		}
+		List<Long> ids = parent.getChildIds();
+		for (int i = node.getIndex() + step; i >= 0 && i < ids.size(); i += step) {
+			Page sibling = loadIfVisible(ids.get(i));
+			if (sibling != null) {
+				return sibling;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Loads the child with the given id, if it is published or previewed.
+	 */
+	private Page loadIfVisible(Long id) {
+		NavigationNode child = PageRoutingTable.getInstance().getNavigationNode(
+				page.getSite(), id);
+		
+		if (child == null) {
+			return null;
+		}
+		// The published state is read from the entity, as publishing only 
+		// modifies the ContentContainer, which doesn't discard the snapshot
+		ContentPage childPage = loadPage(child);
+		if (childPage != null && (childPage.getContentContainer()
+				.getLiveVersion() != null || isPreview(childPage))) {
+			
+			return childPage;
+		}
+		return null;
+	}
+	
+	/**
+	 * Loads the page of the given navigation node.
+	 */
+	ContentPage loadPage(NavigationNode node) {
+		return node.getPage();
+	}
+	
+	/**
+	 * Returns the navigation node of the given page, or <code>null</code> if
+	 * no {@link PageRoutingTable} is configured, or if the page might have 
+	 * virtual children, which are not part of the table.
+	 */
+	private NavigationNode getNavigationNode(Page page) {
+		PageRoutingTable table = PageRoutingTable.getInstance();
+		if (table == null || !(page instanceof ContentPage) 
+				|| !(this.page instanceof ContentPage)) {
+			
+			return null;
+		}
+		if (page.getSite().getSchema().getVirtualChildType(page) != null) {
+			return null;
+		}
+		return table.getNavigationNode((ContentPage) page);
+	}
+	
 	protected List<Page> filterPages(Collection<? extends Page> pages) {
 		ArrayList<Page> result = Generics.newArrayList();
 		for (Page page : pages) {
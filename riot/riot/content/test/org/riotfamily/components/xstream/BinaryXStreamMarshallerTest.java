@@ -0,0 +1,84 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.components.xstream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.components.model.Component;
+import org.riotfamily.components.model.ComponentList;
+import org.riotfamily.components.model.Content;
+import org.riotfamily.components.model.ContentMap;
+
+public class BinaryXStreamMarshallerTest {
+
+	private XStreamMarshaller xmlMarshaller;
+	
+	private BinaryXStreamMarshaller binaryMarshaller;
+	
+	@Before
+	public void setUp() throws Exception {
+		xmlMarshaller = new XStreamMarshaller();
+		xmlMarshaller.afterPropertiesSet();
+		binaryMarshaller = new BinaryXStreamMarshaller();
+		binaryMarshaller.afterPropertiesSet();
+	}
+	
+	@Test
+	public void contentsAreRestored() {
+		String data = binaryMarshaller.marshal(createContent(binaryMarshaller));
+		Assert.assertTrue(BinaryXStreamMarshaller.isBinary(data));
+		assertContent(binaryMarshaller.unmarshal(new Content(), data));
+	}
+	
+	@Test
+	public void legacyXmlIsRead() {
+		String xml = xmlMarshaller.marshal(createContent(xmlMarshaller));
+		Assert.assertFalse(BinaryXStreamMarshaller.isBinary(xml));
+		ContentMap contentMap = binaryMarshaller.unmarshal(new Content(), xml);
+		assertContent(contentMap);
+		
+		String data = binaryMarshaller.marshal(contentMap);
+		Assert.assertTrue(BinaryXStreamMarshaller.isBinary(data));
+		assertContent(binaryMarshaller.unmarshal(new Content(), data));
+	}
+	
+	private Content createContent(XStreamMarshaller marshaller) {
+		Content content = new Content();
+		content.setMarshaller(marshaller);
+		content.put("title", "Lorem ipsum");
+		ComponentList list = new ComponentList(content, "main");
+		for (int i = 0; i < 3; i++) {
+			Component component = new Component(list);
+			component.setType("text");
+			component.put("headline", "Headline " + i);
+			component.put("position", i);
+			list.add(component);
+		}
+		content.put("main", list);
+		return content;
+	}
+	
+	private void assertContent(ContentMap contentMap) {
+		Assert.assertEquals("Lorem ipsum", contentMap.get("title"));
+		ComponentList list = (ComponentList) contentMap.get("main");
+		Assert.assertEquals(3, list.size());
+		for (int i = 0; i < 3; i++) {
+			Component component = list.get(i);
+			Assert.assertEquals("text", component.getType());
+			Assert.assertEquals("Headline " + i, component.get("headline"));
+			Assert.assertEquals(i, component.get("position"));
+		}
+	}
+	
+}
@@ -0,0 +1,231 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.pages.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.riotfamily.pages.mapping.PageRoutingTable.HostRoutes;
+import org.riotfamily.pages.mapping.PageRoutingTable.Node;
+import org.riotfamily.pages.mapping.PageRoutingTable.SiteRoutes;
+import org.riotfamily.pages.model.Site;
+
+public class PageRoutingTableTest {
+
+	private List<Object[]> pages = new ArrayList<Object[]>();
+	
+	private List<Object[]> aliases = new ArrayList<Object[]>();
+	
+	private List<Object[]> childIds = new ArrayList<Object[]>();
+	
+	@Test
+	public void pagesAreLookedUpByPath() {
+		addPage(1L, "/", "root", null);
+		addPage(2L, "/about", "page", 1L);
+		addPage(3L, "/about/team", "page", 2L);
+		SiteRoutes routes = createRoutes();
+		
+		Assert.assertEquals(Long.valueOf(1), routes.lookup("/").getPageId());
+		Assert.assertEquals(Long.valueOf(2), routes.lookup("/about").getPageId());
+		Assert.assertEquals(Long.valueOf(3), routes.lookup("/about/team").getPageId());
+		Assert.assertNull(routes.lookup("/contact"));
+		Assert.assertNull(routes.lookup("/about/jobs"));
+		Assert.assertNull(routes.lookup("/about/team/lead"));
+	}
+	
+	@Test
+	public void virtualChildrenResolveToClosestVirtualParent() {
+		addPage(1L, "/", "root", null);
+		addPage(2L, "/blog", "blog", 1L);
+		addPage(3L, "/blog/archive", "page", 2L);
+		SiteRoutes routes = createRoutes("blog");
+		
+		Node node = routes.lookup("/blog/2010/hello");
+		Assert.assertEquals(Long.valueOf(2), node.getPageId());
+		Assert.assertEquals("/2010/hello", PageRoutingTable.getVirtualChildPath(
+				node, "/blog/2010/hello", false));
+		
+		Assert.assertEquals(Long.valueOf(3), routes.lookup("/blog/archive").getPageId());
+		Assert.assertEquals(Long.valueOf(2), routes.lookup("/blog/archive/2010").getPageId());
+		Assert.assertNull(routes.lookup("/blogger"));
+	}
+	
+	@Test
+	public void rootPageMayBeVirtualParent() {
+		addPage(1L, "/", "root", null);
+		addPage(2L, "/about", "page", 1L);
+		SiteRoutes routes = createRoutes("root");
+		
+		Node node = routes.lookup("/hello");
+		Assert.assertEquals(Long.valueOf(1), node.getPageId());
+		Assert.assertEquals("hello", PageRoutingTable.getVirtualChildPath(
+				node, "/hello", true));
+		
+		Assert.assertNull(PageRoutingTable.getVirtualChildPath(
+				node, "/hello", false));
+		
+		Assert.assertEquals(Long.valueOf(2), routes.lookup("/about").getPageId());
+	}
+	
+	@Test
+	public void aliasesAreMapped() {
+		addPage(1L, "/", "root", null);
+		aliases.add(new Object[] { "/old", 1L });
+		aliases.add(new Object[] { "/deleted", null });
+		SiteRoutes routes = createRoutes();
+		
+		Assert.assertEquals(Long.valueOf(1), routes.getAlias("/old").getPageId());
+		Assert.assertNull(routes.getAlias("/deleted").getPageId());
+		Assert.assertNull(routes.getAlias("/"));
+	}
+	
+	@Test
+	public void childIdsAreOrderedByIndex() {
+		addPage(1L, "/", "root", null);
+		addPage(2L, "/b", "page", 1L);
+		addPage(3L, "/a", "page", 1L);
+		addPage(4L, "/c", "page", 1L);
+		childIds.add(new Object[] { 1L, 2L, 5 });
+		childIds.add(new Object[] { 1L, 3L, 1 });
+		childIds.add(new Object[] { 1L, 4L, 7 });
+		childIds.add(new Object[] { 1L, 99L, 0 });
+		SiteRoutes routes = createRoutes();
+		
+		Assert.assertEquals(Arrays.asList(3L, 2L, 4L), 
+				routes.getNavigationNode(1L).getChildIds());
+		
+		Assert.assertEquals(0, routes.getNavigationNode(3L).getIndex());
+		Assert.assertEquals(1, routes.getNavigationNode(2L).getIndex());
+		Assert.assertEquals(2, routes.getNavigationNode(4L).getIndex());
+		Assert.assertEquals(Long.valueOf(1), routes.getNavigationNode(2L).getParentId());
+		Assert.assertTrue(routes.getNavigationNode(4L).getChildIds().isEmpty());
+	}
+	
+	@Test
+	public void hostNamesTakePrecedenceOverAliases() {
+		Site a = createSite(1L, "a.com", "b.com");
+		Site b = createSite(2L, "b.com", "a.com", "c.com");
+		Site c = createSite(3L, "c.com");
+		HostRoutes routes = new HostRoutes(Arrays.asList(a, b, c));
+		
+		Assert.assertEquals(Long.valueOf(1), routes.resolve("a.com"));
+		Assert.assertEquals(Long.valueOf(2), routes.resolve("b.com"));
+		Assert.assertEquals(Long.valueOf(3), routes.resolve("c.com"));
+		Assert.assertNull(routes.resolve("d.com"));
+	}
+	
+	@Test
+	public void firstSiteWithoutHostNameMatchesAnyHost() {
+		Site a = createSite(1L, "a.com");
+		Site b = createSite(2L, null);
+		Site c = createSite(3L, null);
+		HostRoutes routes = new HostRoutes(Arrays.asList(a, b, c));
+		
+		Assert.assertEquals(Long.valueOf(1), routes.resolve("a.com"));
+		Assert.assertEquals(Long.valueOf(2), routes.resolve("d.com"));
+		Assert.assertEquals(Long.valueOf(2), routes.resolve(null));
+	}
+	
+	@Test
+	public void routesDiscardedWhileBuildingAreNotKept() {
+		final Site site = createSite(1L, null);
+		final AtomicInteger builds = new AtomicInteger();
+		PageRoutingTable table = new PageRoutingTable() {
+			@Override
+			SiteRoutes loadRoutes(Site s) {
+				if (builds.incrementAndGet() == 1) {
+					invalidate(site);
+				}
+				return createRoutes();
+			}
+		};
+		
+		table.getRoutes(site);
+		table.getRoutes(site);
+		Assert.assertEquals(2, builds.get());
+		table.getRoutes(site);
+		Assert.assertEquals(2, builds.get());
+		
+		table.invalidate();
+		table.getRoutes(site);
+		Assert.assertEquals(3, builds.get());
+	}
+	
+	@Test
+	public void expiredRoutesAreServedWhileRebuilding() throws Exception {
+		final Site site = createSite(1L, null);
+		final AtomicInteger builds = new AtomicInteger();
+		final CountDownLatch building = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final PageRoutingTable table = new PageRoutingTable() {
+			@Override
+			SiteRoutes loadRoutes(Site s) {
+				if (builds.incrementAndGet() == 2) {
+					building.countDown();
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return createRoutes();
+			}
+		};
+		table.setTimeToLive("0s");
+		
+		SiteRoutes expired = table.getRoutes(site);
+		Thread.sleep(5);
+		Thread rebuild = new Thread() {
+			@Override
+			public void run() {
+				table.getRoutes(site);
+			}
+		};
+		rebuild.start();
+		Assert.assertTrue(building.await(10, TimeUnit.SECONDS));
+		
+		Assert.assertSame(expired, table.getRoutes(site));
+		Assert.assertEquals(2, builds.get());
+		
+		release.countDown();
+		rebuild.join(10000);
+		Assert.assertEquals(2, builds.get());
+	}
+	
+	private void addPage(Long id, String path, String pageType, Long parentId) {
+		pages.add(new Object[] { id, path, pageType, parentId });
+	}
+	
+	private SiteRoutes createRoutes(String... virtualParents) {
+		return new SiteRoutes(new HashSet<String>(Arrays.asList(virtualParents)), 
+				pages, aliases, childIds);
+	}
+	
+	private Site createSite(Long id, String hostName, String... aliases) {
+		Site site = new Site();
+		site.setId(id);
+		site.setHostName(hostName);
+		if (aliases.length > 0) {
+			site.setAliases(new HashSet<String>(Arrays.asList(aliases)));
+		}
+		return site;
+	}
+}
@@ -0,0 +1,51 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.pages.mapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.riotfamily.pages.model.Site;
+
+/**
+ * PageRoutingTable that builds the routes of all sites from the given rows
+ * instead of querying the database.
+ */
+public class StaticPageRoutingTable extends PageRoutingTable {
+
+	private List<Object[]> pages = new ArrayList<Object[]>();
+	
+	private List<Object[]> childIds = new ArrayList<Object[]>();
+	
+	private Set<String> virtualParents = Collections.emptySet();
+	
+	public void setVirtualParents(Set<String> virtualParents) {
+		this.virtualParents = virtualParents;
+	}
+	
+	public void addPage(Long id, String path, String pageType, Long parentId, int index) {
+		pages.add(new Object[] { id, path, pageType, parentId });
+		if (parentId != null) {
+			childIds.add(new Object[] { parentId, id, index });
+		}
+		invalidate();
+	}
+	
+	@Override
+	SiteRoutes loadRoutes(Site site) {
+		return new SiteRoutes(virtualParents, pages, 
+				Collections.emptyList(), childIds);
+	}
+}
@@ -0,0 +1,194 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.pages.view;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.components.model.Content;
+import org.riotfamily.pages.config.RootPageType;
+import org.riotfamily.pages.config.SitemapSchema;
+import org.riotfamily.pages.config.SitemapSchemaRepository;
+import org.riotfamily.pages.config.SystemPageType;
+import org.riotfamily.pages.config.VirtualPageType;
+import org.riotfamily.pages.mapping.ChildPageResolver;
+import org.riotfamily.pages.mapping.PageRoutingTable.NavigationNode;
+import org.riotfamily.pages.mapping.StaticPageRoutingTable;
+import org.riotfamily.pages.model.ContentPage;
+import org.riotfamily.pages.model.Page;
+import org.riotfamily.pages.model.Site;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class PageFacadeTest {
+
+	private StaticPageRoutingTable table;
+	
+	private Site site;
+	
+	private RootPageType rootType;
+	
+	private SystemPageType blogType;
+	
+	private List<Page> virtualChildren = Generics.newArrayList();
+	
+	private Map<Long, ContentPage> pages = Generics.newHashMap();
+	
+	@Before
+	public void setUp() {
+		table = new StaticPageRoutingTable();
+		table.setVirtualParents(Collections.singleton("blog"));
+		
+		VirtualPageType postType = new VirtualPageType();
+		postType.setName("post");
+		postType.setResolver(new StaticChildPageResolver());
+		blogType = new SystemPageType();
+		blogType.setName("blog");
+		blogType.setVirtualPage(postType);
+		rootType = new RootPageType();
+		rootType.setChildPages(Collections.singletonList(blogType));
+		
+		SitemapSchema schema = new SitemapSchema(null);
+		schema.setName("default");
+		schema.setRootPage(rootType);
+		SitemapSchemaRepository repository = new SitemapSchemaRepository();
+		repository.addSchema(schema);
+		
+		site = new Site();
+		site.setId(1L);
+		site.setSchemaRepository(repository);
+	}
+	
+	@Test
+	public void childrenAreOrderedByIndex() {
+		ContentPage root = createPage(1L, null, rootType, 0, true);
+		createPage(2L, root, null, 5, true);
+		createPage(3L, root, null, 1, true);
+		createPage(4L, root, null, 7, true);
+		
+		Assert.assertEquals(Arrays.asList(3L, 2L, 4L), 
+				getIds(createFacade(root).getChildren()));
+	}
+	
+	@Test
+	public void unpublishedChildrenAreSkipped() {
+		ContentPage root = createPage(1L, null, rootType, 0, true);
+		createPage(2L, root, null, 0, true);
+		createPage(3L, root, null, 1, false);
+		createPage(4L, root, null, 2, true);
+		
+		Assert.assertEquals(Arrays.asList(2L, 4L), 
+				getIds(createFacade(root).getChildren()));
+	}
+	
+	@Test
+	public void siblingsSkipUnpublishedPages() {
+		ContentPage root = createPage(1L, null, rootType, 0, true);
+		ContentPage a = createPage(2L, root, null, 0, true);
+		ContentPage b = createPage(3L, root, null, 1, false);
+		ContentPage c = createPage(4L, root, null, 2, false);
+		ContentPage d = createPage(5L, root, null, 3, true);
+		
+		Assert.assertNull(createFacade(a).getPreviousSibling());
+		Assert.assertSame(d, createFacade(a).getNextSibling());
+		Assert.assertSame(a, createFacade(b).getPreviousSibling());
+		Assert.assertSame(d, createFacade(c).getNextSibling());
+		Assert.assertSame(a, createFacade(d).getPreviousSibling());
+		Assert.assertNull(createFacade(d).getNextSibling());
+	}
+	
+	@Test
+	public void virtualChildrenAreListedByTheirType() {
+		ContentPage root = createPage(1L, null, rootType, 0, true);
+		ContentPage blog = createPage(2L, root, blogType, 0, true);
+		ContentPage archive = createPage(3L, blog, null, 0, true);
+		ContentPage drafts = createPage(4L, blog, null, 1, false);
+		blog.setChildren(Arrays.asList(archive, drafts));
+		ContentPage post = createPage(5L, blog, null, 2, true);
+		virtualChildren.add(post);
+		
+		Assert.assertEquals(Arrays.asList(5L, 3L), 
+				getIds(createFacade(blog).getChildren()));
+		
+		Assert.assertNull(createFacade(post).getPreviousSibling());
+		Assert.assertSame(archive, createFacade(post).getNextSibling());
+	}
+	
+	private ContentPage createPage(Long id, ContentPage parent, 
+			SystemPageType type, int index, boolean published) {
+		
+		ContentPage page = new ContentPage();
+		page.setId(id);
+		page.setSite(site);
+		page.setParent(parent);
+		if (type != null) {
+			page.setPageType(type);
+		}
+		if (published) {
+			page.getContentContainer().setLiveVersion(new Content());
+		}
+		pages.put(id, page);
+		table.addPage(id, parent != null ? "/" + id : "/", 
+				type != null ? type.getName() : "page", 
+				parent != null ? parent.getId() : null, index);
+		
+		return page;
+	}
+	
+	private List<Long> getIds(List<Page> pages) {
+		List<Long> ids = Generics.newArrayList();
+		for (Page page : pages) {
+			ids.add(((ContentPage) page).getId());
+		}
+		return ids;
+	}
+	
+	private PageFacade createFacade(ContentPage page) {
+		return new PageFacade(page, new MockHttpServletRequest()) {
+			@Override
+			ContentPage loadPage(NavigationNode node) {
+				return pages.get(node.getPageId());
+			}
+		};
+	}
+	
+	private class StaticChildPageResolver implements ChildPageResolver {
+
+		public Page resolvePage(VirtualPageType type, Page parent, 
+				String pathComponent) {
+			
+			return null;
+		}
+
+		public Collection<Page> listChildren(VirtualPageType type, Page parent) {
+			return virtualChildren;
+		}
+
+		public Page getPage(VirtualPageType type, Site site, Object object) {
+			return null;
+		}
+
+		public Date getLastPublished(VirtualPageType type, Page parent, 
+				Object object) {
+			
+			return null;
+		}
+	}
+}
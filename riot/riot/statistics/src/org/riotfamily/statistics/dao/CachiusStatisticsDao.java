@@ -47,7 +47,26 @@ public class CachiusStatisticsDao extends AbstractSimpleStatsDao {
 		for (String region : cachiusStatistics.getCacheRegionNames()) {
 			stats.add("Capacity [" + region + "]", cachiusStatistics.getCapacity(region));
 			stats.add("Cached items [" + region + "]", cachiusStatistics.getSize(region));
-			stats.addMillis("Average overflow interval [" + region + "]", cachiusStatistics.getAverageOverflowInterval(region));
+			if (cachiusStatistics.getMaxSize(region) > 0) {
+				stats.addBytes("Size limit [" + region + "]", cachiusStatistics.getMaxSize(region));
+			}
+			stats.addBytes("Size [" + region + "]", cachiusStatistics.getUsedBytes(region));
+			stats.add("Eviction policy [" + region + "]", cachiusStatistics.getEvictionPolicy(region));
+			stats.add("Evictions [" + region + "]", cachiusStatistics.getEvictions(region));
+			stats.add("Queued captures [" + region + "]", cachiusStatistics.getQueuedCaptures(region));
+			stats.add("Rejected captures [" + region + "]", cachiusStatistics.getRejectedCaptures(region));
+			stats.add("Hits [" + region + "]", cachiusStatistics.getHits(region));
+			stats.add("Misses [" + region + "]", cachiusStatistics.getMisses(region));
+			stats.add("Hit ratio [" + region + "]", String.format("%.1f %%", cachiusStatistics.getHitRatio(region)));
+			stats.add("Not modified [" + region + "]", cachiusStatistics.getNotModified(region));
+			stats.add("Not modified ratio [" + region + "]", String.format("%.1f %%", cachiusStatistics.getNotModifiedRatio(region)));
+		}
+		if (cachiusStatistics.isMemoryTierEnabled()) {
+			stats.addBytes("Memory tier capacity", cachiusStatistics.getMemoryTierCapacity());
+			stats.addBytes("Memory tier reserved", cachiusStatistics.getMemoryTierReservedBytes());
+			stats.addBytes("Memory tier used", cachiusStatistics.getMemoryTierUsedBytes());
+			stats.add("Memory tier items", cachiusStatistics.getMemoryTierItems());
+			stats.add("Memory tier rejections", cachiusStatistics.getMemoryTierRejections());
 		}
 		//stats.add("Max invalidation time [ms]", cachius.getMaxInvalidationTime());
 		
@@ -56,5 +75,21 @@ public class CachiusStatisticsDao extends AbstractSimpleStatsDao {
 		
 		stats.add("Max update time [ms]", cachiusStatistics.getMaxUpdateTime());
 		stats.add("Slowest update", cachiusStatistics.getSlowestUpdate());
+		
+		if (cachiusStatistics.getMaxConcurrentCaptures() > 0) {
+			stats.add("Max concurrent captures", cachiusStatistics.getMaxConcurrentCaptures());
+		}
+		stats.add("Active captures", cachiusStatistics.getActiveCaptures());
+		stats.add("Waiting captures", cachiusStatistics.getWaitingCaptures());
+		stats.add("Queued captures", cachiusStatistics.getQueuedCaptures());
+		stats.add("Rejected captures", cachiusStatistics.getRejectedCaptures());
+		
+		stats.add("Refresh queue depth", cachiusStatistics.getRefreshQueueDepth());
+		stats.add("Pending refreshes", cachiusStatistics.getPendingRefreshes());
+		stats.add("Refreshes", cachiusStatistics.getRefreshes());
+		stats.add("Coalesced refreshes", cachiusStatistics.getCoalescedRefreshes());
+		stats.add("Rejected refreshes", cachiusStatistics.getRejectedRefreshes());
+		stats.addMillis("Average refresh time", cachiusStatistics.getAverageRefreshTime());
+		stats.addMillis("Max refresh time", cachiusStatistics.getMaxRefreshTime());
 	}
 }